@@ -20,21 +20,28 @@ public class NetworkDiscoveryApplication {
 // File: src/main/java/com/networkdiscovery/entity/AuthorizedDevice.java
 package com.networkdiscovery.entity;
 
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.sync.ChangeTracked;
+import com.networkdiscovery.sync.ChangeVersionListener;
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "authorized_devices")
-public class AuthorizedDevice {
+@EntityListeners(ChangeVersionListener.class)
+public class AuthorizedDevice implements ChangeTracked {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
-    @Column(name = "ip_address", unique = true)
-    private String ipAddress;
+    @Column(name = "ip_addr", unique = true, length = 16)
+    @Convert(converter = IpAddressConverter.class)
+    private IpAddress ipAddress;
     
-    @Column(name = "mac_address", unique = true)
-    private String macAddress;
+    @Column(name = "mac_addr", unique = true)
+    @Convert(converter = MacAddressConverter.class)
+    private MacAddress macAddress;
     
     @Column(name = "device_name")
     private String deviceName;
@@ -63,13 +70,17 @@ public class AuthorizedDevice {
     @Column(name = "is_active")
     private Boolean isActive = true;
     
+    // Delta sync position, restamped on every write
+    @Column(name = "change_version", nullable = false)
+    private Long changeVersion = 0L;
+    
     // Constructors
     public AuthorizedDevice() {
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
     }
     
-    public AuthorizedDevice(String ipAddress, String macAddress, String deviceName) {
+    public AuthorizedDevice(IpAddress ipAddress, MacAddress macAddress, String deviceName) {
         this();
         this.ipAddress = ipAddress;
         this.macAddress = macAddress;
@@ -80,11 +91,11 @@ public class AuthorizedDevice {
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
     
-    public String getIpAddress() { return ipAddress; }
-    public void setIpAddress(String ipAddress) { this.ipAddress = ipAddress; }
+    public IpAddress getIpAddress() { return ipAddress; }
+    public void setIpAddress(IpAddress ipAddress) { this.ipAddress = ipAddress; }
     
-    public String getMacAddress() { return macAddress; }
-    public void setMacAddress(String macAddress) { this.macAddress = macAddress; }
+    public MacAddress getMacAddress() { return macAddress; }
+    public void setMacAddress(MacAddress macAddress) { this.macAddress = macAddress; }
     
     public String getDeviceName() { return deviceName; }
     public void setDeviceName(String deviceName) { this.deviceName = deviceName; }
@@ -113,6 +124,9 @@ public class AuthorizedDevice {
     public Boolean getIsActive() { return isActive; }
     public void setIsActive(Boolean isActive) { this.isActive = isActive; }
     
+    public Long getChangeVersion() { return changeVersion; }
+    public void setChangeVersion(Long changeVersion) { this.changeVersion = changeVersion; }
+    
     @PreUpdate
     public void preUpdate() {
         this.updatedAt = LocalDateTime.now();
@@ -122,21 +136,36 @@ public class AuthorizedDevice {
 // File: src/main/java/com/networkdiscovery/entity/UnauthorizedDevice.java
 package com.networkdiscovery.entity;
 
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.Ipv6AddressSet;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.sync.ChangeTracked;
+import com.networkdiscovery.sync.ChangeVersionListener;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "unauthorized_devices")
-public class UnauthorizedDevice {
+@EntityListeners(ChangeVersionListener.class)
+public class UnauthorizedDevice implements ChangeTracked {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
-    @Column(name = "ip_address")
-    private String ipAddress;
+    @Column(name = "ip_addr", length = 16)
+    @Convert(converter = IpAddressConverter.class)
+    private IpAddress ipAddress;
     
-    @Column(name = "mac_address")
-    private String macAddress;
+    // Unique so concurrent ingesters cannot both insert the same device
+    @Column(name = "mac_addr", unique = true)
+    @Convert(converter = MacAddressConverter.class)
+    private MacAddress macAddress;
+    
+    // Addresses from the IPv6 neighbor table, most recent last
+    @Column(name = "ipv6_addrs", length = 512)
+    @Convert(converter = Ipv6AddressSetConverter.class)
+    private Ipv6AddressSet ipv6Addresses = Ipv6AddressSet.EMPTY;
     
     @Column(name = "hostname")
     private String hostname;
@@ -170,6 +199,20 @@ public class UnauthorizedDevice {
     @Column(name = "notes")
     private String notes;
     
+    // Optimistic lock; a scan merging a stale copy over a concurrent update fails instead of losing it
+    @Version
+    @Column(name = "version")
+    private Long version;
+    
+    // Delta sync position, restamped on every write including the bulk updates
+    @Column(name = "change_version", nullable = false)
+    private Long changeVersion = 0L;
+    
+    // Highest observation log sequence folded into this row, so a replayed batch is not counted twice
+    @JsonIgnore
+    @Column(name = "applied_sequence", nullable = false)
+    private Long appliedSequence = -1L;
+    
     // Constructors
     public UnauthorizedDevice() {
         this.firstDetected = LocalDateTime.now();
@@ -177,7 +220,7 @@ public class UnauthorizedDevice {
         this.status = DeviceStatus.ONLINE;
     }
     
-    public UnauthorizedDevice(String ipAddress, String macAddress) {
+    public UnauthorizedDevice(IpAddress ipAddress, MacAddress macAddress) {
         this();
         this.ipAddress = ipAddress;
         this.macAddress = macAddress;
@@ -187,11 +230,18 @@ public class UnauthorizedDevice {
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
     
-    public String getIpAddress() { return ipAddress; }
-    public void setIpAddress(String ipAddress) { this.ipAddress = ipAddress; }
+    public IpAddress getIpAddress() { return ipAddress; }
+    public void setIpAddress(IpAddress ipAddress) { this.ipAddress = ipAddress; }
+    
+    public MacAddress getMacAddress() { return macAddress; }
+    public void setMacAddress(MacAddress macAddress) { this.macAddress = macAddress; }
+    
+    public Ipv6AddressSet getIpv6Addresses() { return ipv6Addresses; }
+    public void setIpv6Addresses(Ipv6AddressSet ipv6Addresses) { this.ipv6Addresses = ipv6Addresses; }
     
-    public String getMacAddress() { return macAddress; }
-    public void setMacAddress(String macAddress) { this.macAddress = macAddress; }
+    public void addIpv6Address(IpAddress address) {
+        this.ipv6Addresses = (ipv6Addresses == null ? Ipv6AddressSet.EMPTY : ipv6Addresses).with(address);
+    }
     
     public String getHostname() { return hostname; }
     public void setHostname(String hostname) { this.hostname = hostname; }
@@ -222,6 +272,15 @@ public class UnauthorizedDevice {
     
     public String getNotes() { return notes; }
     public void setNotes(String notes) { this.notes = notes; }
+    
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+    
+    public Long getChangeVersion() { return changeVersion; }
+    public void setChangeVersion(Long changeVersion) { this.changeVersion = changeVersion; }
+    
+    public Long getAppliedSequence() { return appliedSequence; }
+    public void setAppliedSequence(Long appliedSequence) { this.appliedSequence = appliedSequence; }
 }
 
 // File: src/main/java/com/networkdiscovery/entity/DeviceStatus.java
@@ -238,540 +297,9294 @@ public enum RiskLevel {
     LOW, MEDIUM, HIGH, CRITICAL
 }
 
-// File: src/main/java/com/networkdiscovery/repository/AuthorizedDeviceRepository.java
-package com.networkdiscovery.repository;
-
-import com.networkdiscovery.entity.AuthorizedDevice;
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.stereotype.Repository;
-import java.util.Optional;
-import java.util.List;
-
-@Repository
-public interface AuthorizedDeviceRepository extends JpaRepository<AuthorizedDevice, Long> {
-    Optional<AuthorizedDevice> findByIpAddress(String ipAddress);
-    Optional<AuthorizedDevice> findByMacAddress(String macAddress);
-    List<AuthorizedDevice> findByIsActive(Boolean isActive);
-    List<AuthorizedDevice> findByDeviceType(String deviceType);
-    List<AuthorizedDevice> findByDepartment(String department);
-    boolean existsByIpAddress(String ipAddress);
-    boolean existsByMacAddress(String macAddress);
-}
-
-// File: src/main/java/com/networkdiscovery/repository/UnauthorizedDeviceRepository.java
-package com.networkdiscovery.repository;
+// File: src/main/java/com/networkdiscovery/entity/DeviceTombstone.java
+package com.networkdiscovery.entity;
 
-import com.networkdiscovery.entity.UnauthorizedDevice;
-import com.networkdiscovery.entity.DeviceStatus;
-import com.networkdiscovery.entity.RiskLevel;
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.stereotype.Repository;
-import java.util.Optional;
-import java.util.List;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.sync.ChangeTracked;
+import com.networkdiscovery.sync.ChangeVersionListener;
+import javax.persistence.*;
 import java.time.LocalDateTime;
 
-@Repository
-public interface UnauthorizedDeviceRepository extends JpaRepository<UnauthorizedDevice, Long> {
-    Optional<UnauthorizedDevice> findByIpAddress(String ipAddress);
-    Optional<UnauthorizedDevice> findByMacAddress(String macAddress);
-    List<UnauthorizedDevice> findByStatus(DeviceStatus status);
-    List<UnauthorizedDevice> findByRiskLevel(RiskLevel riskLevel);
-    List<UnauthorizedDevice> findByIsInvestigated(Boolean isInvestigated);
-    List<UnauthorizedDevice> findByLastSeenBefore(LocalDateTime dateTime);
-    List<UnauthorizedDevice> findByFirstDetectedAfter(LocalDateTime dateTime);
+// A hard-deleted device, kept so delta sync can tell clients to drop it
+@Entity
+@Table(name = "device_tombstones")
+@EntityListeners(ChangeVersionListener.class)
+public class DeviceTombstone implements ChangeTracked {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "device_kind", length = 16)
+    @Enumerated(EnumType.STRING)
+    private DeviceKind deviceKind;
+    
+    @Column(name = "device_id")
+    private Long deviceId;
+    
+    @Column(name = "change_version", nullable = false)
+    private Long changeVersion = 0L;
+    
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+    
+    public DeviceTombstone() {
+        this.deletedAt = LocalDateTime.now();
+    }
+    
+    public DeviceTombstone(DeviceKind deviceKind, Long deviceId) {
+        this();
+        this.deviceKind = deviceKind;
+        this.deviceId = deviceId;
+    }
+    
+    public Long getId() { return id; }
+    public DeviceKind getDeviceKind() { return deviceKind; }
+    public Long getDeviceId() { return deviceId; }
+    public Long getChangeVersion() { return changeVersion; }
+    public void setChangeVersion(Long changeVersion) { this.changeVersion = changeVersion; }
+    public LocalDateTime getDeletedAt() { return deletedAt; }
 }
 
-// File: src/main/java/com/networkdiscovery/service/NetworkScannerService.java
-package com.networkdiscovery.service;
+// File: src/main/java/com/networkdiscovery/net/MacAddress.java
+package com.networkdiscovery.net;
 
-import com.networkdiscovery.entity.*;
-import com.networkdiscovery.repository.*;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
-import java.io.*;
-import java.net.*;
-import java.time.LocalDateTime;
-import java.util.*;
-import java.util.regex.*;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
 
-@Service
-public class NetworkScannerService {
+/**
+ * 48-bit MAC address held as a long. Accepts colon, dash, Cisco dot and bare
+ * hex notation; always renders as lower-case colon form.
+ */
+public final class MacAddress implements Comparable<MacAddress> {
     
-    private static final Logger log = LoggerFactory.getLogger(NetworkScannerService.class);
+    private static final long MASK = 0xFFFF_FFFF_FFFFL;
     
-    @Autowired
-    private AuthorizedDeviceRepository authorizedRepository;
+    private final long value;
     
-    @Autowired
-    private UnauthorizedDeviceRepository unauthorizedRepository;
+    private MacAddress(long value) {
+        this.value = value & MASK;
+    }
     
-    @Value("${network.subnet:192.168.1.0/24}")
-    private String networkSubnet;
+    public static MacAddress of(long value) {
+        return new MacAddress(value);
+    }
     
-    public List<UnauthorizedDevice> scanForUnauthorizedDevices() {
-        log.info("Starting unauthorized device scan for subnet: {}", networkSubnet);
-        List<UnauthorizedDevice> newUnauthorizedDevices = new ArrayList<>();
-        
-        try {
-            // Get ARP table entries
-            List<ArpEntry> arpEntries = parseArpTable();
-            
-            // Perform ping sweep for active devices
-            List<String> activeIps = performPingSweep();
-            
-            // Process each discovered device
-            for (ArpEntry entry : arpEntries) {
-                if (!isDeviceAuthorized(entry.getIpAddress(), entry.getMacAddress())) {
-                    UnauthorizedDevice device = processUnauthorizedDevice(entry);
-                    
-                    // Update status based on ping results
-                    if (activeIps.contains(entry.getIpAddress())) {
-                        device.setStatus(DeviceStatus.ONLINE);
-                        device.setLastSeen(LocalDateTime.now());
-                    } else {
-                        device.setStatus(DeviceStatus.OFFLINE);
-                    }
-                    
-                    newUnauthorizedDevices.add(device);
-                    log.warn("Unauthorized device detected: IP={}, MAC={}", 
-                            entry.getIpAddress(), entry.getMacAddress());
-                }
+    @JsonCreator
+    public static MacAddress parse(String text) {
+        if (text == null) return null;
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ':' || c == '-' || c == '.') continue;
+            int nibble = Character.digit(c, 16);
+            if (nibble < 0 || ++digits > 12) {
+                throw new IllegalArgumentException("Invalid MAC address: " + text);
             }
-            
-            // Save unauthorized devices
-            saveUnauthorizedDevices(newUnauthorizedDevices);
-            
-        } catch (Exception e) {
-            log.error("Error during unauthorized device scan", e);
+            value = (value << 4) | nibble;
         }
-        
-        return newUnauthorizedDevices;
+        if (digits != 12) {
+            throw new IllegalArgumentException("Invalid MAC address: " + text);
+        }
+        return new MacAddress(value);
     }
     
-    private boolean isDeviceAuthorized(String ipAddress, String macAddress) {
-        return authorizedRepository.existsByIpAddress(ipAddress) || 
-               authorizedRepository.existsByMacAddress(macAddress);
+    public long toLong() { return value; }
+    
+    // Organizationally unique identifier, the vendor part of the address
+    public int oui() { return (int) (value >>> 24); }
+    
+    // Set on randomized / private addresses
+    public boolean isLocallyAdministered() { return (value & 0x0200_0000_0000L) != 0; }
+    
+    public boolean isMulticast() { return (value & 0x0100_0000_0000L) != 0; }
+    
+    @JsonValue
+    @Override
+    public String toString() {
+        char[] out = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (value >>> (40 - 8 * i)) & 0xFF;
+            out[i * 3] = Character.forDigit(octet >>> 4, 16);
+            out[i * 3 + 1] = Character.forDigit(octet & 0xF, 16);
+            if (i < 5) out[i * 3 + 2] = ':';
+        }
+        return new String(out);
     }
     
-    private UnauthorizedDevice processUnauthorizedDevice(ArpEntry entry) {
-        Optional<UnauthorizedDevice> existing = unauthorizedRepository
-                .findByMacAddress(entry.getMacAddress());
-        
-        UnauthorizedDevice device;
-        if (existing.isPresent()) {
-            device = existing.get();
-            device.setLastSeen(LocalDateTime.now());
-            device.setDetectionCount(device.getDetectionCount() + 1);
-            
-            // Update IP if changed
-            if (!entry.getIpAddress().equals(device.getIpAddress())) {
-                device.setIpAddress(entry.getIpAddress());
-            }
-        } else {
-            device = new UnauthorizedDevice(entry.getIpAddress(), entry.getMacAddress());
-            device.setVendor(lookupMacVendor(entry.getMacAddress()));
-            device.setHostname(resolveHostname(entry.getIpAddress()));
-            device.setDeviceType(determineDeviceType(device.getVendor(), device.getHostname()));
-            device.setRiskLevel(assessRiskLevel(device));
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MacAddress && ((MacAddress) o).value == value;
+    }
+    
+    @Override
+    public int hashCode() { return Long.hashCode(value); }
+    
+    @Override
+    public int compareTo(MacAddress other) { return Long.compare(value, other.value); }
+}
+
+// File: src/main/java/com/networkdiscovery/net/IpAddress.java
+package com.networkdiscovery.net;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * IPv4 or IPv6 address held as its 4 or 16 network-order bytes.
+ */
+public final class IpAddress implements Comparable<IpAddress> {
+    
+    private final byte[] bytes;
+    
+    private IpAddress(byte[] bytes) {
+        this.bytes = bytes;
+    }
+    
+    public static IpAddress of(byte[] bytes) {
+        if (bytes == null) return null;
+        if (bytes.length != 4 && bytes.length != 16) {
+            throw new IllegalArgumentException("IP address must be 4 or 16 bytes, got " + bytes.length);
         }
-        
-        return device;
+        return new IpAddress(bytes.clone());
     }
     
-    private RiskLevel assessRiskLevel(UnauthorizedDevice device) {
-        // Simple risk assessment logic
-        String vendor = device.getVendor();
-        String hostname = device.getHostname();
-        
-        if (vendor != null && (vendor.toLowerCase().contains("vm") || 
-                              vendor.toLowerCase().contains("virtual"))) {
-            return RiskLevel.HIGH; // Virtual machines could be suspicious
+    public static IpAddress ofV4(int value) {
+        return new IpAddress(new byte[] {
+            (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+        });
+    }
+    
+    public static IpAddress of(InetAddress address) {
+        return new IpAddress(address.getAddress());
+    }
+    
+    @JsonCreator
+    public static IpAddress parse(String text) {
+        if (text == null) return null;
+        String trimmed = text.trim();
+        if (trimmed.indexOf(':') < 0) {
+            return ofV4(parseV4(trimmed));
         }
-        
-        if (hostname != null && hostname.toLowerCase().contains("android")) {
-            return RiskLevel.LOW; // Mobile devices are typically low risk
+        // The zone id ("%eth0") is not part of the stored address
+        int zone = trimmed.indexOf('%');
+        if (zone >= 0) {
+            trimmed = trimmed.substring(0, zone);
+        }
+        // Only literal characters, so InetAddress never falls back to a DNS lookup
+        if (!trimmed.matches("[0-9a-fA-F:.]+")) {
+            throw new IllegalArgumentException("Invalid IP address: " + text);
+        }
+        try {
+            return of(InetAddress.getByName(trimmed));
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid IP address: " + text, e);
         }
-        
-        return RiskLevel.MEDIUM; // Default risk level
     }
     
-    private String determineDeviceType(String vendor, String hostname) {
-        if (vendor == null && hostname == null) return "Unknown";
-        
-        String combined = (vendor + " " + hostname).toLowerCase();
-        
-        if (combined.contains("apple") || combined.contains("iphone") || combined.contains("ipad")) {
-            return "Apple Device";
-        } else if (combined.contains("samsung") || combined.contains("android")) {
-            return "Android Device";
-        } else if (combined.contains("vm") || combined.contains("virtual")) {
-            return "Virtual Machine";
-        } else if (combined.contains("printer") || combined.contains("canon") || combined.contains("hp")) {
-            return "Printer";
-        } else if (combined.contains("router") || combined.contains("switch")) {
-            return "Network Device";
+    private static int parseV4(String text) {
+        int value = 0;
+        int octet = -1;
+        int octets = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || ++octets > 4) throw new IllegalArgumentException("Invalid IP address: " + text);
+                value = (value << 8) | octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) throw new IllegalArgumentException("Invalid IP address: " + text);
+            } else {
+                throw new IllegalArgumentException("Invalid IP address: " + text);
+            }
         }
-        
-        return "Computer";
+        if (octets != 4) throw new IllegalArgumentException("Invalid IP address: " + text);
+        return value;
     }
     
-    private List<ArpEntry> parseArpTable() throws IOException {
-        List<ArpEntry> entries = new ArrayList<>();
-        
-        String os = System.getProperty("os.name").toLowerCase();
-        String command = os.contains("win") ? "arp -a" : "arp -a";
-        
-        Process process = Runtime.getRuntime().exec(command);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        
-        String line;
-        while ((line = reader.readLine()) != null) {
-            ArpEntry entry = parseArpLine(line);
-            if (entry != null) {
-                entries.add(entry);
-            }
+    public boolean isV4() { return bytes.length == 4; }
+    
+    public int toV4Int() {
+        if (!isV4()) throw new IllegalStateException("Not an IPv4 address: " + this);
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+    
+    public byte[] toBytes() { return bytes.clone(); }
+    
+    public InetAddress toInetAddress() {
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // unreachable, length is validated
         }
-        
-        return entries;
     }
     
-    private ArpEntry parseArpLine(String line) {
-        // Windows: "  192.168.1.100    aa-bb-cc-dd-ee-ff     dynamic"
-        // Linux: "hostname (192.168.1.100) at aa:bb:cc:dd:ee:ff [ether] on eth0"
-        
-        Pattern windowsPattern = Pattern.compile("\\s+(\\d+\\.\\d+\\.\\d+\\.\\d+)\\s+([a-fA-F0-9-]{17})");
-        Pattern linuxPattern = Pattern.compile("\\((\\d+\\.\\d+\\.\\d+\\.\\d+)\\)\\s+at\\s+([a-fA-F0-9:]{17})");
-        
-        Matcher windowsMatcher = windowsPattern.matcher(line);
-        Matcher linuxMatcher = linuxPattern.matcher(line);
-        
-        if (windowsMatcher.find()) {
-            String ip = windowsMatcher.group(1);
-            String mac = windowsMatcher.group(2).replace("-", ":").toLowerCase();
-            return new ArpEntry(ip, mac);
-        } else if (linuxMatcher.find()) {
-            String ip = linuxMatcher.group(1);
-            String mac = linuxMatcher.group(2).toLowerCase();
-            return new ArpEntry(ip, mac);
+    @JsonValue
+    @Override
+    public String toString() {
+        if (isV4()) {
+            return (bytes[0] & 0xFF) + "." + (bytes[1] & 0xFF) + "." + (bytes[2] & 0xFF) + "." + (bytes[3] & 0xFF);
         }
-        
-        return null;
+        return formatV6();
     }
     
-    private List<String> performPingSweep() {
-        List<String> activeIps = new ArrayList<>();
-        String[] subnetParts = networkSubnet.split("/");
-        String baseIp = subnetParts[0].substring(0, subnetParts[0].lastIndexOf('.'));
+    // RFC 5952 form: lower-case hex, longest run of two or more zero groups collapsed to "::"
+    private String formatV6() {
+        int[] groups = new int[8];
+        for (int i = 0; i < 8; i++) {
+            groups[i] = ((bytes[2 * i] & 0xFF) << 8) | (bytes[2 * i + 1] & 0xFF);
+        }
         
-        for (int i = 1; i <= 254; i++) {
-            String ip = baseIp + "." + i;
-            if (pingHost(ip)) {
-                activeIps.add(ip);
+        int bestStart = -1, bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) { i++; continue; }
+            int start = i;
+            while (i < 8 && groups[i] == 0) i++;
+            if (i - start > bestLength) {
+                bestStart = start;
+                bestLength = i - start;
             }
         }
         
-        return activeIps;
-    }
-    
-    private boolean pingHost(String ip) {
-        try {
-            InetAddress address = InetAddress.getByName(ip);
-            return address.isReachable(1000);
-        } catch (IOException e) {
-            return false;
+        StringBuilder out = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                out.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (out.length() > 0 && out.charAt(out.length() - 1) != ':') out.append(':');
+            out.append(Integer.toHexString(groups[i]));
         }
+        return out.toString();
     }
     
-    private String lookupMacVendor(String macAddress) {
-        String oui = macAddress.substring(0, 8).replace(":", "").toUpperCase();
-        Map<String, String> vendors = Map.of(
-            "00:50:56", "VMware",
-            "08:00:27", "VirtualBox",
-            "00:0C:29", "VMware",
-            "00:15:5D", "Microsoft",
-            "00:16:3E", "Xen",
-            "52:54:00", "QEMU",
-            "00:1B:21", "Intel",
-            "00:23:24", "Apple"
-        );
-        return vendors.getOrDefault(oui, "Unknown");
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IpAddress && Arrays.equals(((IpAddress) o).bytes, bytes);
     }
     
-    private String resolveHostname(String ipAddress) {
-        try {
-            InetAddress addr = InetAddress.getByName(ipAddress);
-            String hostname = addr.getHostName();
-            return hostname.equals(ipAddress) ? null : hostname;
-        } catch (Exception e) {
-            return null;
-        }
-    }
+    @Override
+    public int hashCode() { return Arrays.hashCode(bytes); }
     
-    private void saveUnauthorizedDevices(List<UnauthorizedDevice> devices) {
-        for (UnauthorizedDevice device : devices) {
-            unauthorizedRepository.save(device);
-        }
+    @Override
+    public int compareTo(IpAddress other) {
+        if (bytes.length != other.bytes.length) return Integer.compare(bytes.length, other.bytes.length);
+        return Arrays.compareUnsigned(bytes, other.bytes);
     }
 }
 
-// File: src/main/java/com/networkdiscovery/service/ArpEntry.java
-package com.networkdiscovery.service;
+// File: src/main/java/com/networkdiscovery/net/Ipv4Subnet.java
+package com.networkdiscovery.net;
 
-public class ArpEntry {
-    private String ipAddress;
-    private String macAddress;
+/**
+ * IPv4 CIDR block. Hosts are addressed by their offset from the network
+ * address so scanner state can live in bitmaps and primitive arrays.
+ */
+public final class Ipv4Subnet {
     
-    public ArpEntry(String ipAddress, String macAddress) {
-        this.ipAddress = ipAddress;
-        this.macAddress = macAddress;
+    // A /16 is already 65k probes per sweep; anything wider never finishes
+    public static final int MIN_PREFIX_LENGTH = 16;
+    
+    private final int network;
+    private final int prefixLength;
+    
+    private Ipv4Subnet(int network, int prefixLength) {
+        this.network = network;
+        this.prefixLength = prefixLength;
+    }
+    
+    public static Ipv4Subnet parse(String cidr) {
+        String[] parts = cidr.trim().split("/");
+        int prefix = parts.length > 1 ? Integer.parseInt(parts[1]) : 32;
+        if (prefix < MIN_PREFIX_LENGTH || prefix > 32) {
+            throw new IllegalArgumentException("Unsupported prefix length: " + cidr);
+        }
+        int mask = -1 << (32 - prefix);
+        return new Ipv4Subnet(IpAddress.parse(parts[0]).toV4Int() & mask, prefix);
+    }
+    
+    public int size() { return 1 << (32 - prefixLength); }
+    
+    public int getPrefixLength() { return prefixLength; }
+    
+    // Usable host offsets, skipping network and broadcast for anything bigger than a /31
+    public int firstHostOffset() { return size() > 2 ? 1 : 0; }
+    public int lastHostOffset() { return size() > 2 ? size() - 2 : size() - 1; }
+    
+    public boolean contains(IpAddress address) {
+        return address.isV4() && offsetOf(address.toV4Int()) >= 0;
+    }
+    
+    public int offsetOf(int v4) {
+        int offset = v4 - network;
+        return offset >= 0 && offset < size() ? offset : -1;
     }
     
-    public String getIpAddress() { return ipAddress; }
-    public String getMacAddress() { return macAddress; }
+    public IpAddress addressAt(int offset) {
+        return IpAddress.ofV4(network + offset);
+    }
+    
+    @Override
+    public String toString() {
+        return IpAddress.ofV4(network) + "/" + prefixLength;
+    }
 }
 
-// File: src/main/java/com/networkdiscovery/controller/AuthorizedDeviceController.java
-package com.networkdiscovery.controller;
+// File: src/main/java/com/networkdiscovery/net/Ipv6AddressSet.java
+package com.networkdiscovery.net;
 
-import com.networkdiscovery.entity.AuthorizedDevice;
-import com.networkdiscovery.repository.AuthorizedDeviceRepository;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.*;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 
-@RestController
-@RequestMapping("/api/authorized-devices")
-@CrossOrigin(origins = "*")
-public class AuthorizedDeviceController {
+/**
+ * Immutable, insertion-ordered set of IPv6 addresses packed 16 bytes each.
+ * Privacy extensions rotate addresses daily, so the set keeps only the
+ * {@link #MAX_ADDRESSES} most recently seen.
+ */
+public final class Ipv6AddressSet {
     
-    @Autowired
-    private AuthorizedDeviceRepository repository;
+    public static final int MAX_ADDRESSES = 32;
+    public static final Ipv6AddressSet EMPTY = new Ipv6AddressSet(new byte[0]);
     
-    @GetMapping
-    public ResponseEntity<List<AuthorizedDevice>> getAllAuthorizedDevices() {
-        List<AuthorizedDevice> devices = repository.findByIsActive(true);
-        return ResponseEntity.ok(devices);
-    }
+    private static final int WIDTH = 16;
     
-    @PostMapping
-    public ResponseEntity<AuthorizedDevice> addAuthorizedDevice(@RequestBody AuthorizedDevice device) {
-        device.setAddedBy("admin"); // In real app, get from security context
-        AuthorizedDevice saved = repository.save(device);
-        return ResponseEntity.ok(saved);
+    private final byte[] packed;
+    
+    private Ipv6AddressSet(byte[] packed) {
+        this.packed = packed;
     }
     
-    @PutMapping("/{id}")
-    public ResponseEntity<AuthorizedDevice> updateAuthorizedDevice(
-            @PathVariable Long id, @RequestBody AuthorizedDevice device) {
-        Optional<AuthorizedDevice> existing = repository.findById(id);
-        if (existing.isPresent()) {
-            device.setId(id);
-            AuthorizedDevice updated = repository.save(device);
-            return ResponseEntity.ok(updated);
+    public static Ipv6AddressSet fromBytes(byte[] packed) {
+        if (packed == null || packed.length == 0) return EMPTY;
+        if (packed.length % WIDTH != 0) {
+            throw new IllegalArgumentException("Packed IPv6 set length must be a multiple of 16, got " + packed.length);
         }
-        return ResponseEntity.notFound().build();
+        return new Ipv6AddressSet(packed.clone());
     }
     
-    @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteAuthorizedDevice(@PathVariable Long id) {
-        Optional<AuthorizedDevice> device = repository.findById(id);
-        if (device.isPresent()) {
-            AuthorizedDevice dev = device.get();
-            dev.setIsActive(false);
-            repository.save(dev);
-            return ResponseEntity.ok().build();
+    @JsonCreator
+    public static Ipv6AddressSet of(List<String> addresses) {
+        Ipv6AddressSet set = EMPTY;
+        for (String address : addresses) {
+            set = set.with(IpAddress.parse(address));
         }
-        return ResponseEntity.notFound().build();
+        return set;
     }
     
-    @GetMapping("/search")
-    public ResponseEntity<List<AuthorizedDevice>> searchDevices(
+    /**
+     * Returns a set that contains {@code address} as its most recent entry,
+     * evicting the oldest entry when full.
+     */
+    public Ipv6AddressSet with(IpAddress address) {
+        if (address.isV4()) {
+            throw new IllegalArgumentException("Not an IPv6 address: " + address);
+        }
+        byte[] bytes = address.toBytes();
+        int index = indexOf(bytes);
+        if (index >= 0 && index == size() - 1) return this;
+        
+        byte[] result;
+        if (index >= 0) {
+            // Already known: move it to the newest position
+            result = new byte[packed.length];
+            System.arraycopy(packed, 0, result, 0, index * WIDTH);
+            System.arraycopy(packed, (index + 1) * WIDTH, result, index * WIDTH, packed.length - (index + 1) * WIDTH);
+        } else if (size() == MAX_ADDRESSES) {
+            result = new byte[packed.length];
+            System.arraycopy(packed, WIDTH, result, 0, packed.length - WIDTH);
+        } else {
+            result = Arrays.copyOf(packed, packed.length + WIDTH);
+        }
+        System.arraycopy(bytes, 0, result, result.length - WIDTH, WIDTH);
+        return new Ipv6AddressSet(result);
+    }
+    
+    public boolean contains(IpAddress address) {
+        return !address.isV4() && indexOf(address.toBytes()) >= 0;
+    }
+    
+    public int size() { return packed.length / WIDTH; }
+    
+    public boolean isEmpty() { return packed.length == 0; }
+    
+    public byte[] toBytes() { return packed.clone(); }
+    
+    public List<IpAddress> toList() {
+        List<IpAddress> addresses = new ArrayList<>(size());
+        for (int i = 0; i < packed.length; i += WIDTH) {
+            addresses.add(IpAddress.of(Arrays.copyOfRange(packed, i, i + WIDTH)));
+        }
+        return addresses;
+    }
+    
+    @JsonValue
+    public List<String> toStrings() {
+        List<String> addresses = new ArrayList<>(size());
+        toList().forEach(address -> addresses.add(address.toString()));
+        return addresses;
+    }
+    
+    private int indexOf(byte[] bytes) {
+        for (int i = 0; i < packed.length; i += WIDTH) {
+            if (Arrays.equals(packed, i, i + WIDTH, bytes, 0, WIDTH)) return i / WIDTH;
+        }
+        return -1;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Ipv6AddressSet && Arrays.equals(((Ipv6AddressSet) o).packed, packed);
+    }
+    
+    @Override
+    public int hashCode() { return Arrays.hashCode(packed); }
+    
+    @Override
+    public String toString() { return toStrings().toString(); }
+}
+
+// File: src/main/java/com/networkdiscovery/entity/MacAddressConverter.java
+package com.networkdiscovery.entity;
+
+import com.networkdiscovery.net.MacAddress;
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+@Converter
+public class MacAddressConverter implements AttributeConverter<MacAddress, Long> {
+    
+    @Override
+    public Long convertToDatabaseColumn(MacAddress attribute) {
+        return attribute == null ? null : attribute.toLong();
+    }
+    
+    @Override
+    public MacAddress convertToEntityAttribute(Long dbData) {
+        return dbData == null ? null : MacAddress.of(dbData);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/entity/IpAddressConverter.java
+package com.networkdiscovery.entity;
+
+import com.networkdiscovery.net.IpAddress;
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+@Converter
+public class IpAddressConverter implements AttributeConverter<IpAddress, byte[]> {
+    
+    @Override
+    public byte[] convertToDatabaseColumn(IpAddress attribute) {
+        return attribute == null ? null : attribute.toBytes();
+    }
+    
+    @Override
+    public IpAddress convertToEntityAttribute(byte[] dbData) {
+        return dbData == null ? null : IpAddress.of(dbData);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/entity/Ipv6AddressSetConverter.java
+package com.networkdiscovery.entity;
+
+import com.networkdiscovery.net.Ipv6AddressSet;
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+@Converter
+public class Ipv6AddressSetConverter implements AttributeConverter<Ipv6AddressSet, byte[]> {
+    
+    @Override
+    public byte[] convertToDatabaseColumn(Ipv6AddressSet attribute) {
+        return attribute == null || attribute.isEmpty() ? null : attribute.toBytes();
+    }
+    
+    @Override
+    public Ipv6AddressSet convertToEntityAttribute(byte[] dbData) {
+        return Ipv6AddressSet.fromBytes(dbData);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/repository/AuthorizedDeviceRepository.java
+package com.networkdiscovery.repository;
+
+import com.networkdiscovery.dto.AuthorizedDeviceSummary;
+import com.networkdiscovery.entity.AuthorizedDevice;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.List;
+
+@Repository
+public interface AuthorizedDeviceRepository extends JpaRepository<AuthorizedDevice, Long> {
+    
+    String SUMMARY = "SELECT new com.networkdiscovery.dto.AuthorizedDeviceSummary(a.id, a.ipAddress, a.macAddress, "
+            + "a.deviceName, a.deviceType, a.owner, a.department, a.isActive) FROM AuthorizedDevice a";
+    
+    Optional<AuthorizedDevice> findByIpAddress(IpAddress ipAddress);
+    Optional<AuthorizedDevice> findByMacAddress(MacAddress macAddress);
+    List<AuthorizedDevice> findByIsActive(Boolean isActive);
+    List<AuthorizedDevice> findByDeviceType(String deviceType);
+    List<AuthorizedDevice> findByDepartment(String department);
+    boolean existsByIpAddress(IpAddress ipAddress);
+    boolean existsByMacAddress(MacAddress macAddress);
+    long countByIsActive(Boolean isActive);
+    
+    // List views read these projections; the entity is only loaded for a single device
+    @Query(SUMMARY + " WHERE a.isActive = true")
+    List<AuthorizedDeviceSummary> findActiveSummaries();
+    
+    @Query(SUMMARY + " WHERE a.id IN :ids")
+    List<AuthorizedDeviceSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+    
+    // Delta sync, a range scan on the change_version index; deactivated rows included
+    @Query(SUMMARY + " WHERE a.changeVersion > :since AND a.changeVersion <= :until")
+    List<AuthorizedDeviceSummary> findSummariesChangedBetween(@Param("since") long since, @Param("until") long until);
+    
+    @Query("SELECT MAX(a.id) FROM AuthorizedDevice a")
+    Long findMaxId();
+    
+    @Query("SELECT MAX(a.updatedAt) FROM AuthorizedDevice a")
+    LocalDateTime findLatestUpdate();
+}
+
+// File: src/main/java/com/networkdiscovery/repository/UnauthorizedDeviceRepository.java
+package com.networkdiscovery.repository;
+
+import com.networkdiscovery.dto.UnauthorizedDeviceSummary;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.entity.DeviceStatus;
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.List;
+import java.time.LocalDateTime;
+
+@Repository
+public interface UnauthorizedDeviceRepository extends JpaRepository<UnauthorizedDevice, Long> {
+    
+    String SUMMARY = "SELECT new com.networkdiscovery.dto.UnauthorizedDeviceSummary(d.id, d.ipAddress, d.macAddress, "
+            + "d.hostname, d.vendor, d.deviceType, d.status, d.riskLevel, d.firstDetected, d.lastSeen, "
+            + "d.detectionCount, d.isInvestigated) FROM UnauthorizedDevice d";
+    
+    Optional<UnauthorizedDevice> findByIpAddress(IpAddress ipAddress);
+    Optional<UnauthorizedDevice> findByMacAddress(MacAddress macAddress);
+    List<UnauthorizedDevice> findByMacAddressIn(Collection<MacAddress> macAddresses);
+    List<UnauthorizedDevice> findByStatus(DeviceStatus status);
+    List<UnauthorizedDevice> findByRiskLevel(RiskLevel riskLevel);
+    List<UnauthorizedDevice> findByIsInvestigated(Boolean isInvestigated);
+    List<UnauthorizedDevice> findByLastSeenBefore(LocalDateTime dateTime);
+    List<UnauthorizedDevice> findByFirstDetectedAfter(LocalDateTime dateTime);
+    long countByRiskLevel(RiskLevel riskLevel);
+    long countByIsInvestigated(Boolean isInvestigated);
+    
+    // List views read these projections; the entity is only loaded for a single device
+    @Query(SUMMARY)
+    List<UnauthorizedDeviceSummary> findAllSummaries();
+    
+    @Query(SUMMARY + " WHERE d.riskLevel = :riskLevel")
+    List<UnauthorizedDeviceSummary> findSummariesByRiskLevel(@Param("riskLevel") RiskLevel riskLevel);
+    
+    @Query(SUMMARY + " WHERE d.isInvestigated = :isInvestigated")
+    List<UnauthorizedDeviceSummary> findSummariesByIsInvestigated(@Param("isInvestigated") Boolean isInvestigated);
+    
+    @Query(SUMMARY + " WHERE d.id IN :ids")
+    List<UnauthorizedDeviceSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+    
+    // Delta sync, a range scan on the change_version index
+    @Query(SUMMARY + " WHERE d.changeVersion > :since AND d.changeVersion <= :until")
+    List<UnauthorizedDeviceSummary> findSummariesChangedBetween(@Param("since") long since, @Param("until") long until);
+    
+    // Rows are {id, macAddress, ipAddress, hostname, lastSeen}
+    @Query("SELECT d.id, d.macAddress, d.ipAddress, d.hostname, d.lastSeen FROM UnauthorizedDevice d "
+            + "WHERE d.lastSeen >= :since")
+    List<Object[]> findIdentitiesSeenSince(@Param("since") LocalDateTime since);
+    
+    // Rows are {firstDetected, riskLevel, deviceType}
+    @Query("SELECT d.firstDetected, d.riskLevel, d.deviceType FROM UnauthorizedDevice d "
+            + "WHERE d.firstDetected >= :from AND d.firstDetected < :to")
+    List<Object[]> findFirstDetectionsBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+    
+    // Triage filter: every criterion is optional, null means "any"
+    @Query("SELECT d.id FROM UnauthorizedDevice d WHERE " +
+           "(:riskLevel IS NULL OR d.riskLevel = :riskLevel) AND " +
+           "(:vendor IS NULL OR d.vendor = :vendor) AND " +
+           "(:deviceType IS NULL OR d.deviceType = :deviceType) AND " +
+           "(:status IS NULL OR d.status = :status) AND " +
+           "(:isInvestigated IS NULL OR d.isInvestigated = :isInvestigated) AND " +
+           "(:seenSince IS NULL OR d.lastSeen >= :seenSince)")
+    List<Long> findIdsByTriageFilter(@Param("riskLevel") RiskLevel riskLevel,
+                                     @Param("vendor") String vendor,
+                                     @Param("deviceType") String deviceType,
+                                     @Param("status") DeviceStatus status,
+                                     @Param("isInvestigated") Boolean isInvestigated,
+                                     @Param("seenSince") LocalDateTime seenSince);
+    
+    // Set-based triage updates, callers keep each id list under Oracle's 1000 IN-list limit.
+    // These bypass the entity listener, so callers pass a change version allocated in their transaction.
+    // Pending changes are flushed first and the context cleared after, so no managed copy overwrites them
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE UnauthorizedDevice d SET d.isInvestigated = true, d.version = d.version + 1, "
+            + "d.changeVersion = :changeVersion WHERE d.id IN :ids")
+    int markInvestigatedByIdIn(@Param("ids") Collection<Long> ids, @Param("changeVersion") long changeVersion);
+    
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE UnauthorizedDevice d SET d.riskLevel = :riskLevel, d.version = d.version + 1, "
+            + "d.changeVersion = :changeVersion WHERE d.id IN :ids")
+    int updateRiskLevelByIdIn(@Param("ids") Collection<Long> ids, @Param("riskLevel") RiskLevel riskLevel,
+                              @Param("changeVersion") long changeVersion);
+    
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE UnauthorizedDevice d SET d.notes = :notes, d.version = d.version + 1, "
+            + "d.changeVersion = :changeVersion WHERE d.id IN :ids")
+    int updateNotesByIdIn(@Param("ids") Collection<Long> ids, @Param("notes") String notes,
+                          @Param("changeVersion") long changeVersion);
+    
+    // Unlike deleteById, a missing id deletes nothing instead of throwing
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("DELETE FROM UnauthorizedDevice d WHERE d.id = :id")
+    int deleteIfExists(@Param("id") Long id);
+    
+    // Records another sighting in one statement; matches nothing if the device moved to another
+    // address or already holds part of the log range first..last. Late sightings still count,
+    // but leave lastSeen and status to the newer one. Unsequenced sightings pass last < 0.
+    @Transactional
+    @Modifying
+    @Query("UPDATE UnauthorizedDevice d SET "
+            + "d.lastSeen = CASE WHEN d.lastSeen IS NULL OR d.lastSeen < :seen THEN :seen ELSE d.lastSeen END, "
+            + "d.status = CASE WHEN d.lastSeen IS NULL OR d.lastSeen <= :seen THEN :status ELSE d.status END, "
+            + "d.appliedSequence = CASE WHEN :last < 0L THEN d.appliedSequence ELSE :last END, "
+            + "d.detectionCount = d.detectionCount + :occurrences, d.version = d.version + 1, "
+            + "d.changeVersion = :changeVersion WHERE d.id = :id AND d.ipAddress = :ip "
+            + "AND (:last < 0L OR d.appliedSequence < :first)")
+    int recordSighting(@Param("id") Long id, @Param("ip") IpAddress ip, @Param("seen") LocalDateTime seen,
+                       @Param("occurrences") int occurrences, @Param("status") DeviceStatus status,
+                       @Param("first") long firstSequence, @Param("last") long lastSequence,
+                       @Param("changeVersion") long changeVersion);
+    
+    @Query("SELECT MAX(d.appliedSequence) FROM UnauthorizedDevice d")
+    Long findMaxAppliedSequence();
+}
+
+// File: src/main/java/com/networkdiscovery/repository/DeviceTombstoneRepository.java
+package com.networkdiscovery.repository;
+
+import com.networkdiscovery.entity.DeviceTombstone;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface DeviceTombstoneRepository extends JpaRepository<DeviceTombstone, Long> {
+    
+    @Query("SELECT t.deviceId FROM DeviceTombstone t WHERE t.deviceKind = :kind "
+            + "AND t.changeVersion > :since AND t.changeVersion <= :until")
+    List<Long> findDeviceIdsDeletedBetween(@Param("kind") DeviceKind kind, @Param("since") long since,
+                                           @Param("until") long until);
+    
+    @Query("SELECT MIN(t.changeVersion) FROM DeviceTombstone t WHERE t.deletedAt < :cutoff")
+    Long findOldestVersionDeletedBefore(@Param("cutoff") LocalDateTime cutoff);
+    
+    @Query("SELECT MAX(t.changeVersion) FROM DeviceTombstone t WHERE t.deletedAt < :cutoff")
+    Long findNewestVersionDeletedBefore(@Param("cutoff") LocalDateTime cutoff);
+    
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM DeviceTombstone t WHERE t.deletedAt < :cutoff AND t.changeVersion < :keepFrom")
+    int deleteDeletedBefore(@Param("cutoff") LocalDateTime cutoff, @Param("keepFrom") long keepFrom);
+}
+
+// File: src/main/java/com/networkdiscovery/event/DeviceChangeEvent.java
+package com.networkdiscovery.event;
+
+import java.util.Collections;
+import java.util.List;
+
+public class DeviceChangeEvent {
+    
+    public enum DeviceKind { AUTHORIZED, UNAUTHORIZED }
+    
+    public enum ChangeType { CREATED, UPDATED, DELETED }
+    
+    private final DeviceKind kind;
+    private final ChangeType changeType;
+    private final List<Long> ids;
+    
+    public DeviceChangeEvent(DeviceKind kind, ChangeType changeType, List<Long> ids) {
+        this.kind = kind;
+        this.changeType = changeType;
+        this.ids = Collections.unmodifiableList(ids);
+    }
+    
+    public static DeviceChangeEvent of(DeviceKind kind, ChangeType changeType, Long id) {
+        return new DeviceChangeEvent(kind, changeType, Collections.singletonList(id));
+    }
+    
+    public DeviceKind getKind() { return kind; }
+    public ChangeType getChangeType() { return changeType; }
+    public List<Long> getIds() { return ids; }
+}
+
+// File: src/main/java/com/networkdiscovery/event/DeviceDetectionEvent.java
+package com.networkdiscovery.event;
+
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+// Every unauthorized device one applied batch saw, changed or not
+public class DeviceDetectionEvent {
+    
+    private final List<Detection> detections;
+    
+    public DeviceDetectionEvent(List<Detection> detections) {
+        this.detections = Collections.unmodifiableList(detections);
+    }
+    
+    public List<Detection> getDetections() { return detections; }
+    
+    public static class Detection {
+        
+        private final Long deviceId;
+        private final MacAddress macAddress;
+        private final IpAddress ipAddress;
+        private final RiskLevel riskLevel;
+        private final String vendor;
+        private final String hostname;
+        private final String deviceType;
+        private final boolean created;
+        private final LocalDateTime previousLastSeen;
+        private final LocalDateTime observedAt;
+        
+        public Detection(UnauthorizedDevice device, boolean created,
+                         LocalDateTime previousLastSeen, LocalDateTime observedAt) {
+            this.deviceId = device.getId();
+            this.macAddress = device.getMacAddress();
+            this.ipAddress = device.getIpAddress();
+            this.riskLevel = device.getRiskLevel();
+            this.vendor = device.getVendor();
+            this.hostname = device.getHostname();
+            this.deviceType = device.getDeviceType();
+            this.created = created;
+            this.previousLastSeen = previousLastSeen;
+            this.observedAt = observedAt;
+        }
+        
+        public Long getDeviceId() { return deviceId; }
+        public MacAddress getMacAddress() { return macAddress; }
+        public IpAddress getIpAddress() { return ipAddress; }
+        public RiskLevel getRiskLevel() { return riskLevel; }
+        public String getVendor() { return vendor; }
+        public String getHostname() { return hostname; }
+        // Null for devices recorded without reading their row
+        public String getDeviceType() { return deviceType; }
+        public boolean isCreated() { return created; }
+        public LocalDateTime getPreviousLastSeen() { return previousLastSeen; }
+        public LocalDateTime getObservedAt() { return observedAt; }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/concurrency/Bulkhead.java
+package com.networkdiscovery.concurrency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded execution compartment. At most maxConcurrent tasks run and at most
+ * maxQueued more wait; anything beyond that is either held back (submit) or
+ * turned away (trySubmit) so one workload cannot drain threads another needs.
+ */
+public class Bulkhead implements AutoCloseable {
+    
+    private static final Logger log = LoggerFactory.getLogger(Bulkhead.class);
+    
+    private final String name;
+    private final int maxConcurrent;
+    private final int retryAfterSeconds;
+    private final Semaphore admission;
+    private final Semaphore running;
+    private final ExecutorService executor;
+    
+    private Bulkhead(String name, int maxConcurrent, int maxQueued, int retryAfterSeconds, ExecutorService executor) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.admission = new Semaphore(maxConcurrent + maxQueued);
+        this.running = new Semaphore(maxConcurrent);
+        this.executor = executor;
+    }
+    
+    // Admission control only; the caller's own thread does the work
+    public static Bulkhead admissionOnly(String name, int maxConcurrent, int retryAfterSeconds) {
+        return new Bulkhead(name, maxConcurrent, 0, retryAfterSeconds, null);
+    }
+    
+    public static Bulkhead platform(String name, int maxConcurrent, int maxQueued, int retryAfterSeconds) {
+        return new Bulkhead(name, maxConcurrent, maxQueued, retryAfterSeconds,
+                fixedPool(name, maxConcurrent, maxQueued));
+    }
+    
+    /**
+     * Virtual threads for blocking JDBC and DNS work. They only exist from
+     * Java 21 on and the build targets 17, so the factory is looked up at
+     * runtime; older runtimes get the same fixed pool as {@link #platform}.
+     */
+    public static Bulkhead virtual(String name, int maxConcurrent, int maxQueued, int retryAfterSeconds) {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                            MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (Throwable e) {
+            log.info("Virtual threads unavailable, bulkhead {} uses {} platform threads", name, maxConcurrent);
+            executor = fixedPool(name, maxConcurrent, maxQueued);
+        }
+        return new Bulkhead(name, maxConcurrent, maxQueued, retryAfterSeconds, executor);
+    }
+    
+    // Admission caps the backlog; the queue also holds tasks admitted while finishing ones still hold their thread
+    private static ExecutorService fixedPool(String name, int maxConcurrent, int maxQueued) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threads = r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxConcurrent + maxQueued), threads);
+    }
+    
+    public boolean tryEnter() {
+        return admission.tryAcquire();
+    }
+    
+    public void exit() {
+        admission.release();
+    }
+    
+    /**
+     * Runs the task, waiting for room if the bulkhead is full. Meant for
+     * internal fan-out, where waiting is the backpressure we want.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        try {
+            admission.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        return dispatch(task);
+    }
+    
+    // Runs the task or fails fast with BulkheadFullException
+    public <T> CompletableFuture<T> trySubmit(Callable<T> task) {
+        if (!admission.tryAcquire()) {
+            throw new BulkheadFullException(name, retryAfterSeconds);
+        }
+        return dispatch(task);
+    }
+    
+    private <T> CompletableFuture<T> dispatch(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                T result = null;
+                Throwable failure = null;
+                try {
+                    running.acquire();
+                    try {
+                        result = task.call();
+                    } finally {
+                        running.release();
+                    }
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    // Free the slot before completing, so a caller chaining on the result can reuse it
+                    admission.release();
+                }
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+    
+    public int getRunning() {
+        return maxConcurrent - running.availablePermits();
+    }
+    
+    public int getAvailable() {
+        return admission.availablePermits();
+    }
+    
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+    
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/concurrency/BulkheadFullException.java
+package com.networkdiscovery.concurrency;
+
+public class BulkheadFullException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final int retryAfterSeconds;
+    
+    public BulkheadFullException(String bulkhead, int retryAfterSeconds) {
+        super("Bulkhead " + bulkhead + " is full");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/concurrency/Bulkheads.java
+package com.networkdiscovery.concurrency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+
+/**
+ * The application's bulkheads. Probing runs on a fixed platform pool since
+ * isReachable holds a thread per probe either way; enrichment (DNS) and
+ * persistence (JPA) are blocking I/O and run on virtual threads where the
+ * runtime has them. Persistence
+ * stays small so scans never hold more connections than the pool can spare
+ * for API requests. The HTTP bulkhead only caps concurrent API requests.
+ */
+@Component
+public class Bulkheads {
+    
+    @Value("${network.bulkhead.probe.max-concurrent:256}")
+    private int probeConcurrency;
+    
+    @Value("${network.bulkhead.probe.max-queued:1024}")
+    private int probeQueue;
+    
+    @Value("${network.bulkhead.enrichment.max-concurrent:64}")
+    private int enrichmentConcurrency;
+    
+    @Value("${network.bulkhead.enrichment.max-queued:1024}")
+    private int enrichmentQueue;
+    
+    @Value("${network.bulkhead.persistence.max-concurrent:4}")
+    private int persistenceConcurrency;
+    
+    @Value("${network.bulkhead.persistence.max-queued:16}")
+    private int persistenceQueue;
+    
+    @Value("${network.bulkhead.scan.retry-after-seconds:60}")
+    private int scanRetryAfter;
+    
+    @Value("${network.bulkhead.capture.max-concurrent:1}")
+    private int captureConcurrency;
+    
+    @Value("${network.bulkhead.capture.max-queued:4}")
+    private int captureQueue;
+    
+    @Value("${network.bulkhead.capture.retry-after-seconds:30}")
+    private int captureRetryAfter;
+    
+    @Value("${network.bulkhead.http.max-concurrent:150}")
+    private int httpConcurrency;
+    
+    @Value("${network.bulkhead.http.retry-after-seconds:1}")
+    private int httpRetryAfter;
+    
+    private Bulkhead probe;
+    private Bulkhead enrichment;
+    private Bulkhead persistence;
+    private Bulkhead scan;
+    private Bulkhead capture;
+    private Bulkhead http;
+    
+    @PostConstruct
+    public void init() {
+        probe = Bulkhead.platform("probe", probeConcurrency, probeQueue, 5);
+        enrichment = Bulkhead.virtual("enrichment", enrichmentConcurrency, enrichmentQueue, 5);
+        persistence = Bulkhead.virtual("persistence", persistenceConcurrency, persistenceQueue, 5);
+        // One scan at a time; a second request is refused rather than queued
+        scan = Bulkhead.platform("scan", 1, 0, scanRetryAfter);
+        // Capture files take minutes to read; they queue briefly and are refused beyond that
+        capture = Bulkhead.platform("capture", captureConcurrency, captureQueue, captureRetryAfter);
+        http = Bulkhead.admissionOnly("http", httpConcurrency, httpRetryAfter);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        all().forEach(Bulkhead::close);
+    }
+    
+    public Bulkhead probe() {
+        return probe;
+    }
+    
+    public Bulkhead enrichment() {
+        return enrichment;
+    }
+    
+    public Bulkhead persistence() {
+        return persistence;
+    }
+    
+    public Bulkhead scan() {
+        return scan;
+    }
+    
+    public Bulkhead capture() {
+        return capture;
+    }
+    
+    public Bulkhead http() {
+        return http;
+    }
+    
+    public List<Bulkhead> all() {
+        return List.of(probe, enrichment, persistence, scan, capture, http);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/concurrency/StripedLocks.java
+package com.networkdiscovery.concurrency;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared out by key hash. Keys on different stripes never
+ * contend, and memory stays constant however many keys pass through.
+ */
+public class StripedLocks {
+    
+    private final Lock[] locks;
+    private final int mask;
+    
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+    
+    public Lock get(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return locks[h & mask];
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/concurrency/HttpAdmissionFilter.java
+package com.networkdiscovery.concurrency;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// Sheds API requests beyond the HTTP bulkhead before they take a worker thread's time
+@Component
+public class HttpAdmissionFilter extends OncePerRequestFilter {
+    
+    @Autowired
+    private Bulkheads bulkheads;
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        Bulkhead http = bulkheads.http();
+        if (!http.tryEnter()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(http.getRetryAfterSeconds()));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Server busy");
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            http.exit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/identity/DeviceIdentityResolver.java
+package com.networkdiscovery.identity;
+
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.event.DeviceDetectionEvent;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recognizes a device that rotated to a new randomized MAC, so its row can
+ * follow the new address instead of a new row being created per rotation.
+ * Only locally administered MACs take part, on both sides. A device seen in
+ * the same batch as the new MAC, by time or by its own MAC, cannot be the one
+ * that rotated.
+ * <p>
+ * Candidates are scored: the same hostname counts 2, taking over the
+ * previous MAC's IPv4 address within the handover window counts 2. The best
+ * candidate is linked if it reaches network.identity.min-score and no other
+ * candidate scores the same. The default of 4 requires both signals; a
+ * hostname alone is too often shared ("android", "iphone") to move a row.
+ * The index holds one small entry per recently seen randomized device.
+ */
+@Service
+public class DeviceIdentityResolver {
+    
+    private static final Logger log = LoggerFactory.getLogger(DeviceIdentityResolver.class);
+    
+    private static final int HOSTNAME_SCORE = 2;
+    private static final int ADDRESS_SCORE = 2;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository repository;
+    
+    @Value("${network.identity.enabled:true}")
+    private boolean enabled;
+    
+    // How long a device stays a candidate after it was last seen
+    @Value("${network.identity.max-gap-minutes:1440}")
+    private long maxGapMinutes;
+    
+    @Value("${network.identity.ip-handover-minutes:60}")
+    private long ipHandoverMinutes;
+    
+    @Value("${network.identity.min-score:4}")
+    private int minScore;
+    
+    private final Map<Long, Candidate> byDevice = new HashMap<>();
+    private final Map<String, List<Candidate>> byHostname = new HashMap<>();
+    private final Map<IpAddress, Candidate> byAddress = new HashMap<>();
+    private final AtomicLong linked = new AtomicLong();
+    private final AtomicLong ambiguous = new AtomicLong();
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        LocalDateTime since = LocalDateTime.now().minusMinutes(maxGapMinutes);
+        int rows = 0;
+        for (Object[] row : repository.findIdentitiesSeenSince(since)) {
+            rows++;
+            update((Long) row[0], (MacAddress) row[1], (IpAddress) row[2], (String) row[3], (LocalDateTime) row[4]);
+        }
+        log.info("Identity index loaded: {} randomized-MAC candidates among {} recent devices in {} ms",
+                size(), rows, System.currentTimeMillis() - start);
+    }
+    
+    /**
+     * The id of the device a new MAC most likely rotated away from, or null
+     * when the MAC is not randomized or no candidate is convincing. Devices
+     * seen since {@code batchStart}, whose MAC is among {@code batchMacs} or
+     * whose id is among {@code batchDeviceIds} are present in this batch
+     * themselves and never candidates.
+     */
+    public synchronized Long resolve(MacAddress macAddress, IpAddress ipAddress, String hostname, LocalDateTime observedAt,
+                                     LocalDateTime batchStart, Set<MacAddress> batchMacs, Set<Long> batchDeviceIds) {
+        if (!enabled || !macAddress.isLocallyAdministered() || observedAt == null || batchStart == null) {
+            return null;
+        }
+        long now = toMillis(observedAt);
+        long notSeenSince = Math.min(now, toMillis(batchStart));
+        Set<Long> present = new HashSet<>();
+        batchMacs.forEach(mac -> present.add(mac.toLong()));
+        Map<Candidate, Integer> scores = new HashMap<>();
+        
+        Candidate previous = ipAddress.isV4() ? byAddress.get(ipAddress) : null;
+        if (previous != null && eligible(previous, macAddress, now, notSeenSince, ipHandoverMinutes)
+                && !present.contains(previous.macAddress) && !batchDeviceIds.contains(previous.deviceId)) {
+            scores.merge(previous, ADDRESS_SCORE, Integer::sum);
+        }
+        String key = hostnameKey(hostname);
+        if (key != null) {
+            for (Candidate candidate : byHostname.getOrDefault(key, Collections.emptyList())) {
+                if (eligible(candidate, macAddress, now, notSeenSince, maxGapMinutes)
+                        && !present.contains(candidate.macAddress) && !batchDeviceIds.contains(candidate.deviceId)) {
+                    scores.merge(candidate, HOSTNAME_SCORE, Integer::sum);
+                }
+            }
+        }
+        
+        Candidate best = null;
+        int bestScore = 0;
+        boolean tie = false;
+        for (Map.Entry<Candidate, Integer> entry : scores.entrySet()) {
+            if (entry.getValue() > bestScore) {
+                best = entry.getKey();
+                bestScore = entry.getValue();
+                tie = false;
+            } else if (entry.getValue() == bestScore) {
+                tie = true;
+            }
+        }
+        if (best == null || bestScore < minScore) {
+            return null;
+        }
+        if (tie) {
+            ambiguous.incrementAndGet();
+            log.debug("MAC {} matches several devices equally, not linking", macAddress);
+            return null;
+        }
+        linked.incrementAndGet();
+        return best.deviceId;
+    }
+    
+    // The rotated-away MAC must be a different randomized one that went quiet before this batch
+    private static boolean eligible(Candidate candidate, MacAddress macAddress, long now, long notSeenSince,
+                                    long windowMinutes) {
+        return candidate.macAddress != macAddress.toLong()
+                && candidate.lastSeen < notSeenSince
+                && now - candidate.lastSeen <= Duration.ofMinutes(windowMinutes).toMillis();
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDetection(DeviceDetectionEvent event) {
+        if (!enabled) {
+            return;
+        }
+        for (Detection detection : event.getDetections()) {
+            update(detection.getDeviceId(), detection.getMacAddress(), detection.getIpAddress(),
+                    detection.getHostname(), detection.getObservedAt());
+        }
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onDeviceChange(DeviceChangeEvent event) {
+        if (event.getKind() == DeviceKind.UNAUTHORIZED && event.getChangeType() == ChangeType.DELETED) {
+            event.getIds().forEach(id -> remove(byDevice.get(id)));
+        }
+    }
+    
+    @Scheduled(fixedDelay = 3600000)
+    public synchronized void evictStale() {
+        long cutoff = System.currentTimeMillis() - Duration.ofMinutes(maxGapMinutes).toMillis();
+        new ArrayList<>(byDevice.values()).stream()
+                .filter(candidate -> candidate.lastSeen < cutoff)
+                .forEach(this::remove);
+    }
+    
+    private synchronized void update(Long deviceId, MacAddress macAddress, IpAddress ipAddress, String hostname,
+                                     LocalDateTime lastSeen) {
+        // Without a last sighting there is no gap to measure, so the device is never a candidate
+        if (deviceId == null || macAddress == null || lastSeen == null) {
+            return;
+        }
+        long seenAt = toMillis(lastSeen);
+        Candidate existing = byDevice.get(deviceId);
+        if (!macAddress.isLocallyAdministered()) {
+            remove(existing);
+            return;
+        }
+        if (existing != null && existing.lastSeen > seenAt) {
+            return;
+        }
+        remove(existing);
+        
+        Candidate candidate = new Candidate(deviceId, macAddress.toLong(),
+                ipAddress != null && ipAddress.isV4() ? ipAddress : null, hostnameKey(hostname), seenAt);
+        byDevice.put(deviceId, candidate);
+        if (candidate.ipAddress != null) {
+            byAddress.put(candidate.ipAddress, candidate);
+        }
+        if (candidate.hostname != null) {
+            byHostname.computeIfAbsent(candidate.hostname, key -> new ArrayList<>(1)).add(candidate);
+        }
+    }
+    
+    private void remove(Candidate candidate) {
+        if (candidate == null) {
+            return;
+        }
+        byDevice.remove(candidate.deviceId, candidate);
+        if (candidate.ipAddress != null) {
+            byAddress.remove(candidate.ipAddress, candidate);
+        }
+        if (candidate.hostname != null) {
+            List<Candidate> sameName = byHostname.get(candidate.hostname);
+            if (sameName != null && sameName.remove(candidate) && sameName.isEmpty()) {
+                byHostname.remove(candidate.hostname);
+            }
+        }
+    }
+    
+    // "Johns-iPhone.lan" and "johns-iphone" name the same device
+    private static String hostnameKey(String hostname) {
+        if (hostname == null || hostname.isBlank()) {
+            return null;
+        }
+        String name = hostname.trim().toLowerCase(Locale.ROOT);
+        int dot = name.indexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+    
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    public synchronized int size() {
+        return byDevice.size();
+    }
+    
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("candidates", byDevice.size());
+        stats.put("linkedRotations", linked.get());
+        stats.put("ambiguous", ambiguous.get());
+        return stats;
+    }
+    
+    private static final class Candidate {
+        final long deviceId;
+        final long macAddress;
+        final IpAddress ipAddress;
+        final String hostname;
+        final long lastSeen;
+        
+        Candidate(long deviceId, long macAddress, IpAddress ipAddress, String hostname, long lastSeen) {
+            this.deviceId = deviceId;
+            this.macAddress = macAddress;
+            this.ipAddress = ipAddress;
+            this.hostname = hostname;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/service/NetworkScannerService.java
+package com.networkdiscovery.service;
+
+import com.networkdiscovery.concurrency.Bulkheads;
+import com.networkdiscovery.concurrency.StripedLocks;
+import com.networkdiscovery.discovery.HostProber;
+import com.networkdiscovery.diagnostics.*;
+import com.networkdiscovery.discovery.NeighborSource;
+import com.networkdiscovery.entity.*;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.event.DeviceDetectionEvent;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.Ipv4Subnet;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.observation.Observation;
+import com.networkdiscovery.observation.ObservationApplier;
+import com.networkdiscovery.observation.ObservationLog;
+import com.networkdiscovery.repository.*;
+import com.networkdiscovery.identity.DeviceIdentityResolver;
+import com.networkdiscovery.search.DeviceSearchIndex;
+import com.networkdiscovery.service.ScannerState.DeviceMemo;
+import com.networkdiscovery.sync.ChangeVersions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.io.*;
+import java.net.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+@Service
+public class NetworkScannerService {
+    
+    private static final Logger log = LoggerFactory.getLogger(NetworkScannerService.class);
+    
+    private static final Map<Integer, String> OUI_VENDORS = Map.of(
+        0x005056, "VMware",
+        0x080027, "VirtualBox",
+        0x000C29, "VMware",
+        0x00155D, "Microsoft",
+        0x00163E, "Xen",
+        0x525400, "QEMU",
+        0x001B21, "Intel",
+        0x002324, "Apple"
+    );
+    
+    private static final int MAX_UPSERT_ATTEMPTS = 3;
+    
+    // Oracle rejects IN lists longer than 1000 elements
+    private static final int CHUNK_SIZE = 500;
+    
+    // Serializes read-merge-write per MAC across concurrent batches; different devices rarely share a stripe
+    private final StripedLocks deviceLocks = new StripedLocks(1024);
+    
+    @Autowired
+    private AuthorizedDeviceRepository authorizedRepository;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository unauthorizedRepository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private DeviceSearchIndex searchIndex;
+    
+    @Autowired
+    private List<NeighborSource> neighborSources;
+    
+    @Autowired
+    private HostProber hostProber;
+    
+    // Absent when network.observation-log.enabled=false, scans then write straight to the database
+    @Autowired(required = false)
+    private ObservationLog observationLog;
+    
+    @Autowired
+    private Bulkheads bulkheads;
+    
+    @Autowired
+    private ScannerState scannerState;
+    
+    @Autowired
+    private DeviceIdentityResolver identityResolver;
+    
+    @Autowired
+    private ChangeVersions changeVersions;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Value("${network.subnet:192.168.1.0/24}")
+    private String networkSubnet;
+    
+    @Value("${network.dns.timeout-ms:2000}")
+    private long dnsTimeoutMillis;
+    
+    @Value("${network.dns.enabled:true}")
+    private boolean dnsEnabled;
+    
+    @Value("${network.scan.apply-wait-ms:10000}")
+    private long applyWaitMillis;
+    
+    /**
+     * Scans the subnet and returns the persisted row of every unauthorized
+     * device seen, one per device. With the observation log enabled the scan
+     * waits for the applier to fold its observations in; if that takes longer
+     * than network.scan.apply-wait-ms the rows are returned as they stand.
+     */
+    public List<UnauthorizedDevice> scanForUnauthorizedDevices() {
+        log.info("Starting unauthorized device scan for subnet: {}", networkSubnet);
+        ScanEvent scanEvent = new ScanEvent();
+        scanEvent.begin();
+        List<UnauthorizedDevice> newUnauthorizedDevices = new ArrayList<>();
+        int observed = 0;
+        boolean failed = false;
+        
+        try {
+            List<Observation> observations = observe();
+            observed = observations.size();
+            
+            if (observationLog != null) {
+                // ObservationApplier folds the log into the device tables; observing never waits on the database
+                ScanPhaseEvent phase = ScanPhaseEvent.start();
+                long end = observationLog.append(observations);
+                phase.commit("log-append", observed);
+                
+                phase = ScanPhaseEvent.start();
+                if (!observationLog.awaitCursor(ObservationApplier.CURSOR, end, applyWaitMillis)) {
+                    log.warn("Observations not applied within {} ms, returning devices as last stored", applyWaitMillis);
+                }
+                newUnauthorizedDevices = findUnauthorized(observations);
+                phase.commit("await-apply", observed);
+            } else {
+                newUnauthorizedDevices = applyObservations(observations);
+            }
+            
+        } catch (Exception e) {
+            failed = true;
+            log.error("Error during unauthorized device scan", e);
+        }
+        
+        scanEvent.commit(networkSubnet, observed, newUnauthorizedDevices.size(), failed);
+        return newUnauthorizedDevices;
+    }
+    
+    /**
+     * Folds raw observations into the unauthorized device table: one read and
+     * one write per distinct MAC, however many times it was observed.
+     * Exceptions propagate so the caller can retry the same batch. The work
+     * runs on the persistence bulkhead, so scans, log replay and capture
+     * ingestion together never hold more connections than it allows.
+     */
+    public List<UnauthorizedDevice> applyObservations(List<Observation> observations) {
+        return applyObservations(observations, ObservationLog.NO_SEQUENCE);
+    }
+    
+    /**
+     * Applies observations read from the log starting at {@code firstSequence}.
+     * Devices that already absorbed part of that range only count the rest.
+     */
+    public List<UnauthorizedDevice> applyObservations(List<Observation> observations, long firstSequence) {
+        try {
+            return bulkheads.persistence().submit(() -> doApplyObservations(observations, firstSequence)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while applying observations", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    
+    private List<UnauthorizedDevice> doApplyObservations(List<Observation> observations, long firstSequence) {
+        BatchWriteEvent batchEvent = new BatchWriteEvent();
+        batchEvent.begin();
+        ScanPhaseEvent phase = ScanPhaseEvent.start();
+        Map<MacAddress, Sighting> sightings = new LinkedHashMap<>();
+        Batch batch = new Batch(sightings.keySet());
+        for (int i = 0; i < observations.size(); i++) {
+            Observation observation = observations.get(i);
+            long sequence = firstSequence < 0 ? ObservationLog.NO_SEQUENCE : firstSequence + i;
+            sightings.computeIfAbsent(observation.getMacAddress(), mac -> new Sighting(batch)).add(observation, sequence);
+            if (batch.start == null || observation.getObservedAt().isBefore(batch.start)) {
+                batch.start = observation.getObservedAt();
+            }
+        }
+        
+        scannerState.checkAuthorization(authorizationFingerprint());
+        int generation = scannerState.getAuthorizationGeneration();
+        
+        List<Sighting> unauthorized = new ArrayList<>();
+        for (Sighting sighting : sightings.values()) {
+            Observation observation = sighting.primary;
+            // A device seen at the same address under the current authorization generation needs no lookup
+            DeviceMemo memo = scannerState.getDevice(observation.getMacAddress());
+            boolean known = memo != null && memo.authorizationGeneration == generation
+                    && observation.getIpAddress().equals(memo.ipAddress);
+            AuthorizationCheckEvent check = new AuthorizationCheckEvent();
+            check.begin();
+            boolean authorized = known ? memo.authorized
+                    : isDeviceAuthorized(observation.getIpAddress(), observation.getMacAddress());
+            check.commit(observation.getIpAddress(), observation.getMacAddress(), authorized, known);
+            if (authorized) {
+                scannerState.rememberAuthorized(observation.getMacAddress(), observation.getIpAddress(),
+                        observation.getTimestamp(), generation);
+                continue;
+            }
+            
+            unauthorized.add(sighting);
+            if (known && memo.deviceId != 0) {
+                batch.deviceIds.add(memo.deviceId);
+            }
+            if (known && memo.deviceId != 0 && sighting.ipv6Addresses.isEmpty()) {
+                sighting.memo = memo;
+            } else if (needsReverseLookup(observation)
+                    && !searchIndex.isKnownUnauthorized(observation.getMacAddress())) {
+                // Lookups for devices not seen before start now and run while earlier devices are written
+                sighting.hostnameLookup = lookupHostname(observation.getIpAddress());
+            }
+            log.debug("Unauthorized device detected: IP={}, MAC={}", 
+                    observation.getIpAddress(), observation.getMacAddress());
+        }
+        phase.commit("authorize", sightings.size());
+        
+        phase = ScanPhaseEvent.start();
+        List<UnauthorizedDevice> unauthorizedDevices = new ArrayList<>(unauthorized.size());
+        List<Long> created = new ArrayList<>();
+        List<Long> updated = new ArrayList<>();
+        List<Detection> detections = new ArrayList<>(unauthorized.size());
+        List<Sighting> applied = new ArrayList<>(unauthorized.size());
+        for (Sighting sighting : unauthorized) {
+            DeviceWriteEvent write = new DeviceWriteEvent();
+            write.begin();
+            // Unchanged known devices take one UPDATE; anything else is read and merged. A batch
+            // replayed after failing part-way finds the devices it reached already holding its
+            // sequences; they are skipped rather than counted and alerted on twice
+            UnauthorizedDevice device = sighting.memo != null ? recordSighting(sighting) : null;
+            boolean fastPath = device != null;
+            if (device == null) {
+                device = upsert(sighting);
+                if (sighting.alreadyApplied) {
+                    continue;
+                }
+                (sighting.created ? created : updated).add(device.getId());
+            }
+            write.commit(sighting.primary.getIpAddress(), sighting.primary.getMacAddress(), device.getId(),
+                    fastPath, sighting.created);
+            batch.deviceIds.add(device.getId());
+            applied.add(sighting);
+            unauthorizedDevices.add(device);
+            // AlertService decides which of these are worth telling anyone about
+            detections.add(new Detection(device, sighting.created,
+                    sighting.previousLastSeen, sighting.primary.getObservedAt()));
+        }
+        phase.commit("write", applied.size());
+        
+        // Listeners run synchronously here: search index, alerts, trends, identity
+        phase = ScanPhaseEvent.start();
+        if (!created.isEmpty()) {
+            eventPublisher.publishEvent(new DeviceChangeEvent(DeviceKind.UNAUTHORIZED, ChangeType.CREATED, created));
+        }
+        if (!updated.isEmpty()) {
+            eventPublisher.publishEvent(new DeviceChangeEvent(DeviceKind.UNAUTHORIZED, ChangeType.UPDATED, updated));
+        }
+        if (!detections.isEmpty()) {
+            eventPublisher.publishEvent(new DeviceDetectionEvent(detections));
+        }
+        
+        // After the events, whose listeners drop memos of changed devices
+        for (int i = 0; i < unauthorizedDevices.size(); i++) {
+            scannerState.rememberUnauthorized(unauthorizedDevices.get(i),
+                    applied.get(i).primary.getTimestamp(), generation);
+        }
+        phase.commit("publish", detections.size());
+        
+        batchEvent.commit(observations.size(), unauthorizedDevices.size(), created.size(), updated.size());
+        return unauthorizedDevices;
+    }
+    
+    /**
+     * Fast path for a device known from an earlier scan at the same address.
+     * The returned copy is built from the memo, not read back. Returns null
+     * when the row no longer matches, so the caller falls back to a full
+     * upsert.
+     */
+    private UnauthorizedDevice recordSighting(Sighting sighting) {
+        DeviceMemo memo = sighting.memo;
+        Observation observation = sighting.primary;
+        DeviceStatus status = sighting.reachable ? DeviceStatus.ONLINE : DeviceStatus.OFFLINE;
+        // The change version must be allocated in the transaction that writes it
+        Integer matched = transactionTemplate.execute(tx -> unauthorizedRepository.recordSighting(memo.deviceId,
+                observation.getIpAddress(), observation.getObservedAt(), sighting.occurrences, status,
+                sighting.firstSequence, sighting.lastSequence, changeVersions.next()));
+        if (matched == null || matched == 0) {
+            return null;
+        }
+        
+        sighting.created = false;
+        sighting.previousLastSeen = LocalDateTime.ofInstant(Instant.ofEpochMilli(memo.lastSeen), ZoneId.systemDefault());
+        UnauthorizedDevice device = new UnauthorizedDevice(observation.getIpAddress(), observation.getMacAddress());
+        device.setId(memo.deviceId);
+        device.setStatus(status);
+        device.setRiskLevel(memo.riskLevel);
+        device.setVendor(memo.vendor);
+        device.setHostname(memo.hostname);
+        device.setLastSeen(observation.getObservedAt());
+        return device;
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceChange(DeviceChangeEvent event) {
+        if (event.getKind() == DeviceKind.AUTHORIZED) {
+            scannerState.invalidateAuthorization();
+        } else if (event.getChangeType() != ChangeType.CREATED) {
+            scannerState.forgetDevices(event.getIds());
+        }
+    }
+    
+    // Changes whenever an authorized device is added, edited or removed, even outside this application
+    private String authorizationFingerprint() {
+        return authorizedRepository.count() + "/" + authorizedRepository.findMaxId()
+                + "/" + authorizedRepository.findLatestUpdate();
+    }
+    
+    /**
+     * Reads, merges and writes one device under its MAC's lock, so concurrent
+     * batches never both insert a device or overwrite each other's counts.
+     * Writers outside this JVM are caught by the unique MAC constraint and the
+     * version column; the sighting is then merged again into the fresh row.
+     * Reverse DNS is awaited before the lock is taken, or with it released,
+     * so a slow resolver never holds up other devices on the same stripe.
+     */
+    private UnauthorizedDevice upsert(Sighting sighting) {
+        if (sighting.hostnameLookup != null || !needsReverseLookup(sighting.primary)) {
+            resolveHostname(sighting);
+        }
+        Lock lock = deviceLocks.get(sighting.primary.getMacAddress());
+        lock.lock();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                UnauthorizedDevice device = processUnauthorizedDevice(sighting);
+                if (device == null) {
+                    // A new device no lookup was started for; resolve it unlocked, then read and merge again
+                    lock.unlock();
+                    try {
+                        resolveHostname(sighting);
+                    } finally {
+                        lock.lock();
+                    }
+                    device = processUnauthorizedDevice(sighting);
+                }
+                if (sighting.alreadyApplied) {
+                    return device;
+                }
+                
+                // Update status based on ping results, unless a newer sighting already set it
+                if (sighting.latest) {
+                    device.setStatus(sighting.reachable ? DeviceStatus.ONLINE : DeviceStatus.OFFLINE);
+                }
+                
+                try {
+                    return unauthorizedRepository.save(device);
+                } catch (DataIntegrityViolationException | OptimisticLockingFailureException e) {
+                    if (attempt == MAX_UPSERT_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.debug("Concurrent update of device {}, merging again", sighting.primary.getMacAddress());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private List<Observation> observe() throws IOException {
+        // Get ARP and neighbor table entries; cost follows the number of neighbors, not the address space
+        ScanPhaseEvent phase = ScanPhaseEvent.start();
+        List<ArpEntry> arpEntries = new ArrayList<>();
+        for (NeighborSource source : neighborSources) {
+            // A missing or failing tool (e.g. no `ip` for the IPv6 table) must not cost the other sources
+            try {
+                arpEntries.addAll(source.readNeighbors());
+            } catch (IOException | RuntimeException e) {
+                log.warn("Neighbor source {} failed, continuing without it: {}",
+                        source.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+        phase.commit("neighbors", arpEntries.size());
+        
+        // Perform ping sweep for active devices, one bit per host offset in the subnet
+        Ipv4Subnet subnet = Ipv4Subnet.parse(networkSubnet);
+        BitSet neighbors = new BitSet(subnet.size());
+        for (ArpEntry entry : arpEntries) {
+            if (subnet.contains(entry.getIpAddress())) {
+                neighbors.set(subnet.offsetOf(entry.getIpAddress().toV4Int()));
+            }
+        }
+        int[] rttMicros = new int[subnet.size()];
+        BitSet activeHosts = performPingSweep(subnet, rttMicros, neighbors);
+        
+        long now = System.currentTimeMillis();
+        List<Observation> observations = new ArrayList<>(arpEntries.size());
+        for (ArpEntry entry : arpEntries) {
+            int offset = subnet.contains(entry.getIpAddress()) ? subnet.offsetOf(entry.getIpAddress().toV4Int()) : -1;
+            boolean pinged = offset >= 0 && activeHosts.get(offset);
+            boolean reachable = entry.getReachable() != null ? entry.getReachable() : pinged;
+            observations.add(new Observation(now, entry.getIpAddress(), entry.getMacAddress(),
+                    reachable, pinged ? rttMicros[offset] : Observation.NO_RTT));
+        }
+        return observations;
+    }
+    
+    // Stored rows of the devices this scan found, judged against the in-memory authorization index
+    private List<UnauthorizedDevice> findUnauthorized(List<Observation> observations) {
+        Set<MacAddress> macs = new LinkedHashSet<>();
+        for (Observation observation : observations) {
+            if (!searchIndex.isAuthorized(observation.getIpAddress(), observation.getMacAddress())) {
+                macs.add(observation.getMacAddress());
+            }
+        }
+        List<MacAddress> pending = new ArrayList<>(macs);
+        List<UnauthorizedDevice> devices = new ArrayList<>(pending.size());
+        for (int from = 0; from < pending.size(); from += CHUNK_SIZE) {
+            devices.addAll(unauthorizedRepository.findByMacAddressIn(
+                    pending.subList(from, Math.min(from + CHUNK_SIZE, pending.size()))));
+        }
+        return devices;
+    }
+    
+    // IPv6 addresses are too fluid to authorize by; IPv6 sightings are checked by MAC only
+    private boolean isDeviceAuthorized(IpAddress ipAddress, MacAddress macAddress) {
+        return (ipAddress.isV4() && authorizedRepository.existsByIpAddress(ipAddress)) || 
+               authorizedRepository.existsByMacAddress(macAddress);
+    }
+    
+    // Returns null for a device not stored yet while its hostname is still unresolved
+    private UnauthorizedDevice processUnauthorizedDevice(Sighting sighting) {
+        Observation observation = sighting.primary;
+        sighting.created = false;
+        sighting.alreadyApplied = false;
+        sighting.latest = true;
+        sighting.previousLastSeen = null;
+        UnauthorizedDevice device = unauthorizedRepository
+                .findByMacAddress(observation.getMacAddress()).orElse(null);
+        String hostname = sighting.hostnameResolved ? sighting.hostname : observation.getHostname();
+        if (device == null) {
+            if (!sighting.hostnameResolved) {
+                return null;
+            }
+            device = findRotatedDevice(sighting, hostname);
+        }
+        
+        // Only log sequences the row has not absorbed count, so applying the same records twice changes nothing
+        if (!sighting.keepUnapplied(device != null ? device.getAppliedSequence() : ObservationLog.NO_SEQUENCE)) {
+            sighting.alreadyApplied = true;
+            return device;
+        }
+        int occurrences = sighting.occurrences;
+        
+        if (device != null) {
+            sighting.previousLastSeen = device.getLastSeen();
+            // Delayed edge batches and old captures still count, but must not move lastSeen backwards
+            sighting.latest = device.getLastSeen() == null || !observation.getObservedAt().isBefore(device.getLastSeen());
+            if (sighting.latest) {
+                device.setLastSeen(observation.getObservedAt());
+            }
+            device.setDetectionCount(device.getDetectionCount() + occurrences);
+            if (device.getHostname() == null) {
+                device.setHostname(hostname);
+            }
+            
+            // Update IP if changed; an IPv6 sighting only fills in for devices without IPv4
+            boolean replaces = observation.getIpAddress().isV4()
+                    || device.getIpAddress() == null || !device.getIpAddress().isV4();
+            if (sighting.latest && replaces && !observation.getIpAddress().equals(device.getIpAddress())) {
+                device.setIpAddress(observation.getIpAddress());
+            }
+        } else {
+            sighting.created = true;
+            device = new UnauthorizedDevice(observation.getIpAddress(), observation.getMacAddress());
+            device.setFirstDetected(observation.getObservedAt());
+            device.setLastSeen(observation.getObservedAt());
+            device.setDetectionCount(occurrences);
+            device.setVendor(lookupMacVendor(observation.getMacAddress()));
+            device.setHostname(hostname);
+            classify(device, observation.getVendorClass());
+        }
+        
+        sighting.ipv6Addresses.forEach(device::addIpv6Address);
+        if (sighting.lastSequence > device.getAppliedSequence()) {
+            device.setAppliedSequence(sighting.lastSequence);
+        }
+        return device;
+    }
+    
+    // A hostname the device announced itself (DHCP option 12) saves the reverse lookup
+    private void resolveHostname(Sighting sighting) {
+        Observation observation = sighting.primary;
+        if (!needsReverseLookup(observation)) {
+            sighting.hostname = observation.getHostname();
+        } else {
+            if (sighting.hostnameLookup == null) {
+                sighting.hostnameLookup = lookupHostname(observation.getIpAddress());
+            }
+            sighting.hostname = awaitHostname(sighting.hostnameLookup);
+        }
+        sighting.hostnameResolved = true;
+    }
+    
+    // An unknown randomized MAC may be a known device that rotated its address; the row then follows the MAC
+    private UnauthorizedDevice findRotatedDevice(Sighting sighting, String hostname) {
+        Observation observation = sighting.primary;
+        Batch batch = sighting.batch;
+        Long deviceId = identityResolver.resolve(observation.getMacAddress(), observation.getIpAddress(),
+                hostname, observation.getObservedAt(), batch.start, batch.macs, batch.deviceIds);
+        if (deviceId == null) {
+            return null;
+        }
+        // The index may lag the table; a row seen in this batch, or under one of its MACs, did not rotate
+        UnauthorizedDevice device = unauthorizedRepository.findById(deviceId).orElse(null);
+        if (device == null || !device.getMacAddress().isLocallyAdministered()
+                || batch.macs.contains(device.getMacAddress())
+                || device.getLastSeen() == null || !device.getLastSeen().isBefore(batch.start)) {
+            return null;
+        }
+        
+        log.info("Device {} rotated its MAC from {} to {}", deviceId, device.getMacAddress(), observation.getMacAddress());
+        device.setMacAddress(observation.getMacAddress());
+        if (device.getHostname() == null) {
+            device.setHostname(hostname);
+        }
+        return device;
+    }
+    
+    private boolean needsReverseLookup(Observation observation) {
+        return observation.getHostname() == null && dnsEnabled && !isLinkLocal(observation.getIpAddress());
+    }
+    
+    private Future<String> lookupHostname(IpAddress ipAddress) {
+        return bulkheads.enrichment().submit(() -> resolveHostname(ipAddress));
+    }
+    
+    private void classify(UnauthorizedDevice device, String vendorClass) {
+        device.setDeviceType(determineDeviceType(device.getVendor(),
+                vendorClass != null ? device.getHostname() + " " + vendorClass : device.getHostname()));
+        device.setRiskLevel(assessRiskLevel(device));
+    }
+    
+    // A slow resolver leaves the hostname empty rather than stalling the batch
+    private String awaitHostname(Future<String> lookup) {
+        try {
+            return lookup.get(dnsTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            lookup.cancel(true);
+            return null;
+        }
+    }
+    
+    // fe80::/10 addresses never have reverse DNS
+    private boolean isLinkLocal(IpAddress ipAddress) {
+        byte[] bytes = ipAddress.toBytes();
+        return bytes.length == 16 && (bytes[0] & 0xFF) == 0xFE && (bytes[1] & 0xC0) == 0x80;
+    }
+    
+    /**
+     * Everything one batch saw of a single MAC. The primary observation is the
+     * newest IPv4 one (or newest overall for IPv6-only devices); IPv6
+     * addresses are collected separately. A detection is counted once per
+     * distinct timestamp, so IPv4 and IPv6 entries of one scan count once.
+     */
+    private static class Sighting {
+        final Batch batch;
+        Observation primary;
+        int occurrences;
+        boolean reachable;
+        long newestTimestamp = Long.MIN_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+        // Log sequence of the last observation of each detection; NO_SEQUENCE outside the log
+        final List<Long> detectionSequences = new ArrayList<>();
+        long firstSequence = ObservationLog.NO_SEQUENCE;
+        long lastSequence = ObservationLog.NO_SEQUENCE;
+        final Set<IpAddress> ipv6Addresses = new LinkedHashSet<>();
+        // Filled in while the sighting is applied to its device row
+        DeviceMemo memo;
+        Future<String> hostnameLookup;
+        String hostname;
+        boolean hostnameResolved;
+        boolean created;
+        boolean alreadyApplied;
+        boolean latest = true;
+        LocalDateTime previousLastSeen;
+        
+        Sighting(Batch batch) {
+            this.batch = batch;
+        }
+        
+        void add(Observation observation, long sequence) {
+            if (observation.getTimestamp() != lastTimestamp) {
+                occurrences++;
+                lastTimestamp = observation.getTimestamp();
+                detectionSequences.add(sequence);
+            } else {
+                detectionSequences.set(detectionSequences.size() - 1, sequence);
+            }
+            if (firstSequence < 0) {
+                firstSequence = sequence;
+            }
+            lastSequence = sequence;
+            
+            boolean v4 = observation.getIpAddress().isV4();
+            if (!v4) {
+                ipv6Addresses.add(observation.getIpAddress());
+            }
+            if (primary == null || (v4 && !primary.getIpAddress().isV4())
+                    || (v4 == primary.getIpAddress().isV4() && observation.getTimestamp() >= primary.getTimestamp())) {
+                primary = observation;
+            }
+            
+            if (observation.getTimestamp() > newestTimestamp) {
+                newestTimestamp = observation.getTimestamp();
+                reachable = observation.isReachable();
+            } else if (observation.getTimestamp() == newestTimestamp) {
+                reachable |= observation.isReachable();
+            }
+        }
+        
+        // Counts only detections logged after appliedSequence; false when none are left
+        boolean keepUnapplied(long appliedSequence) {
+            if (lastSequence < 0) {
+                return true;
+            }
+            occurrences = 0;
+            for (long sequence : detectionSequences) {
+                if (sequence > appliedSequence) {
+                    occurrences++;
+                }
+            }
+            return occurrences > 0;
+        }
+    }
+    
+    // What a batch as a whole saw, so no device present in it is taken for one that rotated away
+    private static class Batch {
+        final Set<MacAddress> macs;
+        final Set<Long> deviceIds = new HashSet<>();
+        LocalDateTime start;
+        
+        Batch(Set<MacAddress> macs) {
+            this.macs = macs;
+        }
+    }
+    
+    private RiskLevel assessRiskLevel(UnauthorizedDevice device) {
+        // Simple risk assessment logic
+        String vendor = device.getVendor();
+        String hostname = device.getHostname();
+        
+        if (vendor != null && (vendor.toLowerCase().contains("vm") || 
+                              vendor.toLowerCase().contains("virtual"))) {
+            return RiskLevel.HIGH; // Virtual machines could be suspicious
+        }
+        
+        if (hostname != null && hostname.toLowerCase().contains("android")) {
+            return RiskLevel.LOW; // Mobile devices are typically low risk
+        }
+        
+        return RiskLevel.MEDIUM; // Default risk level
+    }
+    
+    private String determineDeviceType(String vendor, String hostname) {
+        if (vendor == null && hostname == null) return "Unknown";
+        
+        String combined = (vendor + " " + hostname).toLowerCase();
+        
+        if (combined.contains("apple") || combined.contains("iphone") || combined.contains("ipad")) {
+            return "Apple Device";
+        } else if (combined.contains("samsung") || combined.contains("android")) {
+            return "Android Device";
+        } else if (combined.contains("vm") || combined.contains("virtual")) {
+            return "Virtual Machine";
+        } else if (combined.contains("printer") || combined.contains("canon") || combined.contains("hp")) {
+            return "Printer";
+        } else if (combined.contains("router") || combined.contains("switch")) {
+            return "Network Device";
+        }
+        
+        return "Computer";
+    }
+    
+    /**
+     * Probes run in parallel on the probe bulkhead. Submitting blocks while the
+     * bulkhead is full, so a /16 never has more than its queue outstanding.
+     * ScannerState decides which hosts are due and how long to wait for each:
+     * silent hosts back off, answering hosts get a timeout near their RTT.
+     */
+    private BitSet performPingSweep(Ipv4Subnet subnet, int[] rttMicros, BitSet neighbors) {
+        ScanPhaseEvent phase = ScanPhaseEvent.start();
+        BitSet activeHosts = new BitSet(subnet.size());
+        scannerState.beginScan(subnet, networkSubnet);
+        int[] offsets = new int[Math.max(0, subnet.lastHostOffset() - subnet.firstHostOffset() + 1)];
+        List<CompletableFuture<Integer>> probes = new ArrayList<>(offsets.length);
+        
+        for (int offset = subnet.firstHostOffset(); offset <= subnet.lastHostOffset(); offset++) {
+            if (neighbors.get(offset)) {
+                scannerState.resetBackoff(offset);
+            }
+            if (!scannerState.shouldProbe(offset)) {
+                continue;
+            }
+            IpAddress ip = subnet.addressAt(offset);
+            int timeoutMillis = scannerState.timeoutFor(offset);
+            offsets[probes.size()] = offset;
+            probes.add(bulkheads.probe().submit(() -> probe(ip, timeoutMillis)));
+        }
+        
+        for (int i = 0; i < probes.size(); i++) {
+            int rtt = probes.get(i).exceptionally(e -> Observation.NO_RTT).join();
+            scannerState.recordProbe(offsets[i], rtt);
+            if (rtt != Observation.NO_RTT) {
+                activeHosts.set(offsets[i]);
+                rttMicros[offsets[i]] = rtt;
+            }
+        }
+        
+        log.debug("Probed {} of {} addresses, {} answered", probes.size(), offsets.length, activeHosts.cardinality());
+        phase.commit("ping-sweep", probes.size());
+        return activeHosts;
+    }
+    
+    private int probe(IpAddress ip, int timeoutMillis) {
+        ProbeEvent event = new ProbeEvent();
+        event.begin();
+        int rtt = hostProber.probe(ip, timeoutMillis);
+        event.commit(ip, timeoutMillis, rtt);
+        return rtt;
+    }
+    
+    private String lookupMacVendor(MacAddress macAddress) {
+        return OUI_VENDORS.getOrDefault(macAddress.oui(), "Unknown");
+    }
+    
+    private String resolveHostname(IpAddress ipAddress) {
+        DnsLookupEvent event = new DnsLookupEvent();
+        event.begin();
+        String hostname;
+        try {
+            String address = ipAddress.toString();
+            String resolved = ipAddress.toInetAddress().getHostName();
+            hostname = resolved.equals(address) ? null : resolved;
+        } catch (Exception e) {
+            hostname = null;
+        }
+        event.commit(ipAddress, hostname);
+        return hostname;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/service/ScannerState.java
+package com.networkdiscovery.service;
+
+import com.networkdiscovery.entity.DeviceStatus;
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.Ipv4Subnet;
+import com.networkdiscovery.net.MacAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * What the scanner has learned between scans, checkpointed to a binary file
+ * so a restart resumes warm:
+ * <ul>
+ * <li>Probe state per subnet offset: live bitmap, last RTT (for a tighter
+ * timeout) and consecutive misses (silent hosts are probed with backoff).</li>
+ * <li>A memo per MAC: last sighting, the authorization verdict, and for
+ * unauthorized devices the row id plus the fields alerts need. An unchanged
+ * device is then one UPDATE, with no reads.</li>
+ * <li>The fingerprint of the authorized devices the verdicts were computed
+ * under. A verdict only counts while its generation is current. Any
+ * authorized device change, or a fingerprint mismatch (for example after a
+ * restore), starts a new generation.</li>
+ * </ul>
+ * The file holds a magic number, a format version and a trailing CRC. The CRC
+ * is checked before anything is parsed; a file with the wrong version, a bad
+ * checksum or contents that do not fit together is ignored, and the scanner
+ * simply starts cold.
+ */
+@Component
+public class ScannerState {
+    
+    private static final Logger log = LoggerFactory.getLogger(ScannerState.class);
+    
+    private static final int MAGIC = 0x4E445353; // "NDSS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 8; // magic, version, written at
+    private static final int MAX_MISSES = 30;
+    
+    @Value("${network.scanner-state.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${network.scanner-state.file:data/scanner-state.bin}")
+    private String file;
+    
+    @Value("${network.scanner-state.forget-after-days:7}")
+    private long forgetAfterDays;
+    
+    @Value("${network.probe.max-backoff-scans:16}")
+    private int maxBackoffScans;
+    
+    @Value("${network.probe.timeout-ms:1000}")
+    private int probeTimeoutMillis;
+    
+    @Value("${network.probe.min-timeout-ms:50}")
+    private int minProbeTimeoutMillis;
+    
+    // Probe state, guarded by this
+    private String subnet;
+    private int scanNumber;
+    private BitSet liveHosts = new BitSet();
+    private int[] rttMicros = new int[0];
+    private byte[] misses = new byte[0];
+    
+    private final Map<MacAddress, DeviceMemo> devices = new ConcurrentHashMap<>();
+    private final Map<Long, MacAddress> macById = new ConcurrentHashMap<>();
+    private volatile int authorizationGeneration;
+    private volatile String authorizationFingerprint;
+    private volatile boolean dirty;
+    
+    @PostConstruct
+    public void restore() {
+        Path path = Paths.get(file);
+        if (!enabled || !Files.exists(path)) {
+            return;
+        }
+        try {
+            // Verify the whole body before parsing it, so a damaged file can never size arrays or index them
+            byte[] bytes = Files.readAllBytes(path);
+            if (bytes.length < HEADER_BYTES + Integer.BYTES) {
+                throw new IOException("truncated");
+            }
+            int bodyLength = bytes.length - Integer.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bodyLength);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bodyLength));
+            int stored = new DataInputStream(new ByteArrayInputStream(bytes, bodyLength, Integer.BYTES)).readInt();
+            if (in.readInt() != MAGIC || in.readUnsignedShort() != FORMAT_VERSION) {
+                log.info("Scanner state {} has an unknown format, starting cold", path);
+                return;
+            }
+            if (stored != (int) crc.getValue()) {
+                throw new IOException("checksum mismatch");
+            }
+            in.readLong(); // written at
+            readFrom(in);
+            log.info("Scanner state restored: {} live hosts on {}, {} devices", liveHosts.cardinality(),
+                    subnet, devices.size());
+        } catch (IOException e) {
+            log.warn("Scanner state {} unreadable, starting cold: {}", path, e.getMessage());
+            clear();
+        } catch (RuntimeException e) {
+            log.warn("Scanner state {} is inconsistent, starting cold", path, e);
+            clear();
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${network.scanner-state.checkpoint-interval-ms:60000}")
+    public void checkpoint() {
+        if (!enabled || !dirty) {
+            return;
+        }
+        dirty = false;
+        forgetStale();
+        Path path = Paths.get(file);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)), new CRC32())) {
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                writeTo(out);
+                out.writeInt((int) checked.getChecksum().getValue());
+                out.flush();
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("Could not checkpoint scanner state to {}", path, e);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        checkpoint();
+    }
+    
+    // ---- probe planning ----
+    
+    // Starts a sweep; probe state is kept only while the subnet stays the same
+    public synchronized void beginScan(Ipv4Subnet scanSubnet, String cidr) {
+        if (!cidr.equals(subnet) || rttMicros.length != scanSubnet.size()) {
+            subnet = cidr;
+            scanNumber = 0;
+            liveHosts = new BitSet(scanSubnet.size());
+            rttMicros = new int[scanSubnet.size()];
+            misses = new byte[scanSubnet.size()];
+        }
+        scanNumber++;
+        dirty = true;
+    }
+    
+    /**
+     * Hosts that keep missing are probed every 2, 4, ... up to max-backoff
+     * scans. The offset staggers which scan picks them up, so the cost of
+     * silent hosts spreads evenly across scans.
+     */
+    public synchronized boolean shouldProbe(int offset) {
+        int missed = misses[offset];
+        if (missed == 0) {
+            return true;
+        }
+        int period = Math.min(1 << Math.min(missed, MAX_MISSES), maxBackoffScans);
+        return (scanNumber + offset) % period == 0;
+    }
+    
+    // Answering hosts get a timeout a few RTTs long; unknown ones the full one
+    public synchronized int timeoutFor(int offset) {
+        int rtt = rttMicros[offset];
+        if (rtt <= 0) {
+            return probeTimeoutMillis;
+        }
+        return Math.min(probeTimeoutMillis, Math.max(minProbeTimeoutMillis, rtt * 8 / 1000));
+    }
+    
+    public synchronized void recordProbe(int offset, int rtt) {
+        if (rtt >= 0) {
+            liveHosts.set(offset);
+            rttMicros[offset] = Math.max(rtt, 1);
+            misses[offset] = 0;
+        } else {
+            liveHosts.clear(offset);
+            // A miss under a tight timeout may just be a slow answer; the next probe waits the full time
+            rttMicros[offset] = 0;
+            misses[offset] = (byte) Math.min(misses[offset] + 1, MAX_MISSES);
+        }
+    }
+    
+    // Hosts in the neighbor table are alive whatever their backoff says
+    public synchronized void resetBackoff(int offset) {
+        misses[offset] = 0;
+    }
+    
+    public synchronized int getLiveHostCount() {
+        return liveHosts.cardinality();
+    }
+    
+    // ---- device memos ----
+    
+    public DeviceMemo getDevice(MacAddress macAddress) {
+        return devices.get(macAddress);
+    }
+    
+    /**
+     * Voids all verdicts when the authorized devices changed behind our back:
+     * edits made directly in the database, or while this instance was down.
+     */
+    public synchronized void checkAuthorization(String currentFingerprint) {
+        if (!currentFingerprint.equals(authorizationFingerprint)) {
+            authorizationGeneration++;
+            authorizationFingerprint = currentFingerprint;
+            dirty = true;
+        }
+    }
+    
+    public synchronized void invalidateAuthorization() {
+        authorizationGeneration++;
+        dirty = true;
+    }
+    
+    public int getAuthorizationGeneration() {
+        return authorizationGeneration;
+    }
+    
+    public void rememberAuthorized(MacAddress macAddress, IpAddress ipAddress, long seenAt, int generation) {
+        put(new DeviceMemo(macAddress, 0, true, generation, ipAddress, seenAt, null, null, null, null));
+    }
+    
+    public void rememberUnauthorized(UnauthorizedDevice device, long seenAt, int generation) {
+        put(new DeviceMemo(device.getMacAddress(), device.getId(), false, generation, device.getIpAddress(),
+                seenAt, device.getStatus(), device.getRiskLevel(), device.getVendor(), device.getHostname()));
+    }
+    
+    public void forgetDevices(Collection<Long> ids) {
+        for (Long id : ids) {
+            MacAddress macAddress = macById.remove(id);
+            if (macAddress != null) {
+                devices.remove(macAddress);
+                dirty = true;
+            }
+        }
+    }
+    
+    private void put(DeviceMemo memo) {
+        DeviceMemo previous = devices.get(memo.macAddress);
+        if (previous != null && previous.lastSeen > memo.lastSeen) {
+            // Replayed observations must not move lastSeen backwards
+            memo = new DeviceMemo(memo.macAddress, memo.deviceId, memo.authorized, memo.authorizationGeneration,
+                    memo.ipAddress, previous.lastSeen, memo.status, memo.riskLevel, memo.vendor, memo.hostname);
+        }
+        devices.put(memo.macAddress, memo);
+        if (previous != null && previous.deviceId != 0 && previous.deviceId != memo.deviceId) {
+            macById.remove(previous.deviceId);
+        }
+        if (memo.deviceId != 0) {
+            macById.put(memo.deviceId, memo.macAddress);
+        }
+        dirty = true;
+    }
+    
+    private void forgetStale() {
+        long cutoff = System.currentTimeMillis() - Duration.ofDays(forgetAfterDays).toMillis();
+        devices.values().removeIf(memo -> {
+            if (memo.lastSeen >= cutoff) return false;
+            if (memo.deviceId != 0) macById.remove(memo.deviceId);
+            return true;
+        });
+    }
+    
+    private synchronized void clear() {
+        subnet = null;
+        scanNumber = 0;
+        liveHosts = new BitSet();
+        rttMicros = new int[0];
+        misses = new byte[0];
+        devices.clear();
+        macById.clear();
+        authorizationFingerprint = null;
+    }
+    
+    // ---- serialization ----
+    
+    private synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(subnet != null ? subnet : "");
+        out.writeInt(scanNumber);
+        out.writeInt(rttMicros.length);
+        // Only answering hosts carry an RTT and only silent ones a miss count
+        out.writeInt(liveHosts.cardinality());
+        for (int offset = liveHosts.nextSetBit(0); offset >= 0; offset = liveHosts.nextSetBit(offset + 1)) {
+            out.writeInt(offset);
+            out.writeInt(rttMicros[offset]);
+        }
+        int missing = 0;
+        for (byte missed : misses) {
+            if (missed != 0) missing++;
+        }
+        out.writeInt(missing);
+        for (int offset = 0; offset < misses.length; offset++) {
+            if (misses[offset] != 0) {
+                out.writeInt(offset);
+                out.writeByte(misses[offset]);
+            }
+        }
+        
+        out.writeUTF(authorizationFingerprint != null ? authorizationFingerprint : "");
+        int generation = authorizationGeneration;
+        List<DeviceMemo> memos = new ArrayList<>(devices.values());
+        out.writeInt(memos.size());
+        for (DeviceMemo memo : memos) {
+            out.writeLong(memo.macAddress.toLong());
+            out.writeLong(memo.deviceId);
+            // Verdicts from an older generation are already void; store them as unknown
+            out.writeByte(memo.authorizationGeneration != generation ? -1 : memo.authorized ? 1 : 0);
+            byte[] ip = memo.ipAddress != null ? memo.ipAddress.toBytes() : new byte[0];
+            out.writeByte(ip.length);
+            out.write(ip);
+            out.writeLong(memo.lastSeen);
+            writeNullable(out, memo.status != null ? memo.status.name() : null);
+            writeNullable(out, memo.riskLevel != null ? memo.riskLevel.name() : null);
+            writeNullable(out, memo.vendor);
+            writeNullable(out, memo.hostname);
+        }
+    }
+    
+    private synchronized void readFrom(DataInputStream in) throws IOException {
+        String storedSubnet = in.readUTF();
+        subnet = storedSubnet.isEmpty() ? null : storedSubnet;
+        scanNumber = in.readInt();
+        int size = in.readInt();
+        liveHosts = new BitSet(size);
+        rttMicros = new int[size];
+        misses = new byte[size];
+        for (int i = in.readInt(); i > 0; i--) {
+            int offset = in.readInt();
+            liveHosts.set(offset);
+            rttMicros[offset] = in.readInt();
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            int offset = in.readInt();
+            misses[offset] = in.readByte();
+        }
+        
+        String fingerprint = in.readUTF();
+        authorizationFingerprint = fingerprint.isEmpty() ? null : fingerprint;
+        authorizationGeneration = 0;
+        for (int i = in.readInt(); i > 0; i--) {
+            MacAddress macAddress = MacAddress.of(in.readLong());
+            long deviceId = in.readLong();
+            byte verdict = in.readByte();
+            byte[] ip = new byte[in.readUnsignedByte()];
+            in.readFully(ip);
+            long lastSeen = in.readLong();
+            String status = readNullable(in);
+            String riskLevel = readNullable(in);
+            String vendor = readNullable(in);
+            String hostname = readNullable(in);
+            put(new DeviceMemo(macAddress, deviceId, verdict == 1, verdict < 0 ? -1 : 0,
+                    ip.length > 0 ? IpAddress.of(ip) : null, lastSeen,
+                    status != null ? DeviceStatus.valueOf(status) : null,
+                    riskLevel != null ? RiskLevel.valueOf(riskLevel) : null, vendor, hostname));
+        }
+        dirty = false;
+    }
+    
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    /**
+     * Last known state of one MAC. deviceId is 0 for authorized devices; the
+     * verdict holds only while authorizationGeneration is current.
+     */
+    public static class DeviceMemo {
+        final MacAddress macAddress;
+        final long deviceId;
+        final boolean authorized;
+        final int authorizationGeneration;
+        final IpAddress ipAddress;
+        final long lastSeen;
+        final DeviceStatus status;
+        final RiskLevel riskLevel;
+        final String vendor;
+        final String hostname;
+        
+        DeviceMemo(MacAddress macAddress, long deviceId, boolean authorized, int authorizationGeneration,
+                   IpAddress ipAddress, long lastSeen, DeviceStatus status, RiskLevel riskLevel,
+                   String vendor, String hostname) {
+            this.macAddress = macAddress;
+            this.deviceId = deviceId;
+            this.authorized = authorized;
+            this.authorizationGeneration = authorizationGeneration;
+            this.ipAddress = ipAddress;
+            this.lastSeen = lastSeen;
+            this.status = status;
+            this.riskLevel = riskLevel;
+            this.vendor = vendor;
+            this.hostname = hostname;
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/discovery/NeighborSource.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.service.ArpEntry;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A table of MAC/IP neighbors the scanner can read, e.g. the kernel ARP
+ * cache or the IPv6 neighbor table.
+ */
+public interface NeighborSource {
+    List<ArpEntry> readNeighbors() throws IOException;
+}
+
+// File: src/main/java/com/networkdiscovery/discovery/CommandNeighborSource.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.service.ArpEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Neighbor source that runs a system command and parses its output line by line.
+ */
+public abstract class CommandNeighborSource implements NeighborSource {
+    
+    private static final Logger log = LoggerFactory.getLogger(CommandNeighborSource.class);
+    
+    protected abstract List<String> command();
+    
+    protected abstract ArpEntry parseLine(String line);
+    
+    @Override
+    public List<ArpEntry> readNeighbors() throws IOException {
+        List<ArpEntry> entries = new ArrayList<>();
+        Process process = new ProcessBuilder(command()).redirectErrorStream(true).start();
+        
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    ArpEntry entry = parseLine(line);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.debug("Skipping malformed neighbor line: {}", line);
+                }
+            }
+        }
+        
+        return entries;
+    }
+    
+    protected static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/discovery/ArpTableSource.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.service.ArpEntry;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Component
+@Order(1)
+@Profile("!simulation")
+public class ArpTableSource extends CommandNeighborSource {
+    
+    // Windows: "  192.168.1.100    aa-bb-cc-dd-ee-ff     dynamic"
+    private static final Pattern WINDOWS_PATTERN =
+            Pattern.compile("\\s+(\\d+\\.\\d+\\.\\d+\\.\\d+)\\s+([a-fA-F0-9-]{17})");
+    // Linux: "hostname (192.168.1.100) at aa:bb:cc:dd:ee:ff [ether] on eth0"
+    private static final Pattern LINUX_PATTERN =
+            Pattern.compile("\\((\\d+\\.\\d+\\.\\d+\\.\\d+)\\)\\s+at\\s+([a-fA-F0-9:]{17})");
+    
+    @Override
+    protected List<String> command() {
+        return Arrays.asList("arp", "-a");
+    }
+    
+    @Override
+    protected ArpEntry parseLine(String line) {
+        Matcher windowsMatcher = WINDOWS_PATTERN.matcher(line);
+        if (windowsMatcher.find()) {
+            return new ArpEntry(IpAddress.parse(windowsMatcher.group(1)), MacAddress.parse(windowsMatcher.group(2)));
+        }
+        Matcher linuxMatcher = LINUX_PATTERN.matcher(line);
+        if (linuxMatcher.find()) {
+            return new ArpEntry(IpAddress.parse(linuxMatcher.group(1)), MacAddress.parse(linuxMatcher.group(2)));
+        }
+        return null;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/discovery/Ipv6NeighborSource.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.service.ArpEntry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the kernel IPv6 neighbor table. A /64 can never be swept, but every
+ * host that talks on the link shows up here through neighbor discovery.
+ */
+@Component
+@Order(2)
+@Profile("!simulation")
+@ConditionalOnProperty(name = "network.ipv6.enabled", havingValue = "true", matchIfMissing = true)
+public class Ipv6NeighborSource extends CommandNeighborSource {
+    
+    // Linux: "fe80::1c2a:3bff:fe4d:5e6f dev eth0 lladdr 1e:2a:3b:4d:5e:6f router REACHABLE"
+    private static final Pattern LINUX_PATTERN =
+            Pattern.compile("^([0-9a-fA-F:]+)(?:%\\S+)?\\s.*\\blladdr\\s+([0-9a-fA-F:]{17})(?:\\s+\\S+)*?\\s+([A-Z]+)\\s*$");
+    // Windows (netsh interface ipv6 show neighbors): "fe80::1    1e-2a-3b-4d-5e-6f    Reachable"
+    private static final Pattern WINDOWS_PATTERN =
+            Pattern.compile("^\\s*([0-9a-fA-F:]+)(?:%\\d+)?\\s+([0-9a-fA-F-]{17})\\s+(.+?)\\s*$");
+    
+    @Override
+    protected List<String> command() {
+        return isWindows()
+                ? Arrays.asList("netsh", "interface", "ipv6", "show", "neighbors")
+                : Arrays.asList("ip", "-6", "neigh", "show");
+    }
+    
+    @Override
+    protected ArpEntry parseLine(String line) {
+        Matcher matcher = LINUX_PATTERN.matcher(line);
+        if (!matcher.find()) {
+            matcher = WINDOWS_PATTERN.matcher(line);
+            if (!matcher.find()) return null;
+        }
+        
+        // Entries without a confirmed link-layer address (INCOMPLETE, FAILED) never match above
+        MacAddress mac = MacAddress.parse(matcher.group(2));
+        if (mac.toLong() == 0 || mac.isMulticast()) return null;
+        return new ArpEntry(IpAddress.parse(matcher.group(1)), mac, isReachable(matcher.group(3)));
+    }
+    
+    // Only the first word counts: Windows reports routers as "Reachable (Router)"
+    private static boolean isReachable(String state) {
+        switch (state.trim().split("[\\s(]", 2)[0].toUpperCase(Locale.ROOT)) {
+            case "REACHABLE":
+            case "DELAY":
+            case "PROBE":
+            case "PERMANENT":
+                return true;
+            default:
+                return false; // STALE, UNREACHABLE
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/discovery/HostProber.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.net.IpAddress;
+
+/**
+ * Checks whether a single host answers. The ping sweep goes through this,
+ * so the network can be replaced by SimulatedNetwork.
+ */
+public interface HostProber {
+    
+    // Round-trip time in microseconds, or Observation.NO_RTT when the host did not answer in time
+    int probe(IpAddress address, int timeoutMillis);
+}
+
+// File: src/main/java/com/networkdiscovery/discovery/IcmpHostProber.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.observation.Observation;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+
+@Component
+@Profile("!simulation")
+public class IcmpHostProber implements HostProber {
+    
+    @Override
+    public int probe(IpAddress address, int timeoutMillis) {
+        long start = System.nanoTime();
+        try {
+            return address.toInetAddress().isReachable(timeoutMillis)
+                    ? (int) ((System.nanoTime() - start) / 1000) : Observation.NO_RTT;
+        } catch (IOException e) {
+            return Observation.NO_RTT;
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/service/ArpEntry.java
+package com.networkdiscovery.service;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+
+public class ArpEntry {
+    private IpAddress ipAddress;
+    private MacAddress macAddress;
+    // Reachability reported by the neighbor table itself, null when the ping sweep decides
+    private Boolean reachable;
+    
+    public ArpEntry(IpAddress ipAddress, MacAddress macAddress) {
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+    }
+    
+    public ArpEntry(IpAddress ipAddress, MacAddress macAddress, Boolean reachable) {
+        this(ipAddress, macAddress);
+        this.reachable = reachable;
+    }
+    
+    public IpAddress getIpAddress() { return ipAddress; }
+    public MacAddress getMacAddress() { return macAddress; }
+    public Boolean getReachable() { return reachable; }
+}
+
+// File: src/main/java/com/networkdiscovery/service/DeviceTriageService.java
+package com.networkdiscovery.service;
+
+import com.networkdiscovery.dto.BulkTriageRequest;
+import com.networkdiscovery.dto.TriageFilter;
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import com.networkdiscovery.sync.ChangeVersions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+@Service
+public class DeviceTriageService {
+    
+    private static final Logger log = LoggerFactory.getLogger(DeviceTriageService.class);
+    
+    // Oracle rejects IN lists longer than 1000 elements
+    static final int CHUNK_SIZE = 500;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository repository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private ChangeVersions changeVersions;
+    
+    @Transactional
+    public int markAsInvestigated(BulkTriageRequest request) {
+        return apply(request, "investigate", chunk -> repository.markInvestigatedByIdIn(chunk, changeVersions.next()));
+    }
+    
+    @Transactional
+    public int updateRiskLevel(BulkTriageRequest request, RiskLevel riskLevel) {
+        return apply(request, "risk-level",
+                chunk -> repository.updateRiskLevelByIdIn(chunk, riskLevel, changeVersions.next()));
+    }
+    
+    @Transactional
+    public int updateNotes(BulkTriageRequest request, String notes) {
+        return apply(request, "notes", chunk -> repository.updateNotesByIdIn(chunk, notes, changeVersions.next()));
+    }
+    
+    private int apply(BulkTriageRequest request, String action, ToIntFunction<List<Long>> update) {
+        List<Long> ids = resolveIds(request);
+        int affected = 0;
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+            affected += update.applyAsInt(chunk);
+        }
+        
+        if (!ids.isEmpty()) {
+            eventPublisher.publishEvent(new DeviceChangeEvent(DeviceKind.UNAUTHORIZED, ChangeType.UPDATED, ids));
+        }
+        log.info("Bulk triage '{}' matched {} devices, updated {}", action, ids.size(), affected);
+        return affected;
+    }
+    
+    private List<Long> resolveIds(BulkTriageRequest request) {
+        if (request.getIds() != null && !request.getIds().isEmpty()) {
+            return new ArrayList<>(new LinkedHashSet<>(request.getIds()));
+        }
+        
+        TriageFilter filter = request.getFilter();
+        if (filter == null || filter.isEmpty()) {
+            throw new IllegalArgumentException("Bulk triage needs either ids or a non-empty filter");
+        }
+        return repository.findIdsByTriageFilter(filter.getRiskLevel(), filter.getVendor(),
+                filter.getDeviceType(), filter.getStatus(), filter.getIsInvestigated(), filter.getSeenSince());
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/dto/BulkTriageRequest.java
+package com.networkdiscovery.dto;
+
+import com.networkdiscovery.entity.RiskLevel;
+import java.util.List;
+
+public class BulkTriageRequest {
+    private List<Long> ids;
+    private TriageFilter filter;
+    private RiskLevel riskLevel;
+    private String notes;
+    
+    public List<Long> getIds() { return ids; }
+    public void setIds(List<Long> ids) { this.ids = ids; }
+    
+    public TriageFilter getFilter() { return filter; }
+    public void setFilter(TriageFilter filter) { this.filter = filter; }
+    
+    public RiskLevel getRiskLevel() { return riskLevel; }
+    public void setRiskLevel(RiskLevel riskLevel) { this.riskLevel = riskLevel; }
+    
+    public String getNotes() { return notes; }
+    public void setNotes(String notes) { this.notes = notes; }
+}
+
+// File: src/main/java/com/networkdiscovery/dto/TriageFilter.java
+package com.networkdiscovery.dto;
+
+import com.networkdiscovery.entity.DeviceStatus;
+import com.networkdiscovery.entity.RiskLevel;
+import java.time.LocalDateTime;
+
+public class TriageFilter {
+    private RiskLevel riskLevel;
+    private String vendor;
+    private String deviceType;
+    private DeviceStatus status;
+    private Boolean isInvestigated;
+    private LocalDateTime seenSince;
+    
+    public boolean isEmpty() {
+        return riskLevel == null && vendor == null && deviceType == null
+                && status == null && isInvestigated == null && seenSince == null;
+    }
+    
+    public RiskLevel getRiskLevel() { return riskLevel; }
+    public void setRiskLevel(RiskLevel riskLevel) { this.riskLevel = riskLevel; }
+    
+    public String getVendor() { return vendor; }
+    public void setVendor(String vendor) { this.vendor = vendor; }
+    
+    public String getDeviceType() { return deviceType; }
+    public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
+    
+    public DeviceStatus getStatus() { return status; }
+    public void setStatus(DeviceStatus status) { this.status = status; }
+    
+    public Boolean getIsInvestigated() { return isInvestigated; }
+    public void setIsInvestigated(Boolean isInvestigated) { this.isInvestigated = isInvestigated; }
+    
+    public LocalDateTime getSeenSince() { return seenSince; }
+    public void setSeenSince(LocalDateTime seenSince) { this.seenSince = seenSince; }
+}
+
+// File: src/main/java/com/networkdiscovery/dto/UnauthorizedDeviceSummary.java
+package com.networkdiscovery.dto;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.networkdiscovery.entity.DeviceStatus;
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import java.time.LocalDateTime;
+
+/**
+ * Columns the device tables show, read straight from a JPQL constructor
+ * expression. Notes, IPv6 addresses and the version stay on the entity,
+ * which GET /api/unauthorized-devices/{id} still returns.
+ */
+@JsonFilter(FieldSelection.FILTER_ID)
+public class UnauthorizedDeviceSummary {
+    private final Long id;
+    private final IpAddress ipAddress;
+    private final MacAddress macAddress;
+    private final String hostname;
+    private final String vendor;
+    private final String deviceType;
+    private final DeviceStatus status;
+    private final RiskLevel riskLevel;
+    private final LocalDateTime firstDetected;
+    private final LocalDateTime lastSeen;
+    private final Integer detectionCount;
+    private final Boolean isInvestigated;
+    
+    public UnauthorizedDeviceSummary(Long id, IpAddress ipAddress, MacAddress macAddress, String hostname,
+                                     String vendor, String deviceType, DeviceStatus status, RiskLevel riskLevel,
+                                     LocalDateTime firstDetected, LocalDateTime lastSeen,
+                                     Integer detectionCount, Boolean isInvestigated) {
+        this.id = id;
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+        this.hostname = hostname;
+        this.vendor = vendor;
+        this.deviceType = deviceType;
+        this.status = status;
+        this.riskLevel = riskLevel;
+        this.firstDetected = firstDetected;
+        this.lastSeen = lastSeen;
+        this.detectionCount = detectionCount;
+        this.isInvestigated = isInvestigated;
+    }
+    
+    public Long getId() { return id; }
+    public IpAddress getIpAddress() { return ipAddress; }
+    public MacAddress getMacAddress() { return macAddress; }
+    public String getHostname() { return hostname; }
+    public String getVendor() { return vendor; }
+    public String getDeviceType() { return deviceType; }
+    public DeviceStatus getStatus() { return status; }
+    public RiskLevel getRiskLevel() { return riskLevel; }
+    public LocalDateTime getFirstDetected() { return firstDetected; }
+    public LocalDateTime getLastSeen() { return lastSeen; }
+    public Integer getDetectionCount() { return detectionCount; }
+    public Boolean getIsInvestigated() { return isInvestigated; }
+}
+
+// File: src/main/java/com/networkdiscovery/dto/AuthorizedDeviceSummary.java
+package com.networkdiscovery.dto;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+
+// Columns the device tables show; description and audit fields stay on the entity
+@JsonFilter(FieldSelection.FILTER_ID)
+public class AuthorizedDeviceSummary {
+    private final Long id;
+    private final IpAddress ipAddress;
+    private final MacAddress macAddress;
+    private final String deviceName;
+    private final String deviceType;
+    private final String owner;
+    private final String department;
+    private final Boolean isActive;
+    
+    public AuthorizedDeviceSummary(Long id, IpAddress ipAddress, MacAddress macAddress, String deviceName,
+                                   String deviceType, String owner, String department, Boolean isActive) {
+        this.id = id;
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+        this.deviceName = deviceName;
+        this.deviceType = deviceType;
+        this.owner = owner;
+        this.department = department;
+        this.isActive = isActive;
+    }
+    
+    public Long getId() { return id; }
+    public IpAddress getIpAddress() { return ipAddress; }
+    public MacAddress getMacAddress() { return macAddress; }
+    public String getDeviceName() { return deviceName; }
+    public String getDeviceType() { return deviceType; }
+    public String getOwner() { return owner; }
+    public String getDepartment() { return department; }
+    public Boolean getIsActive() { return isActive; }
+}
+
+// File: src/main/java/com/networkdiscovery/dto/FieldSelection.java
+package com.networkdiscovery.dto;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Sparse fieldsets for the summary DTOs: {@code ?fields=id,macAddress,riskLevel}
+ * serializes only those properties. Unknown names are ignored, no selector
+ * means every property.
+ */
+public final class FieldSelection {
+    
+    public static final String FILTER_ID = "fields";
+    
+    // Installed on every ObjectMapper so summaries serialize in full outside a selection
+    public static final FilterProvider SERIALIZE_ALL =
+            new SimpleFilterProvider().addFilter(FILTER_ID, SimpleBeanPropertyFilter.serializeAll());
+    
+    private FieldSelection() {
+    }
+    
+    public static MappingJacksonValue select(Object body, String fields) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        Set<String> names = parse(fields);
+        if (!names.isEmpty()) {
+            value.setFilters(new SimpleFilterProvider()
+                    .addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(names)));
+        }
+        return value;
+    }
+    
+    static Set<String> parse(String fields) {
+        Set<String> names = new LinkedHashSet<>();
+        if (fields != null) {
+            for (String name : fields.split(",")) {
+                if (!name.isBlank()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/search/InvertedIndex.java
+package com.networkdiscovery.search;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Term -> id postings per field. Terms are kept in sorted maps so prefix
+ * queries are a range scan over the matching terms only.
+ */
+public class InvertedIndex {
+    
+    public enum Field { TYPE, DEPARTMENT, VENDOR, HOSTNAME, MAC, IP }
+    
+    private final Map<Field, TreeMap<String, Set<Long>>> postings = new EnumMap<>(Field.class);
+    private final Map<Long, Map<Field, Set<String>>> documents = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    public InvertedIndex() {
+        for (Field field : Field.values()) {
+            postings.put(field, new TreeMap<>());
+        }
+    }
+    
+    public void put(Long id, Map<Field, Set<String>> terms) {
+        lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+            documents.put(id, terms);
+            terms.forEach((field, values) -> {
+                for (String term : values) {
+                    postings.get(field).computeIfAbsent(term, t -> new HashSet<>()).add(id);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            documents.clear();
+            postings.values().forEach(Map::clear);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Intersects the given criteria. A criterion is either an exact term or,
+     * when {@code prefix} is set, every term starting with it.
+     */
+    public List<Long> search(List<Criterion> criteria, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Set<Long>> matches = new ArrayList<>(criteria.size());
+            for (Criterion criterion : criteria) {
+                Set<Long> match = lookup(criterion);
+                if (match.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                matches.add(match);
+            }
+            
+            if (matches.isEmpty()) {
+                return Collections.emptyList();
+            }
+            
+            // Drive the intersection from the most selective criterion
+            matches.sort(Comparator.comparingInt(Set::size));
+            List<Long> result = new ArrayList<>();
+            for (Long id : matches.get(0)) {
+                boolean all = true;
+                for (int i = 1; i < matches.size() && all; i++) {
+                    all = matches.get(i).contains(id);
+                }
+                if (all) {
+                    result.add(id);
+                }
+            }
+            Collections.sort(result);
+            return result.size() > limit ? result.subList(0, limit) : result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private Set<Long> lookup(Criterion criterion) {
+        TreeMap<String, Set<Long>> terms = postings.get(criterion.field);
+        if (!criterion.prefix) {
+            return terms.getOrDefault(criterion.value, Collections.emptySet());
+        }
+        
+        SortedMap<String, Set<Long>> range = terms.subMap(criterion.value, criterion.value + Character.MAX_VALUE);
+        if (range.size() == 1) {
+            return range.values().iterator().next();
+        }
+        Set<Long> union = new HashSet<>();
+        range.values().forEach(union::addAll);
+        return union;
+    }
+    
+    private void removeUnlocked(Long id) {
+        Map<Field, Set<String>> previous = documents.remove(id);
+        if (previous == null) return;
+        
+        previous.forEach((field, values) -> {
+            TreeMap<String, Set<Long>> terms = postings.get(field);
+            for (String term : values) {
+                Set<Long> ids = terms.get(term);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                    terms.remove(term);
+                }
+            }
+        });
+    }
+    
+    public static class Criterion {
+        private final Field field;
+        private final String value;
+        private final boolean prefix;
+        
+        public Criterion(Field field, String value, boolean prefix) {
+            this.field = field;
+            this.value = value;
+            this.prefix = prefix;
+        }
+        
+        public Field getField() { return field; }
+        public String getValue() { return value; }
+        public boolean isPrefix() { return prefix; }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/search/DeviceQuery.java
+package com.networkdiscovery.search;
+
+public class DeviceQuery {
+    // type, department and vendor match exactly unless they end with '*';
+    // hostname, mac and ip are always prefix matches
+    private String type;
+    private String department;
+    private String vendor;
+    private String hostname;
+    private String mac;
+    private String ip;
+    private int limit = 1000;
+    
+    public boolean isEmpty() {
+        return type == null && department == null && vendor == null
+                && hostname == null && mac == null && ip == null;
+    }
+    
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    
+    public String getDepartment() { return department; }
+    public void setDepartment(String department) { this.department = department; }
+    
+    public String getVendor() { return vendor; }
+    public void setVendor(String vendor) { this.vendor = vendor; }
+    
+    public String getHostname() { return hostname; }
+    public void setHostname(String hostname) { this.hostname = hostname; }
+    
+    public String getMac() { return mac; }
+    public void setMac(String mac) { this.mac = mac; }
+    
+    public String getIp() { return ip; }
+    public void setIp(String ip) { this.ip = ip; }
+    
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) { this.limit = limit; }
+}
+
+// File: src/main/java/com/networkdiscovery/search/DeviceSearchIndex.java
+package com.networkdiscovery.search;
+
+import com.networkdiscovery.entity.AuthorizedDevice;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.repository.AuthorizedDeviceRepository;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import com.networkdiscovery.search.InvertedIndex.Criterion;
+import com.networkdiscovery.search.InvertedIndex.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import java.util.*;
+
+/**
+ * In-memory inverted index over both device tables. Built once at startup and
+ * kept current from {@link DeviceChangeEvent}s, so combined and prefix searches
+ * never reach the database.
+ */
+@Service
+public class DeviceSearchIndex {
+    
+    private static final Logger log = LoggerFactory.getLogger(DeviceSearchIndex.class);
+    
+    // Oracle rejects IN lists longer than 1000 elements
+    private static final int CHUNK_SIZE = 500;
+    
+    @Autowired
+    private AuthorizedDeviceRepository authorizedRepository;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository unauthorizedRepository;
+    
+    private final InvertedIndex authorized = new InvertedIndex();
+    private final InvertedIndex unauthorized = new InvertedIndex();
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        authorized.clear();
+        unauthorized.clear();
+        authorizedRepository.findAll().forEach(this::index);
+        unauthorizedRepository.findAll().forEach(this::index);
+        log.info("Search index built: {} authorized, {} unauthorized devices in {} ms",
+                authorized.size(), unauthorized.size(), System.currentTimeMillis() - start);
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceChange(DeviceChangeEvent event) {
+        if (event.getChangeType() == ChangeType.DELETED) {
+            InvertedIndex target = indexFor(event.getKind());
+            event.getIds().forEach(target::remove);
+            return;
+        }
+        
+        List<Long> ids = event.getIds();
+        Set<Long> missing = new HashSet<>(ids);
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+            if (event.getKind() == DeviceKind.AUTHORIZED) {
+                for (AuthorizedDevice device : authorizedRepository.findAllById(chunk)) {
+                    index(device);
+                    missing.remove(device.getId());
+                }
+            } else {
+                for (UnauthorizedDevice device : unauthorizedRepository.findAllById(chunk)) {
+                    index(device);
+                    missing.remove(device.getId());
+                }
+            }
+        }
+        missing.forEach(indexFor(event.getKind())::remove);
+    }
+    
+    public List<Long> search(DeviceKind kind, DeviceQuery query) {
+        List<Criterion> criteria = new ArrayList<>();
+        addTermCriterion(criteria, Field.TYPE, query.getType());
+        addTermCriterion(criteria, Field.DEPARTMENT, query.getDepartment());
+        addTermCriterion(criteria, Field.VENDOR, query.getVendor());
+        if (query.getHostname() != null) {
+            criteria.add(new Criterion(Field.HOSTNAME, normalize(query.getHostname()), true));
+        }
+        if (query.getMac() != null) {
+            criteria.add(new Criterion(Field.MAC, macTerm(query.getMac()), true));
+        }
+        if (query.getIp() != null) {
+            criteria.add(new Criterion(Field.IP, query.getIp().trim(), true));
+        }
+        return indexFor(kind).search(criteria, query.getLimit());
+    }
+    
+    /**
+     * In-memory equivalent of existsByIpAddress || existsByMacAddress on the
+     * authorized table, for callers that must not block on the database.
+     */
+    public boolean isAuthorized(IpAddress ipAddress, MacAddress macAddress) {
+        return (macAddress != null && !authorized.search(Collections.singletonList(
+                    new Criterion(Field.MAC, macTerm(macAddress.toString()), false)), 1).isEmpty())
+            || (ipAddress != null && !authorized.search(Collections.singletonList(
+                    new Criterion(Field.IP, ipAddress.toString(), false)), 1).isEmpty());
+    }
+    
+    // Whether an unauthorized device row is known for this MAC; may lag the database briefly
+    public boolean isKnownUnauthorized(MacAddress macAddress) {
+        return !unauthorized.search(Collections.singletonList(
+                new Criterion(Field.MAC, macTerm(macAddress.toString()), false)), 1).isEmpty();
+    }
+    
+    public void index(AuthorizedDevice device) {
+        if (device.getId() == null) return;
+        Map<Field, Set<String>> terms = new EnumMap<>(Field.class);
+        addTerm(terms, Field.TYPE, normalize(device.getDeviceType()));
+        addTerm(terms, Field.DEPARTMENT, normalize(device.getDepartment()));
+        addHostnameTerms(terms, device.getDeviceName());
+        addTerm(terms, Field.MAC, macTerm(Objects.toString(device.getMacAddress(), null)));
+        addTerm(terms, Field.IP, Objects.toString(device.getIpAddress(), null));
+        authorized.put(device.getId(), terms);
+    }
+    
+    public void index(UnauthorizedDevice device) {
+        if (device.getId() == null) return;
+        Map<Field, Set<String>> terms = new EnumMap<>(Field.class);
+        addTerm(terms, Field.TYPE, normalize(device.getDeviceType()));
+        addTerm(terms, Field.VENDOR, normalize(device.getVendor()));
+        addHostnameTerms(terms, device.getHostname());
+        addTerm(terms, Field.MAC, macTerm(Objects.toString(device.getMacAddress(), null)));
+        addTerm(terms, Field.IP, Objects.toString(device.getIpAddress(), null));
+        if (device.getIpv6Addresses() != null) {
+            device.getIpv6Addresses().toList().forEach(address -> addTerm(terms, Field.IP, address.toString()));
+        }
+        unauthorized.put(device.getId(), terms);
+    }
+    
+    private InvertedIndex indexFor(DeviceKind kind) {
+        return kind == DeviceKind.AUTHORIZED ? authorized : unauthorized;
+    }
+    
+    private void addTermCriterion(List<Criterion> criteria, Field field, String value) {
+        if (value == null) return;
+        String term = normalize(value);
+        boolean prefix = term.endsWith("*");
+        criteria.add(new Criterion(field, prefix ? term.substring(0, term.length() - 1) : term, prefix));
+    }
+    
+    private void addHostnameTerms(Map<Field, Set<String>> terms, String hostname) {
+        String name = normalize(hostname);
+        if (name == null) return;
+        addTerm(terms, Field.HOSTNAME, name);
+        for (String token : name.split("[.\\-_\\s]+")) {
+            addTerm(terms, Field.HOSTNAME, token);
+        }
+    }
+    
+    private void addTerm(Map<Field, Set<String>> terms, Field field, String term) {
+        if (term == null || term.isEmpty()) return;
+        terms.computeIfAbsent(field, f -> new HashSet<>()).add(term);
+    }
+    
+    private String normalize(String value) {
+        return value == null ? null : value.trim().toLowerCase();
+    }
+    
+    // "AA-BB-CC", "aa:bb:cc" and "aabbcc" all index and query the same way
+    private String macTerm(String mac) {
+        return mac == null ? null : mac.replaceAll("[^0-9a-fA-F]", "").toLowerCase();
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/sync/ChangeTracked.java
+package com.networkdiscovery.sync;
+
+// Rows stamped with a change version by ChangeVersionListener
+public interface ChangeTracked {
+    void setChangeVersion(Long changeVersion);
+}
+
+// File: src/main/java/com/networkdiscovery/sync/ChangeVersionListener.java
+package com.networkdiscovery.sync;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Stamps each inserted or updated row with a fresh change version. Hibernate
+ * creates listeners through Spring's bean container, which injects the
+ * allocator. Bulk JPQL updates skip entity callbacks and set the column
+ * themselves.
+ */
+public class ChangeVersionListener {
+    
+    @Autowired
+    private ChangeVersions changeVersions;
+    
+    @PrePersist
+    @PreUpdate
+    public void stamp(Object entity) {
+        ((ChangeTracked) entity).setChangeVersion(changeVersions.next());
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/sync/ChangeVersions.java
+package com.networkdiscovery.sync;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.util.TreeSet;
+
+/**
+ * Allocates the monotonically increasing change versions delta sync orders
+ * rows by. Versions are handed out in order but may commit out of order, so
+ * readers only get the watermark below the oldest version whose transaction
+ * is still open: a client resuming from it cannot miss a row that commits
+ * late. Versions live in this JVM, seeded from the tables on first use, so
+ * writers outside this application are not versioned.
+ */
+@Component
+public class ChangeVersions {
+    
+    private static final String[] VERSIONED_TABLES = {"authorized_devices", "unauthorized_devices", "device_tombstones"};
+    
+    // Not a repository: listeners are built while the EntityManagerFactory is, repositories need it finished
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    private final TreeSet<Long> open = new TreeSet<>();
+    private long last = -1;
+    
+    /**
+     * The next version. Call it inside the transaction that writes it; the
+     * version counts as open until that transaction completes.
+     */
+    public synchronized long next() {
+        seed();
+        long version = ++last;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            open.add(version);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    close(version);
+                }
+            });
+        }
+        return version;
+    }
+    
+    // Every version at or below this is committed or rolled back
+    public synchronized long watermark() {
+        seed();
+        return open.isEmpty() ? last : open.first() - 1;
+    }
+    
+    private synchronized void close(long version) {
+        open.remove(version);
+    }
+    
+    private void seed() {
+        if (last >= 0) {
+            return;
+        }
+        long max = 0;
+        for (String table : VERSIONED_TABLES) {
+            Long version = jdbcTemplate.queryForObject("SELECT MAX(change_version) FROM " + table, Long.class);
+            if (version != null) {
+                max = Math.max(max, version);
+            }
+        }
+        last = max;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/sync/DeviceSyncService.java
+package com.networkdiscovery.sync;
+
+import com.networkdiscovery.dto.AuthorizedDeviceSummary;
+import com.networkdiscovery.entity.DeviceTombstone;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.repository.AuthorizedDeviceRepository;
+import com.networkdiscovery.repository.DeviceTombstoneRepository;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta sync for the device lists. A client passes the version from its last
+ * response and gets the rows created, updated or deleted since, read off the
+ * indexed change_version column, so a poll costs what changed rather than
+ * the table size. No version (-1) means a full sync.
+ * <p>
+ * Tombstones are kept for tombstone-retention-days. The purge leaves the
+ * newest expired one behind as the horizon: a client whose version is older
+ * may have missed purged deletes, so it gets a full sync flagged as a resync.
+ */
+@Service
+public class DeviceSyncService {
+    
+    private static final Logger log = LoggerFactory.getLogger(DeviceSyncService.class);
+    
+    public static final long FULL_SYNC = -1;
+    
+    @Value("${network.sync.tombstone-retention-days:30}")
+    private long tombstoneRetentionDays;
+    
+    @Autowired
+    private ChangeVersions changeVersions;
+    
+    @Autowired
+    private AuthorizedDeviceRepository authorizedRepository;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository unauthorizedRepository;
+    
+    @Autowired
+    private DeviceTombstoneRepository tombstoneRepository;
+    
+    public Map<String, Object> unauthorizedChanges(long since) {
+        long until = changeVersions.watermark();
+        Long horizon = tombstoneRepository.findOldestVersionDeletedBefore(retentionCutoff());
+        boolean resync = needsResync(since, until) || (since != FULL_SYNC && horizon != null && since < horizon);
+        long from = resync ? FULL_SYNC : Math.max(since, FULL_SYNC);
+        Map<String, Object> delta = newDelta(from, until, resync);
+        delta.put("changed", unauthorizedRepository.findSummariesChangedBetween(from, until));
+        delta.put("deleted", tombstoneRepository.findDeviceIdsDeletedBetween(DeviceKind.UNAUTHORIZED, from, until));
+        return delta;
+    }
+    
+    // Authorized devices are removed by deactivating them, so inactive rows are reported as deleted
+    public Map<String, Object> authorizedChanges(long since) {
+        long until = changeVersions.watermark();
+        boolean resync = needsResync(since, until);
+        long from = resync ? FULL_SYNC : Math.max(since, FULL_SYNC);
+        List<AuthorizedDeviceSummary> changed = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        for (AuthorizedDeviceSummary device : authorizedRepository.findSummariesChangedBetween(from, until)) {
+            if (Boolean.TRUE.equals(device.getIsActive())) {
+                changed.add(device);
+            } else {
+                deleted.add(device.getId());
+            }
+        }
+        Map<String, Object> delta = newDelta(from, until, resync);
+        delta.put("changed", changed);
+        delta.put("deleted", deleted);
+        return delta;
+    }
+    
+    // The tombstone commits with the delete, so no client can miss it; an id already gone gets none
+    @Transactional
+    public boolean deleteUnauthorized(Long id) {
+        if (unauthorizedRepository.deleteIfExists(id) == 0) {
+            return false;
+        }
+        tombstoneRepository.save(new DeviceTombstone(DeviceKind.UNAUTHORIZED, id));
+        return true;
+    }
+    
+    @Scheduled(fixedDelay = 3600000)
+    public void purgeTombstones() {
+        LocalDateTime cutoff = retentionCutoff();
+        Long horizon = tombstoneRepository.findNewestVersionDeletedBefore(cutoff);
+        if (horizon == null) {
+            return;
+        }
+        int purged = tombstoneRepository.deleteDeletedBefore(cutoff, horizon);
+        if (purged > 0) {
+            log.info("Purged {} tombstones older than {} days, clients before version {} resync",
+                    purged, tombstoneRetentionDays, horizon);
+        }
+    }
+    
+    private LocalDateTime retentionCutoff() {
+        return LocalDateTime.now().minusDays(tombstoneRetentionDays);
+    }
+    
+    /**
+     * A client ahead of the server, e.g. after a database restore, cannot be
+     * caught up incrementally; it gets a full sync flagged as a resync and
+     * should replace its copy.
+     */
+    private static boolean needsResync(long since, long until) {
+        return since > until;
+    }
+    
+    private static Map<String, Object> newDelta(long from, long until, boolean resync) {
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("since", from);
+        delta.put("version", until);
+        delta.put("resync", resync);
+        return delta;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/observation/Observation.java
+package com.networkdiscovery.observation;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * One raw sighting of a MAC/IP pair, as the scanner saw it. Passive sources
+ * may attach the hostname and vendor class a device announced about itself;
+ * those hints are not kept in the {@link ObservationLog}.
+ */
+public class Observation {
+    
+    public static final int NO_RTT = -1;
+    
+    private final long timestamp;
+    private final IpAddress ipAddress;
+    private final MacAddress macAddress;
+    private final boolean reachable;
+    private final int rttMicros;
+    private final String hostname;
+    private final String vendorClass;
+    
+    public Observation(long timestamp, IpAddress ipAddress, MacAddress macAddress, boolean reachable, int rttMicros) {
+        this(timestamp, ipAddress, macAddress, reachable, rttMicros, null, null);
+    }
+    
+    public Observation(long timestamp, IpAddress ipAddress, MacAddress macAddress, boolean reachable, int rttMicros,
+                       String hostname, String vendorClass) {
+        this.timestamp = timestamp;
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+        this.reachable = reachable;
+        this.rttMicros = rttMicros;
+        this.hostname = hostname;
+        this.vendorClass = vendorClass;
+    }
+    
+    public long getTimestamp() { return timestamp; }
+    public IpAddress getIpAddress() { return ipAddress; }
+    public MacAddress getMacAddress() { return macAddress; }
+    public boolean isReachable() { return reachable; }
+    public int getRttMicros() { return rttMicros; }
+    public String getHostname() { return hostname; }
+    public String getVendorClass() { return vendorClass; }
+    
+    public LocalDateTime getObservedAt() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/observation/ObservationLog.java
+package com.networkdiscovery.observation;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented, memory-mapped write-ahead log of observations.
+ *
+ * <p>Records are fixed size and addressed by a global sequence number, so a
+ * reader only needs its last position. Segment files are named after the
+ * sequence of their first record. Named cursors (one per consumer) record how
+ * far each consumer got; segments every cursor has passed are deleted, apart
+ * from the newest {@code retain-segments} kept for replay.
+ *
+ * <pre>
+ * record := timestamp:8 mac:8 ip:16 rttMicros:4 flags:4 crc32:4   (44 bytes, big-endian)
+ * </pre>
+ */
+@Component
+@ConditionalOnProperty(name = "network.observation-log.enabled", havingValue = "true", matchIfMissing = true)
+public class ObservationLog {
+    
+    private static final Logger log = LoggerFactory.getLogger(ObservationLog.class);
+    
+    // Sequence of observations that never went through a log, e.g. from a capture file
+    public static final long NO_SEQUENCE = -1;
+    
+    static final int RECORD_SIZE = 44;
+    private static final int CRC_OFFSET = 40;
+    
+    private static final int FLAG_WRITTEN = 1;
+    private static final int FLAG_REACHABLE = 1 << 1;
+    private static final int FLAG_IPV6 = 1 << 2;
+    
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_SUFFIX = ".cursor";
+    
+    @Value("${network.observation-log.dir:data/observations}")
+    private String directory;
+    
+    @Value("${network.observation-log.segment-records:1048576}")
+    private int segmentRecords;
+    
+    @Value("${network.observation-log.retain-segments:4}")
+    private int retainSegments;
+    
+    @Value("${network.observation-log.fsync:true}")
+    private boolean fsync;
+    
+    private Path dir;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<String, Long> cursors = new HashMap<>();
+    private volatile long writeSequence;
+    
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    long first = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(first, Segment.open(file, first, segmentRecords));
+                } else if (name.endsWith(CURSOR_SUFFIX)) {
+                    cursors.put(name.substring(0, name.length() - CURSOR_SUFFIX.length()),
+                            ByteBuffer.wrap(Files.readAllBytes(file)).getLong());
+                }
+            }
+        }
+        
+        if (segments.isEmpty()) {
+            segments.put(0L, Segment.open(segmentPath(0), 0, segmentRecords));
+        }
+        
+        // Recover the write position: the first record that is unwritten or torn ends the log
+        Segment last = segments.lastEntry().getValue();
+        int count = 0;
+        while (count < last.capacity && isValid(last.buffer, count * RECORD_SIZE)) {
+            count++;
+        }
+        writeSequence = last.firstSequence + count;
+        log.info("Observation log opened at {}: {} segments, write sequence {}", dir, segments.size(), writeSequence);
+    }
+    
+    @PreDestroy
+    public synchronized void close() {
+        if (fsync) {
+            segments.values().forEach(segment -> segment.buffer.force());
+        }
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close observation segment {}", segment.path, e);
+            }
+        }
+    }
+    
+    /**
+     * Appends observations and returns the sequence number after the last one.
+     */
+    public synchronized long append(Collection<Observation> observations) {
+        for (Observation observation : observations) {
+            Segment segment = segments.lastEntry().getValue();
+            int slot = (int) (writeSequence - segment.firstSequence);
+            if (slot == segment.capacity) {
+                if (fsync) segment.buffer.force();
+                segment = roll();
+                slot = 0;
+            }
+            encode(observation, segment.buffer, slot * RECORD_SIZE);
+            writeSequence++;
+        }
+        if (fsync && !observations.isEmpty()) {
+            segments.lastEntry().getValue().buffer.force();
+        }
+        return writeSequence;
+    }
+    
+    /**
+     * Reads up to {@code max} observations starting at {@code fromSequence}.
+     * Positions older than the oldest retained segment start at that segment.
+     */
+    public synchronized List<Observation> read(long fromSequence, int max) {
+        long sequence = Math.max(fromSequence, segments.firstKey());
+        long end = Math.min(writeSequence, sequence + max);
+        List<Observation> result = new ArrayList<>((int) Math.max(0, end - sequence));
+        
+        while (sequence < end) {
+            Segment segment = segments.floorEntry(sequence).getValue();
+            long segmentEnd = Math.min(end, segment.firstSequence + segment.capacity);
+            for (; sequence < segmentEnd; sequence++) {
+                result.add(decode(segment.buffer, (int) (sequence - segment.firstSequence) * RECORD_SIZE));
+            }
+        }
+        return result;
+    }
+    
+    public long getWriteSequence() { return writeSequence; }
+    
+    public synchronized long getFirstSequence() { return segments.firstKey(); }
+    
+    public synchronized long readCursor(String name) {
+        return cursors.getOrDefault(name, 0L);
+    }
+    
+    /**
+     * Waits until consumer {@code name} has committed a position at or past
+     * {@code sequence}. Returns false if it did not within the timeout.
+     */
+    public synchronized boolean awaitCursor(String name, long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (readCursor(name) < sequence) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+    
+    /**
+     * Starts numbering at {@code sequence} if the log holds no records yet, so
+     * a wiped log directory does not reuse sequences a consumer already saw.
+     */
+    public synchronized void skipTo(long sequence) {
+        if (segments.size() > 1 || writeSequence != segments.firstKey() || sequence <= writeSequence) {
+            return;
+        }
+        Segment empty = segments.pollFirstEntry().getValue();
+        try {
+            empty.channel.close();
+            Files.deleteIfExists(empty.path);
+            segments.put(sequence, Segment.open(segmentPath(sequence), sequence, segmentRecords));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create observation segment", e);
+        }
+        writeSequence = sequence;
+        log.info("Empty observation log now starts at sequence {}", sequence);
+    }
+    
+    /**
+     * Durably records that consumer {@code name} has processed everything
+     * before {@code sequence}, then drops segments no consumer still needs.
+     */
+    public synchronized void commitCursor(String name, long sequence) {
+        Path target = dir.resolve(name + CURSOR_SUFFIX);
+        Path temp = dir.resolve(name + CURSOR_SUFFIX + ".tmp");
+        try {
+            Files.write(temp, ByteBuffer.allocate(8).putLong(sequence).array());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write cursor " + name, e);
+        }
+        cursors.put(name, sequence);
+        notifyAll();
+        trim();
+    }
+    
+    private void trim() {
+        long lowest = cursors.values().stream().mapToLong(Long::longValue).min().orElse(0L);
+        while (segments.size() > retainSegments) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest.firstSequence + oldest.capacity > lowest) break;
+            segments.pollFirstEntry();
+            try {
+                oldest.channel.close();
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                log.warn("Failed to delete observation segment {}", oldest.path, e);
+            }
+        }
+    }
+    
+    private Segment roll() {
+        try {
+            Segment segment = Segment.open(segmentPath(writeSequence), writeSequence, segmentRecords);
+            segments.put(writeSequence, segment);
+            trim();
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create observation segment", e);
+        }
+    }
+    
+    private Path segmentPath(long firstSequence) {
+        return dir.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+    }
+    
+    /**
+     * Packs observations into log records for shipping elsewhere, e.g. from an
+     * edge sensor to the central instance. Hints outside the record format are
+     * dropped, as they are when appending.
+     */
+    public static byte[] encodeBatch(List<Observation> observations) {
+        ByteBuffer buffer = ByteBuffer.allocate(observations.size() * RECORD_SIZE);
+        for (int i = 0; i < observations.size(); i++) {
+            encode(observations.get(i), buffer, i * RECORD_SIZE);
+        }
+        return buffer.array();
+    }
+    
+    // Rejects the whole batch if any record is torn or corrupt
+    public static List<Observation> decodeBatch(byte[] records) {
+        if (records.length % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Batch length " + records.length + " is not a multiple of " + RECORD_SIZE);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        List<Observation> observations = new ArrayList<>(records.length / RECORD_SIZE);
+        for (int position = 0; position < records.length; position += RECORD_SIZE) {
+            if (!isValid(buffer, position)) {
+                throw new IllegalArgumentException("Corrupt record at offset " + position);
+            }
+            observations.add(decode(buffer, position));
+        }
+        return observations;
+    }
+    
+    private static void encode(Observation observation, ByteBuffer buffer, int position) {
+        byte[] ip = observation.getIpAddress().toBytes();
+        int flags = FLAG_WRITTEN
+                | (observation.isReachable() ? FLAG_REACHABLE : 0)
+                | (ip.length == 16 ? FLAG_IPV6 : 0);
+        
+        buffer.putLong(position, observation.getTimestamp());
+        buffer.putLong(position + 8, observation.getMacAddress().toLong());
+        for (int i = 0; i < 16; i++) {
+            buffer.put(position + 16 + i, i < ip.length ? ip[i] : 0);
+        }
+        buffer.putInt(position + 32, observation.getRttMicros());
+        buffer.putInt(position + 36, flags);
+        buffer.putInt(position + CRC_OFFSET, checksum(buffer, position));
+    }
+    
+    private static Observation decode(ByteBuffer buffer, int position) {
+        int flags = buffer.getInt(position + 36);
+        byte[] ip = new byte[(flags & FLAG_IPV6) != 0 ? 16 : 4];
+        for (int i = 0; i < ip.length; i++) {
+            ip[i] = buffer.get(position + 16 + i);
+        }
+        return new Observation(buffer.getLong(position), IpAddress.of(ip),
+                MacAddress.of(buffer.getLong(position + 8)),
+                (flags & FLAG_REACHABLE) != 0, buffer.getInt(position + 32));
+    }
+    
+    private static boolean isValid(ByteBuffer buffer, int position) {
+        return (buffer.getInt(position + 36) & FLAG_WRITTEN) != 0
+                && buffer.getInt(position + CRC_OFFSET) == checksum(buffer, position);
+    }
+    
+    private static int checksum(ByteBuffer buffer, int position) {
+        CRC32 crc = new CRC32();
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + CRC_OFFSET).position(position);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+    
+    private static class Segment {
+        final Path path;
+        final long firstSequence;
+        final int capacity;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        
+        private Segment(Path path, long firstSequence, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.capacity = capacity;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+        
+        static Segment open(Path path, long firstSequence, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Existing segments keep the size they were created with
+            if (channel.size() > 0) {
+                capacity = (int) (channel.size() / RECORD_SIZE);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+            return new Segment(path, firstSequence, capacity, channel, buffer);
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/observation/ObservationApplier.java
+package com.networkdiscovery.observation;
+
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import com.networkdiscovery.service.NetworkScannerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ * Folds the observation log into the device tables in batches. The cursor is
+ * only advanced after a batch is saved, so a database outage just delays the
+ * apply; nothing observed in the meantime is lost. A batch that failed part-way
+ * is applied again in full; each device row records the last log sequence it
+ * absorbed, so devices the batch already reached are skipped.
+ */
+@Component
+@ConditionalOnProperty(name = "network.observation-log.enabled", havingValue = "true", matchIfMissing = true)
+public class ObservationApplier {
+    
+    private static final Logger log = LoggerFactory.getLogger(ObservationApplier.class);
+    
+    public static final String CURSOR = "db-applier";
+    
+    @Autowired
+    private ObservationLog observationLog;
+    
+    @Autowired
+    private NetworkScannerService scannerService;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository unauthorizedRepository;
+    
+    @Value("${network.observation-log.apply-batch-size:5000}")
+    private int batchSize;
+    
+    @PostConstruct
+    public void init() {
+        Long applied = unauthorizedRepository.findMaxAppliedSequence();
+        if (applied != null) {
+            observationLog.skipTo(applied + 1);
+        }
+        observationLog.commitCursor(CURSOR, Math.max(observationLog.readCursor(CURSOR), observationLog.getFirstSequence()));
+    }
+    
+    @Scheduled(fixedDelayString = "${network.observation-log.apply-interval-ms:2000}")
+    public synchronized void applyPending() {
+        long position = observationLog.readCursor(CURSOR);
+        while (position < observationLog.getWriteSequence()) {
+            position = Math.max(position, observationLog.getFirstSequence());
+            List<Observation> batch = observationLog.read(position, batchSize);
+            if (batch.isEmpty()) break;
+            
+            try {
+                scannerService.applyObservations(batch, position);
+            } catch (Exception e) {
+                log.warn("Applying observations from sequence {} failed, will retry: {}", position, e.getMessage());
+                return;
+            }
+            
+            position += batch.size();
+            observationLog.commitCursor(CURSOR, position);
+        }
+    }
+    
+    /**
+     * Rewinds the applier so the retained log is folded into the tables again,
+     * e.g. to rebuild them after a restore.
+     */
+    public synchronized void replayFrom(long sequence) {
+        observationLog.commitCursor(CURSOR, Math.max(sequence, observationLog.getFirstSequence()));
+        log.info("Observation applier rewound to sequence {}", sequence);
+    }
+    
+    public long getAppliedSequence() {
+        return observationLog.readCursor(CURSOR);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/observation/ObservationIngestService.java
+package com.networkdiscovery.observation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Accepts observation batches forwarded by edge sensors into the local
+ * observation log, from where the applier folds them in like local scans.
+ * <p>
+ * Each sensor numbers its observations with its own log sequence; the next
+ * expected sequence per sensor is kept next to the log, so a batch resent
+ * after a lost response is not appended twice. The epoch changes when a
+ * sensor starts a fresh log, which resets its watermark. A crash between
+ * append and watermark update can still duplicate one batch, which only
+ * inflates detection counts.
+ * <p>
+ * Sensors that forward upstream do not accept batches themselves, and a
+ * batch carrying this instance's own sensor id is refused: either would
+ * loop observations back into the log they came from.
+ */
+@Service
+@ConditionalOnExpression("${network.observation-log.enabled:true} and '${network.upstream.url:}'.isEmpty()")
+public class ObservationIngestService {
+    
+    private static final Logger log = LoggerFactory.getLogger(ObservationIngestService.class);
+    
+    private static final Pattern SENSOR_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String WATERMARK_SUFFIX = ".watermark";
+    
+    @Autowired
+    private ObservationLog observationLog;
+    
+    @Value("${network.observation-log.dir:data/observations}")
+    private String directory;
+    
+    @Value("${network.upstream.sensor-id:}")
+    private String ownSensorId;
+    
+    private final Map<String, long[]> watermarks = new HashMap<>();
+    
+    public synchronized Map<String, Object> ingest(String sensorId, long epoch, long firstSequence, byte[] records) {
+        if (sensorId == null || !SENSOR_ID.matcher(sensorId).matches()) {
+            throw new IllegalArgumentException("Sensor id must be 1-64 letters, digits, '-' or '_'");
+        }
+        if (sensorId.equals(ownSensorId)) {
+            throw new IllegalStateException("Sensor " + sensorId + " is this instance; it is forwarding to itself");
+        }
+        List<Observation> batch = ObservationLog.decodeBatch(records);
+        
+        long[] watermark = watermark(sensorId);
+        boolean reset = watermark[0] != epoch;
+        if (reset) {
+            if (watermark[0] != 0) {
+                log.info("Sensor {} started a new observation log, resetting its watermark", sensorId);
+            }
+            watermark = new long[] {epoch, 0};
+        }
+        long expected = watermark[1];
+        long end = firstSequence + batch.size();
+        if (firstSequence > expected) {
+            log.warn("Sensor {} skipped sequences {} to {}", sensorId, expected, firstSequence);
+        }
+        
+        int skip = (int) Math.max(0, Math.min(batch.size(), expected - firstSequence));
+        if (skip < batch.size()) {
+            observationLog.append(batch.subList(skip, batch.size()));
+        }
+        if (reset || end > expected) {
+            saveWatermark(sensorId, new long[] {epoch, Math.max(end, expected)});
+        }
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("accepted", batch.size() - skip);
+        result.put("duplicates", skip);
+        result.put("nextSequence", Math.max(end, expected));
+        return result;
+    }
+    
+    private long[] watermark(String sensorId) {
+        return watermarks.computeIfAbsent(sensorId, id -> {
+            Path file = watermarkPath(id);
+            try {
+                if (!Files.exists(file)) {
+                    return new long[] {0, 0};
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+                return new long[] {buffer.getLong(), buffer.getLong()};
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read watermark of sensor " + id, e);
+            }
+        });
+    }
+    
+    private void saveWatermark(String sensorId, long[] watermark) {
+        Path target = watermarkPath(sensorId);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            Files.write(temp, ByteBuffer.allocate(16).putLong(watermark[0]).putLong(watermark[1]).array());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write watermark of sensor " + sensorId, e);
+        }
+        watermarks.put(sensorId, watermark);
+    }
+    
+    private Path watermarkPath(String sensorId) {
+        return Paths.get(directory, "sensors", sensorId + WATERMARK_SUFFIX);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/edge/UpstreamForwarder.java
+package com.networkdiscovery.edge;
+
+import com.networkdiscovery.observation.Observation;
+import com.networkdiscovery.observation.ObservationLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store-and-forward of an edge sensor's observations to the central
+ * instance. The observation log is the buffer: this forwarder reads it with
+ * its own cursor and only advances it once the central instance accepted a
+ * batch, so while upstream is unreachable observations simply accumulate.
+ * Retries back off exponentially. A backlog beyond max-backlog drops the
+ * oldest observations rather than filling the disk.
+ * <p>
+ * A 4xx answer is not retried: a batch refused as malformed (400) is
+ * skipped, and any other refusal (e.g. 401 or 403) stops forwarding until
+ * restart with the cursor left where it was. Both show in the status.
+ */
+@Component
+@ConditionalOnProperty(name = "network.upstream.url")
+public class UpstreamForwarder {
+    
+    private static final Logger log = LoggerFactory.getLogger(UpstreamForwarder.class);
+    
+    static final String CURSOR = "upstream-forwarder";
+    private static final String EPOCH_FILE = "upstream.epoch";
+    
+    @Autowired
+    private ObservationLog observationLog;
+    
+    @Autowired
+    private RestTemplateBuilder restTemplateBuilder;
+    
+    @Value("${network.upstream.url}")
+    private String upstreamUrl;
+    
+    @Value("${network.upstream.sensor-id}")
+    private String sensorId;
+    
+    @Value("${network.upstream.batch-size:5000}")
+    private int batchSize;
+    
+    @Value("${network.upstream.interval-ms:5000}")
+    private long intervalMillis;
+    
+    @Value("${network.upstream.max-backoff-ms:300000}")
+    private long maxBackoffMillis;
+    
+    @Value("${network.upstream.timeout-ms:10000}")
+    private long timeoutMillis;
+    
+    @Value("${network.upstream.max-backlog:1000000}")
+    private long maxBacklog;
+    
+    @Value("${network.observation-log.dir:data/observations}")
+    private String directory;
+    
+    private RestTemplate restTemplate;
+    private long epoch;
+    private long forwarded;
+    private long dropped;
+    private int failures;
+    private long nextAttempt;
+    private String lastError;
+    private long lastSuccess;
+    private long rejected;
+    private String lastRejection;
+    private boolean stopped;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        restTemplate = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(timeoutMillis))
+                .setReadTimeout(Duration.ofMillis(timeoutMillis))
+                .build();
+        epoch = loadEpoch();
+        // Registering the cursor keeps the log from trimming what was not forwarded yet
+        observationLog.commitCursor(CURSOR, Math.max(observationLog.readCursor(CURSOR), observationLog.getFirstSequence()));
+        log.info("Forwarding observations as sensor {} to {}", sensorId, upstreamUrl);
+    }
+    
+    @Scheduled(fixedDelayString = "${network.upstream.interval-ms:5000}")
+    public synchronized void forward() {
+        if (stopped || System.currentTimeMillis() < nextAttempt) {
+            return;
+        }
+        long position = Math.max(observationLog.readCursor(CURSOR), observationLog.getFirstSequence());
+        long backlog = observationLog.getWriteSequence() - position;
+        if (backlog > maxBacklog) {
+            dropped += backlog - maxBacklog;
+            position = observationLog.getWriteSequence() - maxBacklog;
+            observationLog.commitCursor(CURSOR, position);
+            log.warn("Upstream backlog over {} observations, dropped the oldest {} so far", maxBacklog, dropped);
+        }
+        
+        while (position < observationLog.getWriteSequence()) {
+            List<Observation> batch = observationLog.read(position, batchSize);
+            if (batch.isEmpty()) break;
+            position = Math.max(position, observationLog.getFirstSequence());
+            
+            try {
+                send(position, batch);
+            } catch (HttpClientErrorException e) {
+                // Upstream answered and refused; the same request would be refused again
+                lastRejection = e.getRawStatusCode() + " for observations from " + position + ": "
+                        + e.getResponseBodyAsString();
+                if (e.getRawStatusCode() != 400) {
+                    stopped = true;
+                    log.error("Upstream {} refused sensor {}, forwarding stopped until restart: {}",
+                            upstreamUrl, sensorId, lastRejection);
+                    return;
+                }
+                log.error("Upstream {} rejected {} observations, skipping them: {}", upstreamUrl, batch.size(), lastRejection);
+                rejected += batch.size();
+                position += batch.size();
+                observationLog.commitCursor(CURSOR, position);
+                continue;
+            } catch (RestClientException e) {
+                failures++;
+                long backoff = Math.min(maxBackoffMillis, intervalMillis << Math.min(failures, 16));
+                nextAttempt = System.currentTimeMillis() + backoff;
+                lastError = e.getMessage();
+                if (failures == 1) {
+                    log.warn("Upstream {} unreachable, buffering observations: {}", upstreamUrl, e.getMessage());
+                }
+                return;
+            }
+            
+            if (failures > 0) {
+                log.info("Upstream {} reachable again after {} failed attempts", upstreamUrl, failures);
+                failures = 0;
+                lastError = null;
+            }
+            position += batch.size();
+            forwarded += batch.size();
+            lastSuccess = System.currentTimeMillis();
+            observationLog.commitCursor(CURSOR, position);
+        }
+    }
+    
+    private void send(long firstSequence, List<Observation> batch) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set("X-Sensor-Id", sensorId);
+        headers.set("X-Sensor-Epoch", Long.toString(epoch));
+        headers.set("X-First-Sequence", Long.toString(firstSequence));
+        restTemplate.postForEntity(upstreamUrl + "/api/observations",
+                new HttpEntity<>(ObservationLog.encodeBatch(batch), headers), Map.class);
+    }
+    
+    // Identifies this log to the central instance; a wiped log directory gets a new epoch
+    private long loadEpoch() throws IOException {
+        Path file = Paths.get(directory, EPOCH_FILE);
+        if (Files.exists(file)) {
+            return ByteBuffer.wrap(Files.readAllBytes(file)).getLong();
+        }
+        long value = new SecureRandom().nextLong() | 1L;
+        Files.write(file, ByteBuffer.allocate(8).putLong(value).array());
+        return value;
+    }
+    
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("sensorId", sensorId);
+        status.put("url", upstreamUrl);
+        status.put("forwardedSequence", observationLog.readCursor(CURSOR));
+        status.put("backlog", observationLog.getWriteSequence() - observationLog.readCursor(CURSOR));
+        status.put("forwarded", forwarded);
+        status.put("dropped", dropped);
+        status.put("consecutiveFailures", failures);
+        status.put("lastError", lastError);
+        status.put("lastSuccess", lastSuccess == 0 ? null : lastSuccess);
+        status.put("rejected", rejected);
+        status.put("lastRejection", lastRejection);
+        status.put("stopped", stopped);
+        return status;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/alert/Alert.java
+package com.networkdiscovery.alert;
+
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import java.time.LocalDateTime;
+
+public class Alert {
+    
+    public enum Type { NEW_DEVICE, RISK_RAISED, REAPPEARED }
+    
+    private final Type type;
+    private final Long deviceId;
+    private final MacAddress macAddress;
+    private final IpAddress ipAddress;
+    private final RiskLevel riskLevel;
+    private final String vendor;
+    private final String hostname;
+    private final LocalDateTime observedAt;
+    
+    public Alert(Type type, Detection detection) {
+        this.type = type;
+        this.deviceId = detection.getDeviceId();
+        this.macAddress = detection.getMacAddress();
+        this.ipAddress = detection.getIpAddress();
+        this.riskLevel = detection.getRiskLevel();
+        this.vendor = detection.getVendor();
+        this.hostname = detection.getHostname();
+        this.observedAt = detection.getObservedAt();
+    }
+    
+    public Type getType() { return type; }
+    public Long getDeviceId() { return deviceId; }
+    public MacAddress getMacAddress() { return macAddress; }
+    public IpAddress getIpAddress() { return ipAddress; }
+    public RiskLevel getRiskLevel() { return riskLevel; }
+    public String getVendor() { return vendor; }
+    public String getHostname() { return hostname; }
+    public LocalDateTime getObservedAt() { return observedAt; }
+}
+
+// File: src/main/java/com/networkdiscovery/alert/AlertBatch.java
+package com.networkdiscovery.alert;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One delivery to the sinks. Suppressed counts alerts dropped since the
+ * previous batch because the pending queue was full.
+ */
+public class AlertBatch {
+    
+    private final List<Alert> alerts;
+    private final long suppressed;
+    
+    public AlertBatch(List<Alert> alerts, long suppressed) {
+        this.alerts = Collections.unmodifiableList(alerts);
+        this.suppressed = suppressed;
+    }
+    
+    public List<Alert> getAlerts() { return alerts; }
+    public long getSuppressed() { return suppressed; }
+}
+
+// File: src/main/java/com/networkdiscovery/alert/AlertSink.java
+package com.networkdiscovery.alert;
+
+/**
+ * Destination for alert batches. Every AlertSink bean receives every batch;
+ * a sink that throws does not keep the others from being called.
+ */
+public interface AlertSink {
+    
+    void deliver(AlertBatch batch);
+}
+
+// File: src/main/java/com/networkdiscovery/alert/LogAlertSink.java
+package com.networkdiscovery.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class LogAlertSink implements AlertSink {
+    
+    private static final Logger log = LoggerFactory.getLogger(LogAlertSink.class);
+    
+    @Override
+    public void deliver(AlertBatch batch) {
+        for (Alert alert : batch.getAlerts()) {
+            log.warn("{}: unauthorized device IP={}, MAC={}, vendor={}, hostname={}, risk={}",
+                    alert.getType(), alert.getIpAddress(), alert.getMacAddress(),
+                    alert.getVendor(), alert.getHostname(), alert.getRiskLevel());
+        }
+        if (batch.getSuppressed() > 0) {
+            log.warn("{} further alerts suppressed, alert queue was full", batch.getSuppressed());
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/alert/TokenBucket.java
+package com.networkdiscovery.alert;
+
+import java.time.Clock;
+
+public class TokenBucket {
+    
+    private final long capacity;
+    private final double tokensPerMilli;
+    private final Clock clock;
+    private double tokens;
+    private long lastRefill;
+    
+    public TokenBucket(long capacity, double tokensPerSecond, Clock clock) {
+        this.capacity = capacity;
+        this.tokensPerMilli = tokensPerSecond / 1000.0;
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefill = clock.millis();
+    }
+    
+    public synchronized boolean tryTake() {
+        // max() so a clock stepping back never drains the bucket
+        long now = Math.max(lastRefill, clock.millis());
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/alert/AlertService.java
+package com.networkdiscovery.alert;
+
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.event.DeviceDetectionEvent;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.net.MacAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import javax.annotation.PostConstruct;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns detections into alerts. A device only alerts when its state changes:
+ * first seen, risk level raised, or back after an absence. The same kind of
+ * alert for one MAC is raised at most once per dedup window. Alerts wait in a
+ * pending queue, where repeats for one MAC coalesce. They reach the sinks in
+ * batches under a global rate limit, so alert volume follows changes rather
+ * than devices times scans.
+ */
+@Service
+public class AlertService {
+    
+    private static final Logger log = LoggerFactory.getLogger(AlertService.class);
+    
+    private static final int RECENT_ALERTS = 100;
+    
+    @Autowired
+    private List<AlertSink> sinks;
+    
+    @Value("${network.alert.dedup-window-minutes:1440}")
+    private long dedupWindowMinutes;
+    
+    @Value("${network.alert.absence-minutes:60}")
+    private long absenceMinutes;
+    
+    @Value("${network.alert.batches-per-minute:12}")
+    private double batchesPerMinute;
+    
+    @Value("${network.alert.burst:3}")
+    private int burst;
+    
+    @Value("${network.alert.batch-size:100}")
+    private int batchSize;
+    
+    @Value("${network.alert.max-pending:10000}")
+    private int maxPending;
+    
+    private final Map<MacAddress, DeviceAlertState> states = new ConcurrentHashMap<>();
+    private final LinkedHashMap<MacAddress, Alert> pending = new LinkedHashMap<>();
+    private final Deque<Alert> recent = new ArrayDeque<>();
+    private TokenBucket rateLimit;
+    // Dedup windows and the rate limit run on this; tests swap in their own
+    private Clock clock = Clock.systemUTC();
+    
+    private final AtomicLong detections = new AtomicLong();
+    private final AtomicLong raised = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private long suppressed;
+    private long suppressedTotal;
+    
+    @PostConstruct
+    public void init() {
+        rateLimit = new TokenBucket(burst, batchesPerMinute / 60.0, clock);
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDetection(DeviceDetectionEvent event) {
+        for (Detection detection : event.getDetections()) {
+            detections.incrementAndGet();
+            Alert.Type type = evaluate(detection);
+            if (type != null) {
+                raised.incrementAndGet();
+                enqueue(new Alert(type, detection));
+            }
+        }
+    }
+    
+    /**
+     * Records what this detection tells us about the device and returns the
+     * alert it warrants: null when nothing changed or the same alert went out
+     * within the dedup window.
+     */
+    private Alert.Type evaluate(Detection detection) {
+        DeviceAlertState state = states.computeIfAbsent(detection.getMacAddress(), mac -> new DeviceAlertState());
+        synchronized (state) {
+            Alert.Type type = null;
+            if (detection.isCreated()) {
+                type = Alert.Type.NEW_DEVICE;
+            } else if (state.riskLevel != null && detection.getRiskLevel() != null
+                    && detection.getRiskLevel().compareTo(state.riskLevel) > 0) {
+                type = Alert.Type.RISK_RAISED;
+            } else if (detection.getPreviousLastSeen() != null && Duration.between(
+                    detection.getPreviousLastSeen(), detection.getObservedAt()).toMinutes() >= absenceMinutes) {
+                type = Alert.Type.REAPPEARED;
+            }
+            if (detection.getRiskLevel() != null) {
+                state.riskLevel = detection.getRiskLevel();
+            }
+            state.lastSeen = detection.getObservedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            if (type == null) {
+                return null;
+            }
+            
+            long now = clock.millis();
+            Long last = state.lastAlerted.get(type);
+            if (last != null && now - last < Duration.ofMinutes(dedupWindowMinutes).toMillis()) {
+                deduplicated.incrementAndGet();
+                return null;
+            }
+            state.lastAlerted.put(type, now);
+            return type;
+        }
+    }
+    
+    private synchronized void enqueue(Alert alert) {
+        // A newer alert for the same MAC replaces the queued one, unless that announces a new device
+        Alert queued = pending.get(alert.getMacAddress());
+        if (queued != null) {
+            if (queued.getType() != Alert.Type.NEW_DEVICE) {
+                pending.put(alert.getMacAddress(), alert);
+            }
+            return;
+        }
+        if (pending.size() >= maxPending) {
+            suppressed++;
+            suppressedTotal++;
+            return;
+        }
+        pending.put(alert.getMacAddress(), alert);
+    }
+    
+    @Scheduled(fixedDelayString = "${network.alert.flush-interval-ms:5000}")
+    public void flush() {
+        while (true) {
+            AlertBatch batch;
+            synchronized (this) {
+                if ((pending.isEmpty() && suppressed == 0) || !rateLimit.tryTake()) {
+                    return;
+                }
+                List<Alert> alerts = new ArrayList<>(Math.min(batchSize, pending.size()));
+                Iterator<Alert> it = pending.values().iterator();
+                while (it.hasNext() && alerts.size() < batchSize) {
+                    alerts.add(it.next());
+                    it.remove();
+                }
+                batch = new AlertBatch(alerts, suppressed);
+                suppressed = 0;
+                alerts.forEach(this::remember);
+            }
+            
+            for (AlertSink sink : sinks) {
+                try {
+                    sink.deliver(batch);
+                } catch (Exception e) {
+                    log.error("Alert sink {} failed", sink.getClass().getSimpleName(), e);
+                }
+            }
+            delivered.addAndGet(batch.getAlerts().size());
+        }
+    }
+    
+    // Devices that have not been seen for a full dedup window would alert anew anyway
+    @Scheduled(fixedDelay = 3600000)
+    public void evictIdle() {
+        long cutoff = clock.millis() - Duration.ofMinutes(
+                Math.max(dedupWindowMinutes, absenceMinutes)).toMillis();
+        states.values().removeIf(state -> state.lastSeen < cutoff);
+    }
+    
+    private void remember(Alert alert) {
+        if (recent.size() == RECENT_ALERTS) {
+            recent.removeFirst();
+        }
+        recent.addLast(alert);
+    }
+    
+    public synchronized List<Alert> getRecentAlerts() {
+        List<Alert> alerts = new ArrayList<>(recent);
+        Collections.reverse(alerts);
+        return alerts;
+    }
+    
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("detections", detections.get());
+        stats.put("raised", raised.get());
+        stats.put("deduplicated", deduplicated.get());
+        stats.put("delivered", delivered.get());
+        stats.put("pending", pending.size());
+        stats.put("suppressed", suppressedTotal);
+        stats.put("trackedDevices", states.size());
+        return stats;
+    }
+    
+    private static class DeviceAlertState {
+        RiskLevel riskLevel;
+        volatile long lastSeen;
+        final Map<Alert.Type, Long> lastAlerted = new EnumMap<>(Alert.Type.class);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/analytics/RollingCounters.java
+package com.networkdiscovery.analytics;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * A ring of time buckets, each holding one counter per series. A slot is
+ * reused once its bucket has left the window, so memory is fixed and a read
+ * touches at most {@code buckets} slots however many events were counted.
+ */
+public class RollingCounters {
+    
+    private final long bucketMillis;
+    private final int buckets;
+    private final long[] bucketNumbers;
+    private final long[][] counts;
+    
+    public RollingCounters(Duration bucket, int buckets, int series) {
+        this.bucketMillis = bucket.toMillis();
+        this.buckets = buckets;
+        this.bucketNumbers = new long[buckets];
+        this.counts = new long[buckets][series];
+        Arrays.fill(bucketNumbers, Long.MIN_VALUE);
+    }
+    
+    public synchronized void add(long timeMillis, int series, long delta) {
+        long number = Math.floorDiv(timeMillis, bucketMillis);
+        int slot = Math.floorMod(number, buckets);
+        if (bucketNumbers[slot] != number) {
+            // The slot holds a newer bucket, so this one is already out of the window
+            if (bucketNumbers[slot] > number) {
+                return;
+            }
+            bucketNumbers[slot] = number;
+            Arrays.fill(counts[slot], 0);
+        }
+        counts[slot][series] += delta;
+    }
+    
+    /**
+     * Counters of the last {@code count} buckets up to and including the one
+     * containing {@code nowMillis}, oldest first.
+     */
+    public synchronized long[][] snapshot(long nowMillis, int count) {
+        if (count > buckets) {
+            throw new IllegalArgumentException("Only " + buckets + " buckets are kept");
+        }
+        long first = Math.floorDiv(nowMillis, bucketMillis) - count + 1;
+        long[][] result = new long[count][];
+        for (int i = 0; i < count; i++) {
+            int slot = Math.floorMod(first + i, buckets);
+            result[i] = bucketNumbers[slot] == first + i
+                    ? counts[slot].clone() : new long[counts[slot].length];
+        }
+        return result;
+    }
+    
+    public long bucketStart(long nowMillis, int bucketsBack) {
+        return (Math.floorDiv(nowMillis, bucketMillis) - bucketsBack) * bucketMillis;
+    }
+    
+    public int getBuckets() { return buckets; }
+}
+
+// File: src/main/java/com/networkdiscovery/analytics/TrendWindow.java
+package com.networkdiscovery.analytics;
+
+import java.time.Duration;
+
+public enum TrendWindow {
+    
+    LAST_HOUR("1h", Duration.ofMinutes(1), 60),
+    LAST_6_HOURS("6h", Duration.ofMinutes(1), 360),
+    LAST_DAY("24h", Duration.ofHours(1), 24),
+    LAST_WEEK("7d", Duration.ofHours(1), 168);
+    
+    private final String label;
+    private final Duration resolution;
+    private final int buckets;
+    
+    TrendWindow(String label, Duration resolution, int buckets) {
+        this.label = label;
+        this.resolution = resolution;
+        this.buckets = buckets;
+    }
+    
+    public static TrendWindow parse(String label) {
+        for (TrendWindow window : values()) {
+            if (window.label.equalsIgnoreCase(label)) {
+                return window;
+            }
+        }
+        throw new IllegalArgumentException("Unknown window '" + label + "', expected 1h, 6h, 24h or 7d");
+    }
+    
+    public String getLabel() { return label; }
+    public Duration getResolution() { return resolution; }
+    public int getBuckets() { return buckets; }
+}
+
+// File: src/main/java/com/networkdiscovery/analytics/DetectionTrendService.java
+package com.networkdiscovery.analytics;
+
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.event.DeviceDetectionEvent;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Detection trends for the dashboard: new devices and reappearances per
+ * bucket, split by risk level, and new devices by type. Counters live in two
+ * rings (minutes for the last 6 hours, hours for the last 7 days) fed from
+ * {@link DeviceDetectionEvent}s. New devices from before startup are
+ * backfilled once from first_detected; reappearances are not stored in the
+ * database, so they only cover the time since startup.
+ */
+@Service
+public class DetectionTrendService {
+    
+    private static final Logger log = LoggerFactory.getLogger(DetectionTrendService.class);
+    
+    private static final RiskLevel[] RISK_LEVELS = RiskLevel.values();
+    private static final int MAX_DEVICE_TYPES = 16;
+    private static final String UNKNOWN_TYPE = "Unknown";
+    private static final String OTHER_TYPE = "Other";
+    
+    // Series layout in each bucket: new by risk, reappeared by risk, new by device type
+    private static final int NEW_BY_RISK = 0;
+    private static final int REAPPEARED_BY_RISK = RISK_LEVELS.length;
+    private static final int NEW_BY_TYPE = 2 * RISK_LEVELS.length;
+    private static final int SERIES = NEW_BY_TYPE + MAX_DEVICE_TYPES;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository repository;
+    
+    @Value("${network.trends.absence-minutes:60}")
+    private long absenceMinutes;
+    
+    private final RollingCounters minutes = new RollingCounters(Duration.ofMinutes(1), 360, SERIES);
+    private final RollingCounters hours = new RollingCounters(Duration.ofHours(1), 168, SERIES);
+    
+    // The last slot collects every type beyond the first MAX_DEVICE_TYPES - 1
+    private final Map<String, Integer> typeSlots = new ConcurrentHashMap<>();
+    private final List<String> typeNames = new CopyOnWriteArrayList<>();
+    
+    // New devices first detected before this are counted by the backfill, later ones by events
+    private final long startedAt = System.currentTimeMillis();
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        long start = System.currentTimeMillis();
+        LocalDateTime from = toLocalDateTime(hours.bucketStart(startedAt, hours.getBuckets() - 1));
+        List<Object[]> rows = repository.findFirstDetectionsBetween(from, toLocalDateTime(startedAt));
+        for (Object[] row : rows) {
+            countNew(toMillis((LocalDateTime) row[0]), (RiskLevel) row[1], (String) row[2]);
+        }
+        log.info("Detection trends backfilled with {} devices first detected since {} in {} ms",
+                rows.size(), from, System.currentTimeMillis() - start);
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDetection(DeviceDetectionEvent event) {
+        for (Detection detection : event.getDetections()) {
+            long observedAt = toMillis(detection.getObservedAt());
+            if (detection.isCreated()) {
+                if (observedAt >= startedAt) {
+                    countNew(observedAt, detection.getRiskLevel(), detection.getDeviceType());
+                }
+            } else if (detection.getPreviousLastSeen() != null && Duration.between(
+                    detection.getPreviousLastSeen(), detection.getObservedAt()).toMinutes() >= absenceMinutes) {
+                count(observedAt, riskSeries(REAPPEARED_BY_RISK, detection.getRiskLevel()));
+            }
+        }
+    }
+    
+    public Map<String, Object> getTrend(TrendWindow window) {
+        RollingCounters counters = window.getResolution().compareTo(Duration.ofHours(1)) < 0 ? minutes : hours;
+        long now = System.currentTimeMillis();
+        long[][] snapshot = counters.snapshot(now, window.getBuckets());
+        List<String> types = new ArrayList<>(typeNames);
+        
+        List<Map<String, Object>> buckets = new ArrayList<>(snapshot.length);
+        long[] totals = new long[SERIES];
+        for (int i = 0; i < snapshot.length; i++) {
+            long[] bucket = snapshot[i];
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("start", toLocalDateTime(counters.bucketStart(now, snapshot.length - 1 - i)));
+            entry.put("newDevices", sum(bucket, NEW_BY_RISK, RISK_LEVELS.length));
+            entry.put("reappeared", sum(bucket, REAPPEARED_BY_RISK, RISK_LEVELS.length));
+            entry.put("newByRisk", byRisk(bucket, NEW_BY_RISK));
+            buckets.add(entry);
+            for (int s = 0; s < SERIES; s++) {
+                totals[s] += bucket[s];
+            }
+        }
+        
+        Map<String, Long> newByType = new LinkedHashMap<>();
+        for (int slot = 0; slot < types.size(); slot++) {
+            if (totals[NEW_BY_TYPE + slot] > 0) {
+                newByType.put(types.get(slot), totals[NEW_BY_TYPE + slot]);
+            }
+        }
+        
+        Map<String, Object> trend = new LinkedHashMap<>();
+        trend.put("window", window.getLabel());
+        trend.put("resolutionMinutes", window.getResolution().toMinutes());
+        trend.put("newDevices", sum(totals, NEW_BY_RISK, RISK_LEVELS.length));
+        trend.put("reappeared", sum(totals, REAPPEARED_BY_RISK, RISK_LEVELS.length));
+        trend.put("newByRisk", byRisk(totals, NEW_BY_RISK));
+        trend.put("reappearedByRisk", byRisk(totals, REAPPEARED_BY_RISK));
+        trend.put("newByType", newByType);
+        trend.put("buckets", buckets);
+        return trend;
+    }
+    
+    private void countNew(long timeMillis, RiskLevel riskLevel, String deviceType) {
+        count(timeMillis, riskSeries(NEW_BY_RISK, riskLevel));
+        count(timeMillis, NEW_BY_TYPE + typeSlot(deviceType));
+    }
+    
+    private void count(long timeMillis, int series) {
+        if (series < 0) {
+            return;
+        }
+        minutes.add(timeMillis, series, 1);
+        hours.add(timeMillis, series, 1);
+    }
+    
+    private static int riskSeries(int base, RiskLevel riskLevel) {
+        return riskLevel == null ? -1 : base + riskLevel.ordinal();
+    }
+    
+    private int typeSlot(String deviceType) {
+        String type = deviceType == null || deviceType.isBlank() ? UNKNOWN_TYPE : deviceType;
+        Integer slot = typeSlots.get(type);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (typeNames) {
+            slot = typeSlots.get(type);
+            if (slot == null) {
+                if (typeNames.size() < MAX_DEVICE_TYPES - 1) {
+                    slot = typeNames.size();
+                    typeNames.add(type);
+                } else {
+                    if (typeNames.size() < MAX_DEVICE_TYPES) {
+                        typeNames.add(OTHER_TYPE);
+                    }
+                    slot = MAX_DEVICE_TYPES - 1;
+                }
+                typeSlots.put(type, slot);
+            }
+            return slot;
+        }
+    }
+    
+    private static long sum(long[] counts, int from, int length) {
+        long total = 0;
+        for (int i = from; i < from + length; i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+    
+    private static Map<RiskLevel, Long> byRisk(long[] counts, int base) {
+        Map<RiskLevel, Long> result = new EnumMap<>(RiskLevel.class);
+        for (RiskLevel riskLevel : RISK_LEVELS) {
+            result.put(riskLevel, counts[base + riskLevel.ordinal()]);
+        }
+        return result;
+    }
+    
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/ScanEvent.java
+package com.networkdiscovery.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.networkdiscovery.Scan")
+@Label("Scan")
+@Description("One scan of the configured subnet, from reading the neighbor tables to handing off the results")
+@Category({"Network Discovery", "Scan"})
+@StackTrace(false)
+public final class ScanEvent extends jdk.jfr.Event {
+    
+    @Label("Subnet")
+    private String subnet;
+    
+    @Label("Observations")
+    private int observations;
+    
+    @Label("Unauthorized Devices")
+    private int unauthorized;
+    
+    @Label("Failed")
+    private boolean failed;
+    
+    public void commit(String subnet, int observations, int unauthorized, boolean failed) {
+        if (shouldCommit()) {
+            this.subnet = subnet;
+            this.observations = observations;
+            this.unauthorized = unauthorized;
+            this.failed = failed;
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/ScanPhaseEvent.java
+package com.networkdiscovery.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.networkdiscovery.ScanPhase")
+@Label("Scan Phase")
+@Description("A phase of a scan or of applying a batch of observations")
+@Category({"Network Discovery", "Scan"})
+@StackTrace(false)
+public final class ScanPhaseEvent extends jdk.jfr.Event {
+    
+    @Label("Phase")
+    private String phase;
+    
+    @Label("Items")
+    @Description("Neighbors, addresses probed, observations or devices, depending on the phase")
+    private int items;
+    
+    public static ScanPhaseEvent start() {
+        ScanPhaseEvent event = new ScanPhaseEvent();
+        event.begin();
+        return event;
+    }
+    
+    public void commit(String phase, int items) {
+        if (shouldCommit()) {
+            this.phase = phase;
+            this.items = items;
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/ProbeEvent.java
+package com.networkdiscovery.diagnostics;
+
+import com.networkdiscovery.net.IpAddress;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+// Most probes answer in microseconds; only slow answers and timeouts pass the threshold
+@Name("com.networkdiscovery.Probe")
+@Label("Host Probe")
+@Description("A reachability probe slower than the threshold")
+@Category({"Network Discovery", "Scan"})
+@Threshold("20 ms")
+@StackTrace(false)
+public final class ProbeEvent extends jdk.jfr.Event {
+    
+    @Label("Host")
+    private String host;
+    
+    @Label("Timeout")
+    @Timespan(Timespan.MILLISECONDS)
+    private long timeout;
+    
+    @Label("Answered")
+    private boolean answered;
+    
+    @Label("Round Trip")
+    @Timespan(Timespan.MICROSECONDS)
+    private long roundTrip;
+    
+    public void commit(IpAddress host, int timeoutMillis, int rttMicros) {
+        if (shouldCommit()) {
+            this.host = host.toString();
+            this.timeout = timeoutMillis;
+            this.answered = rttMicros >= 0;
+            this.roundTrip = Math.max(rttMicros, 0);
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/DnsLookupEvent.java
+package com.networkdiscovery.diagnostics;
+
+import com.networkdiscovery.net.IpAddress;
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Timed on the enrichment thread, so a lookup the scan stopped waiting for still shows its full time
+@Name("com.networkdiscovery.DnsLookup")
+@Label("Reverse DNS Lookup")
+@Category({"Network Discovery", "Enrichment"})
+@Threshold("10 ms")
+@StackTrace(false)
+public final class DnsLookupEvent extends jdk.jfr.Event {
+    
+    @Label("Host")
+    private String host;
+    
+    @Label("Hostname")
+    private String hostname;
+    
+    public void commit(IpAddress host, String hostname) {
+        if (shouldCommit()) {
+            this.host = host.toString();
+            this.hostname = hostname;
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/AuthorizationCheckEvent.java
+package com.networkdiscovery.diagnostics;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Memo hits take nanoseconds; the threshold keeps them out and lets the database checks through
+@Name("com.networkdiscovery.AuthorizationCheck")
+@Label("Authorization Check")
+@Description("Whether a sighted device is authorized, from the scanner's memo or the database")
+@Category({"Network Discovery", "Persistence"})
+@Threshold("1 ms")
+@StackTrace(false)
+public final class AuthorizationCheckEvent extends jdk.jfr.Event {
+    
+    @Label("Host")
+    private String host;
+    
+    @Label("MAC Address")
+    private String mac;
+    
+    @Label("Authorized")
+    private boolean authorized;
+    
+    @Label("From Memo")
+    private boolean memoized;
+    
+    public void commit(IpAddress host, MacAddress mac, boolean authorized, boolean memoized) {
+        if (shouldCommit()) {
+            this.host = host.toString();
+            this.mac = mac.toString();
+            this.authorized = authorized;
+            this.memoized = memoized;
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/DeviceWriteEvent.java
+package com.networkdiscovery.diagnostics;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+// Includes waiting for the MAC's stripe lock and for row locks held by other writers
+@Name("com.networkdiscovery.DeviceWrite")
+@Label("Device Write")
+@Description("Writing one sighting to its unauthorized device row, slower than the threshold")
+@Category({"Network Discovery", "Persistence"})
+@Threshold("10 ms")
+public final class DeviceWriteEvent extends jdk.jfr.Event {
+    
+    @Label("Host")
+    private String host;
+    
+    @Label("MAC Address")
+    private String mac;
+    
+    @Label("Device Id")
+    private long deviceId;
+    
+    @Label("Fast Path")
+    @Description("A single UPDATE from the memo instead of a read and merge")
+    private boolean fastPath;
+    
+    @Label("Created")
+    private boolean created;
+    
+    public void commit(IpAddress host, MacAddress mac, Long deviceId, boolean fastPath, boolean created) {
+        if (shouldCommit()) {
+            this.host = host.toString();
+            this.mac = mac.toString();
+            this.deviceId = deviceId != null ? deviceId : 0;
+            this.fastPath = fastPath;
+            this.created = created;
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/BatchWriteEvent.java
+package com.networkdiscovery.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.networkdiscovery.BatchWrite")
+@Label("Observation Batch Write")
+@Description("Folding one batch of observations into the device tables, from a scan, the log applier or a capture")
+@Category({"Network Discovery", "Persistence"})
+@StackTrace(false)
+public final class BatchWriteEvent extends jdk.jfr.Event {
+    
+    @Label("Observations")
+    private int observations;
+    
+    @Label("Unauthorized Devices")
+    private int devices;
+    
+    @Label("Created")
+    private int created;
+    
+    @Label("Updated")
+    @Description("Devices read and merged; fast-path sightings are the rest")
+    private int updated;
+    
+    public void commit(int observations, int devices, int created, int updated) {
+        if (shouldCommit()) {
+            this.observations = observations;
+            this.devices = devices;
+            this.created = created;
+            this.updated = updated;
+            commit();
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/diagnostics/FlightRecorderService.java
+package com.networkdiscovery.diagnostics;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Continuous Java Flight Recorder recording for production profiling. It
+ * uses the JDK's default settings, which are built to stay under 1%
+ * overhead, plus this application's events as configured in
+ * jfr/network-discovery.jfc. The recording is a bounded ring on disk, so it
+ * can run indefinitely; a dump copies it to a file for JDK Mission Control
+ * or the jfr tool.
+ */
+@Component
+public class FlightRecorderService {
+    
+    private static final Logger log = LoggerFactory.getLogger(FlightRecorderService.class);
+    
+    static final String RECORDING_NAME = "network-discovery";
+    private static final String SETTINGS = "/jfr/network-discovery.jfc";
+    private static final DateTimeFormatter DUMP_NAME = DateTimeFormatter.ofPattern("'network-discovery-'yyyyMMdd-HHmmss'.jfr'");
+    
+    private static final List<Class<? extends jdk.jfr.Event>> EVENTS = List.of(ScanEvent.class,
+            ScanPhaseEvent.class, ProbeEvent.class, DnsLookupEvent.class, AuthorizationCheckEvent.class,
+            DeviceWriteEvent.class, BatchWriteEvent.class);
+    
+    @Value("${network.jfr.enabled:false}")
+    private boolean startOnBoot;
+    
+    @Value("${network.jfr.max-age-minutes:360}")
+    private long maxAgeMinutes;
+    
+    @Value("${network.jfr.max-size-mb:256}")
+    private long maxSizeMb;
+    
+    @Value("${network.jfr.dump-dir:data/jfr}")
+    private String dumpDir;
+    
+    private Recording recording;
+    
+    @PostConstruct
+    public void init() {
+        if (!FlightRecorder.isAvailable()) {
+            log.info("Flight Recorder is not available in this JVM, scan events are not recorded");
+            return;
+        }
+        // Registered up front so the event types show in a recording before the first scan
+        EVENTS.forEach(FlightRecorder::register);
+        if (startOnBoot) {
+            start();
+        }
+    }
+    
+    public synchronized Map<String, Object> start() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("Flight Recorder is not available in this JVM");
+        }
+        if (recording != null) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        
+        Recording started = new Recording(loadSettings());
+        started.setName(RECORDING_NAME);
+        started.setToDisk(true);
+        started.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+        started.setMaxSize(maxSizeMb * 1024 * 1024);
+        started.start();
+        recording = started;
+        log.info("Flight recording started, keeping the last {} minutes up to {} MB", maxAgeMinutes, maxSizeMb);
+        return getStatus();
+    }
+    
+    // Copies what the recording holds to a new file; the recording keeps running
+    public synchronized Path dump() throws IOException {
+        if (recording == null) {
+            throw new IllegalStateException("No recording is running");
+        }
+        Path directory = Paths.get(dumpDir);
+        Files.createDirectories(directory);
+        Path file = directory.resolve(DUMP_NAME.format(LocalDateTime.now())).toAbsolutePath();
+        recording.dump(file);
+        log.info("Flight recording dumped to {}", file);
+        return file;
+    }
+    
+    public synchronized boolean stop() {
+        if (recording == null) {
+            return false;
+        }
+        recording.close();
+        recording = null;
+        log.info("Flight recording stopped");
+        return true;
+    }
+    
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("available", FlightRecorder.isAvailable());
+        status.put("running", recording != null);
+        if (recording != null) {
+            status.put("name", recording.getName());
+            status.put("startTime", recording.getStartTime());
+            status.put("maxAgeMinutes", maxAgeMinutes);
+            status.put("maxSizeMb", maxSizeMb);
+            status.put("bytes", recording.getSize());
+        }
+        return status;
+    }
+    
+    @PreDestroy
+    public void close() {
+        stop();
+    }
+    
+    private Map<String, String> loadSettings() {
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(SETTINGS), StandardCharsets.UTF_8)) {
+            Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+            settings.putAll(Configuration.create(reader).getSettings());
+            return settings;
+        } catch (IOException | ParseException e) {
+            throw new IllegalStateException("Cannot load Flight Recorder settings " + SETTINGS, e);
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/simulation/SimulatedNetwork.java
+package com.networkdiscovery.simulation;
+
+import com.networkdiscovery.discovery.HostProber;
+import com.networkdiscovery.discovery.NeighborSource;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.Ipv4Subnet;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.observation.Observation;
+import com.networkdiscovery.service.ArpEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the real network under the "simulation" profile. Models the
+ * first N host addresses of network.subnet as live hosts. They appear in the
+ * neighbor table and answer probes after a log-normal RTT. Per-probe loss,
+ * ICMP-silent ranges and MAC churn are all configurable.
+ *
+ * Every random draw is seeded from (seed, scan, host). A run therefore
+ * replays identically whatever order the probe threads get scheduled in.
+ */
+@Component
+@Profile("simulation")
+public class SimulatedNetwork implements NeighborSource, HostProber {
+    
+    private static final Logger log = LoggerFactory.getLogger(SimulatedNetwork.class);
+    
+    // A realistic vendor mix, so vendor lookup and risk assessment see the usual spread
+    private static final int[] OUIS = {0x001B21, 0x002324, 0x005056, 0x525400, 0x00155D, 0x3C5AB4};
+    
+    @Value("${network.subnet:192.168.1.0/24}")
+    private String networkSubnet;
+    
+    @Value("${network.simulation.hosts:1000}")
+    private int hostCount;
+    
+    @Value("${network.simulation.seed:42}")
+    private long seed;
+    
+    @Value("${network.simulation.rtt-median-micros:800}")
+    private int rttMedianMicros;
+    
+    // Spread of the log-normal RTT distribution; 0 gives every host the median
+    @Value("${network.simulation.rtt-sigma:0.5}")
+    private double rttSigma;
+    
+    @Value("${network.simulation.loss:0.01}")
+    private double loss;
+    
+    // Comma separated CIDRs whose hosts are in the neighbor table but drop ICMP
+    @Value("${network.simulation.unresponsive:}")
+    private String unresponsiveRanges;
+    
+    // Fraction of hosts that rotate to a fresh locally administered MAC every scan
+    @Value("${network.simulation.mac-churn:0.0}")
+    private double macChurn;
+    
+    // Simulated delays are slept at this scale; 1.0 is real time, 0 does not sleep
+    @Value("${network.simulation.time-scale:0.0}")
+    private double timeScale;
+    
+    private Ipv4Subnet subnet;
+    private int hosts;
+    private long[] macs;
+    private final BitSet unresponsive = new BitSet();
+    private volatile long scan;
+    
+    @PostConstruct
+    public void init() {
+        subnet = Ipv4Subnet.parse(networkSubnet);
+        int capacity = subnet.lastHostOffset() - subnet.firstHostOffset() + 1;
+        hosts = Math.min(hostCount, capacity);
+        
+        macs = new long[hosts];
+        for (int i = 0; i < hosts; i++) {
+            macs[i] = ((long) OUIS[i % OUIS.length] << 24) | i;
+        }
+        
+        for (String cidr : unresponsiveRanges.split(",")) {
+            if (cidr.isBlank()) continue;
+            Ipv4Subnet range = Ipv4Subnet.parse(cidr.trim());
+            for (int offset = 0; offset < range.size(); offset++) {
+                IpAddress address = range.addressAt(offset);
+                if (subnet.contains(address)) {
+                    int host = hostIndex(address);
+                    if (host >= 0 && host < hosts) {
+                        unresponsive.set(host);
+                    }
+                }
+            }
+        }
+        
+        log.info("Simulating {} hosts on {} ({} ICMP-silent), loss {}, churn {}",
+                hosts, networkSubnet, unresponsive.cardinality(), loss, macChurn);
+    }
+    
+    // Each call is the neighbor table of one scan, which is also when MACs churn
+    @Override
+    public synchronized List<ArpEntry> readNeighbors() {
+        scan++;
+        List<ArpEntry> entries = new ArrayList<>(hosts);
+        for (int i = 0; i < hosts; i++) {
+            if (macChurn > 0) {
+                Random random = random(i, 1);
+                if (random.nextDouble() < macChurn) {
+                    macs[i] = (0x02L << 40) | (random.nextLong() & 0xFFFFFFFFFFL);
+                }
+            }
+            entries.add(new ArpEntry(addressAt(i), MacAddress.of(macs[i])));
+        }
+        return entries;
+    }
+    
+    @Override
+    public int probe(IpAddress address, int timeoutMillis) {
+        int host = subnet.contains(address) ? hostIndex(address) : -1;
+        if (host < 0 || host >= hosts || unresponsive.get(host)) {
+            return timeout(timeoutMillis);
+        }
+        
+        Random random = random(host, 2);
+        if (random.nextDouble() < loss) {
+            return timeout(timeoutMillis);
+        }
+        long rtt = Math.round(rttMedianMicros * Math.exp(rttSigma * random.nextGaussian()));
+        if (rtt > timeoutMillis * 1000L) {
+            return timeout(timeoutMillis);
+        }
+        sleepMicros(rtt);
+        return (int) rtt;
+    }
+    
+    public int getHosts() {
+        return hosts;
+    }
+    
+    public IpAddress addressAt(int host) {
+        return subnet.addressAt(subnet.firstHostOffset() + host);
+    }
+    
+    public synchronized MacAddress macAt(int host) {
+        return MacAddress.of(macs[host]);
+    }
+    
+    private int hostIndex(IpAddress address) {
+        return subnet.offsetOf(address.toV4Int()) - subnet.firstHostOffset();
+    }
+    
+    private Random random(int host, int stream) {
+        long mixed = seed ^ (scan * 0x9E3779B97F4A7C15L) ^ (host * 0xC2B2AE3D27D4EB4FL) ^ stream;
+        return new Random(mixed);
+    }
+    
+    private int timeout(int timeoutMillis) {
+        sleepMicros(timeoutMillis * 1000L);
+        return Observation.NO_RTT;
+    }
+    
+    private void sleepMicros(long micros) {
+        if (timeScale > 0) {
+            LockSupport.parkNanos((long) (micros * 1000 * timeScale));
+        }
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/simulation/ScanBenchmark.java
+package com.networkdiscovery.simulation;
+
+import com.networkdiscovery.concurrency.Bulkheads;
+import com.networkdiscovery.entity.AuthorizedDevice;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.net.Ipv4Subnet;
+import com.networkdiscovery.observation.ObservationApplier;
+import com.networkdiscovery.observation.ObservationLog;
+import com.networkdiscovery.repository.AuthorizedDeviceRepository;
+import com.networkdiscovery.service.NetworkScannerService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import javax.persistence.EntityManagerFactory;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * End-to-end scan benchmark, run with the "simulation,benchmark" profiles
+ * against embedded H2. Seeds a share of the simulated hosts as authorized,
+ * then times full scans, including the observation log being applied to
+ * the database. Reports wall time, addresses probed per second, JDBC
+ * statements and allocation per scan.
+ *
+ * Allocation is summed over live threads, so bytes allocated by pool
+ * threads that exit during a scan are missed; with the default pools
+ * those are rare.
+ */
+@Component
+@Profile("benchmark")
+public class ScanBenchmark {
+    
+    private static final Logger log = LoggerFactory.getLogger(ScanBenchmark.class);
+    
+    private static final long APPLY_TIMEOUT_MILLIS = 600_000;
+    
+    @Autowired
+    private NetworkScannerService scannerService;
+    
+    @Autowired
+    private SimulatedNetwork network;
+    
+    @Autowired
+    private Bulkheads bulkheads;
+    
+    @Autowired
+    private AuthorizedDeviceRepository authorizedRepository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    
+    @Autowired
+    private ApplicationContext context;
+    
+    @Autowired(required = false)
+    private ObservationLog observationLog;
+    
+    @Autowired(required = false)
+    private ObservationApplier applier;
+    
+    @Value("${network.subnet:192.168.1.0/24}")
+    private String networkSubnet;
+    
+    @Value("${network.benchmark.warmup:1}")
+    private int warmup;
+    
+    @Value("${network.benchmark.iterations:5}")
+    private int iterations;
+    
+    @Value("${network.benchmark.authorized-fraction:0.5}")
+    private double authorizedFraction;
+    
+    @Value("${network.benchmark.exit:true}")
+    private boolean exitWhenDone;
+    
+    // Runs after the search index has been built
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void run() {
+        seedAuthorized();
+        
+        Ipv4Subnet subnet = Ipv4Subnet.parse(networkSubnet);
+        int addresses = subnet.lastHostOffset() - subnet.firstHostOffset() + 1;
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        
+        log.info("Benchmark: {} addresses, {} simulated hosts, {} warmup + {} measured scans",
+                addresses, network.getHosts(), warmup, iterations);
+        long[] wallNanos = new long[iterations];
+        for (int i = 0; i < warmup + iterations; i++) {
+            statistics.clear();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            
+            int unauthorized = bulkheads.scan().submit(scannerService::scanForUnauthorizedDevices).join().size();
+            awaitApplied();
+            
+            long wall = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            double seconds = wall / 1e9;
+            boolean measured = i >= warmup;
+            if (measured) {
+                wallNanos[i - warmup] = wall;
+            }
+            log.info("{} scan {}: {} ms, {} addresses/s, {} unauthorized, {} statements "
+                            + "({} queries, {} inserts, {} updates), {} MB allocated ({} MB/s)",
+                    measured ? "Measured" : "Warmup", measured ? i - warmup + 1 : i + 1,
+                    wall / 1_000_000, Math.round(addresses / seconds), unauthorized,
+                    statistics.getPrepareStatementCount(), statistics.getQueryExecutionCount(),
+                    statistics.getEntityInsertCount(), statistics.getEntityUpdateCount(),
+                    allocated >> 20, Math.round((allocated >> 20) / seconds));
+        }
+        
+        if (iterations > 0) {
+            Arrays.sort(wallNanos);
+            long median = wallNanos[iterations / 2];
+            log.info("Benchmark result: median {} ms, min {} ms, max {} ms, {} addresses/s at median",
+                    median / 1_000_000, wallNanos[0] / 1_000_000, wallNanos[iterations - 1] / 1_000_000,
+                    Math.round(addresses / (median / 1e9)));
+        }
+        
+        if (exitWhenDone) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+    
+    private void seedAuthorized() {
+        int count = (int) (network.getHosts() * authorizedFraction);
+        List<AuthorizedDevice> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AuthorizedDevice device = new AuthorizedDevice(network.addressAt(i), network.macAt(i), "sim-host-" + i);
+            device.setDeviceType("Computer");
+            device.setAddedBy("benchmark");
+            devices.add(device);
+        }
+        List<Long> ids = new ArrayList<>(count);
+        authorizedRepository.saveAll(devices).forEach(device -> ids.add(device.getId()));
+        if (!ids.isEmpty()) {
+            eventPublisher.publishEvent(new DeviceChangeEvent(DeviceKind.AUTHORIZED, ChangeType.CREATED, ids));
+        }
+        log.info("Seeded {} authorized devices", count);
+    }
+    
+    // With the observation log on, a scan is only done once the applier has caught up with it
+    private void awaitApplied() {
+        if (observationLog == null || applier == null) {
+            return;
+        }
+        long target = observationLog.getWriteSequence();
+        long deadline = System.currentTimeMillis() + APPLY_TIMEOUT_MILLIS;
+        while (applier.getAppliedSequence() < target) {
+            if (System.currentTimeMillis() > deadline) {
+                log.warn("Applier did not catch up within {} ms", APPLY_TIMEOUT_MILLIS);
+                return;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/config/ApiEncodingConfig.java
+package com.networkdiscovery.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.networkdiscovery.dto.FieldSelection;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import java.util.List;
+
+/**
+ * Binary encodings for API responses, chosen by the client's Accept header:
+ * application/x-jackson-smile or application/cbor. Spring MVC registers its
+ * own converters for these once the modules are on the classpath, but with a
+ * plain ObjectMapper; they are replaced by ones built like the JSON mapper and
+ * kept after it, so browsers sending a wildcard Accept still get JSON.
+ */
+@Configuration
+public class ApiEncodingConfig implements WebMvcConfigurer {
+    
+    private final ObjectProvider<Jackson2ObjectMapperBuilder> builders;
+    
+    @Value("${network.api.binary-encodings.enabled:true}")
+    private boolean binaryEncodingsEnabled;
+    
+    public ApiEncodingConfig(ObjectProvider<Jackson2ObjectMapperBuilder> builders) {
+        this.builders = builders;
+    }
+    
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer fieldSelectionFilters() {
+        return builder -> builder.filters(FieldSelection.SERIALIZE_ALL);
+    }
+    
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.removeIf(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter
+                || converter instanceof MappingJackson2CborHttpMessageConverter);
+        if (!binaryEncodingsEnabled) {
+            return;
+        }
+        // Each getObject() is a fresh builder with Boot's settings, so dates and filters match the JSON output
+        converters.add(new MappingJackson2SmileHttpMessageConverter(
+                builders.getObject().factory(new SmileFactory()).build()));
+        converters.add(new MappingJackson2CborHttpMessageConverter(
+                builders.getObject().factory(new CBORFactory()).build()));
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/ObservationLogController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.edge.UpstreamForwarder;
+import com.networkdiscovery.observation.ObservationApplier;
+import com.networkdiscovery.observation.ObservationIngestService;
+import com.networkdiscovery.observation.ObservationLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/observations")
+@CrossOrigin(origins = "*")
+@ConditionalOnProperty(name = "network.observation-log.enabled", havingValue = "true", matchIfMissing = true)
+public class ObservationLogController {
+    
+    @Autowired
+    private ObservationLog observationLog;
+    
+    @Autowired
+    private ObservationApplier applier;
+    
+    // Not on sensors that forward upstream
+    @Autowired(required = false)
+    private ObservationIngestService ingestService;
+    
+    // Only on edge sensors
+    @Autowired(required = false)
+    private UpstreamForwarder upstreamForwarder;
+    
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("firstSequence", observationLog.getFirstSequence());
+        status.put("writeSequence", observationLog.getWriteSequence());
+        status.put("appliedSequence", applier.getAppliedSequence());
+        status.put("lag", observationLog.getWriteSequence() - applier.getAppliedSequence());
+        if (upstreamForwarder != null) {
+            status.put("upstream", upstreamForwarder.getStatus());
+        }
+        return ResponseEntity.ok(status);
+    }
+    
+    // Batches of 44-byte log records forwarded by edge sensors
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Map<String, Object>> ingest(
+            @RequestHeader("X-Sensor-Id") String sensorId,
+            @RequestHeader("X-Sensor-Epoch") long epoch,
+            @RequestHeader("X-First-Sequence") long firstSequence,
+            @RequestBody byte[] records) {
+        if (ingestService == null) {
+            return error(HttpStatus.NOT_FOUND, "This sensor forwards its observations upstream and accepts none");
+        }
+        try {
+            return ResponseEntity.ok(ingestService.ingest(sensorId, epoch, firstSequence, records));
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            // Not 400: the forwarder would skip the batch and keep sending the rest
+            return error(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+    
+    @PostMapping("/replay")
+    public ResponseEntity<Void> replay(@RequestParam(defaultValue = "0") long from) {
+        applier.replayFrom(from);
+        return ResponseEntity.ok().build();
+    }
+    
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", message);
+        return ResponseEntity.status(status).body(error);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/capture/PcapReader.java
+package com.networkdiscovery.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming reader for classic pcap and pcapng capture files.
+ *
+ * <p>The file is memory-mapped one window at a time and frames are handed out
+ * as slices of the mapping, so memory use stays constant however large the
+ * capture is and no packet bytes are copied.
+ */
+public class PcapReader implements Closeable {
+    
+    public interface PacketHandler {
+        /**
+         * @param frame big-endian view of the captured bytes, valid only during the call
+         */
+        void onPacket(long timestampMicros, int linkType, ByteBuffer frame);
+    }
+    
+    private static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+    private static final int PCAPNG_SECTION_HEADER = 0x0A0D0D0A;
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    
+    private static final int BLOCK_INTERFACE_DESCRIPTION = 1;
+    private static final int BLOCK_PACKET = 2;
+    private static final int BLOCK_SIMPLE_PACKET = 3;
+    private static final int BLOCK_ENHANCED_PACKET = 6;
+    
+    // Smallest well-formed block of each type, header and trailing length included
+    private static final int MIN_INTERFACE_DESCRIPTION = 20;
+    private static final int MIN_PACKET = 32;
+    private static final int MIN_SIMPLE_PACKET = 16;
+    
+    private static final int MAX_INTERFACES = 256;
+    
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    
+    private MappedByteBuffer window;
+    private long windowStart;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+    
+    // pcapng per-interface link type and timestamp resolution (units per second)
+    private final int[] interfaceLinkTypes = new int[MAX_INTERFACES];
+    private final long[] interfaceTicksPerSecond = new long[MAX_INTERFACES];
+    private int interfaceCount;
+    
+    private long packets;
+    private long lastTimestampMicros;
+    
+    public PcapReader(Path file, int windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * Reads the whole file, returning the number of packets delivered.
+     */
+    public long read(PacketHandler handler) throws IOException {
+        if (fileSize < 24) {
+            throw new IOException("File too small to be a capture");
+        }
+        ensure(0, 12);
+        int magic = window.order(ByteOrder.BIG_ENDIAN).getInt(0);
+        if (magic == PCAPNG_SECTION_HEADER) {
+            readPcapng(handler);
+        } else {
+            readPcap(handler);
+        }
+        return packets;
+    }
+    
+    private void readPcap(PacketHandler handler) throws IOException {
+        int magic = window.order(ByteOrder.BIG_ENDIAN).getInt(0);
+        int swapped = Integer.reverseBytes(magic);
+        boolean nanos;
+        if (magic == PCAP_MAGIC_MICROS || magic == PCAP_MAGIC_NANOS) {
+            order = ByteOrder.BIG_ENDIAN;
+            nanos = magic == PCAP_MAGIC_NANOS;
+        } else if (swapped == PCAP_MAGIC_MICROS || swapped == PCAP_MAGIC_NANOS) {
+            order = ByteOrder.LITTLE_ENDIAN;
+            nanos = swapped == PCAP_MAGIC_NANOS;
+        } else {
+            throw new IOException(String.format("Not a pcap file (magic %08x)", magic));
+        }
+        
+        ensure(0, 24);
+        int linkType = getInt(20) & 0x0FFFFFFF;
+        
+        long position = 24;
+        while (position + 16 <= fileSize) {
+            ensure(position, 16);
+            long seconds = getInt(position) & 0xFFFFFFFFL;
+            long fraction = getInt(position + 4) & 0xFFFFFFFFL;
+            int capturedLength = getInt(position + 8);
+            if (capturedLength < 0 || position + 16 + capturedLength > fileSize) {
+                break; // truncated or corrupt tail
+            }
+            
+            // Frames larger than a window cannot be sliced out of one mapping and are skipped
+            if (capturedLength <= windowSize) {
+                ensure(position + 16, capturedLength);
+                long micros = seconds * 1_000_000L + (nanos ? fraction / 1000 : fraction);
+                deliver(handler, micros, linkType, position + 16, capturedLength);
+            }
+            position += 16 + capturedLength;
+        }
+    }
+    
+    private void readPcapng(PacketHandler handler) throws IOException {
+        long position = 0;
+        while (position + 12 <= fileSize) {
+            ensure(position, 12);
+            int type = window.order(ByteOrder.BIG_ENDIAN).getInt((int) (position - windowStart));
+            if (type == PCAPNG_SECTION_HEADER) {
+                // The byte-order magic decides how every block in this section is read
+                int bom = getIntBigEndian(position + 8);
+                order = bom == PCAPNG_BYTE_ORDER_MAGIC ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                interfaceCount = 0;
+            } else {
+                type = getInt(position);
+            }
+            
+            long length = getInt(position + 4) & 0xFFFFFFFFL;
+            if (length < 12 || position + length > fileSize) {
+                break;
+            }
+            if (length > windowSize || length < minimumLength(type)) {
+                position += length;
+                continue;
+            }
+            ensure(position, (int) length);
+            
+            switch (type) {
+                case BLOCK_INTERFACE_DESCRIPTION:
+                    readInterfaceDescription(position, (int) length);
+                    break;
+                case BLOCK_ENHANCED_PACKET:
+                    readEnhancedPacket(handler, position, (int) length, false);
+                    break;
+                case BLOCK_SIMPLE_PACKET:
+                    // No timestamp of its own, reuse the last one seen
+                    if (interfaceCount > 0) {
+                        int original = getInt(position + 8);
+                        int captured = (int) length - MIN_SIMPLE_PACKET;
+                        deliver(handler, lastTimestampMicros, interfaceLinkTypes[0], position + 12,
+                                original >= 0 ? Math.min(original, captured) : captured);
+                    }
+                    break;
+                case BLOCK_PACKET:
+                    readEnhancedPacket(handler, position, (int) length, true);
+                    break;
+                default:
+                    break; // statistics, name resolution, custom blocks
+            }
+            position += length;
+        }
+    }
+    
+    private static int minimumLength(int type) {
+        switch (type) {
+            case BLOCK_INTERFACE_DESCRIPTION:
+                return MIN_INTERFACE_DESCRIPTION;
+            case BLOCK_ENHANCED_PACKET:
+            case BLOCK_PACKET:
+                return MIN_PACKET;
+            case BLOCK_SIMPLE_PACKET:
+                return MIN_SIMPLE_PACKET;
+            default:
+                return 12;
+        }
+    }
+    
+    private void readInterfaceDescription(long position, int length) {
+        if (interfaceCount == MAX_INTERFACES) return;
+        int linkType = getShort(position + 8) & 0xFFFF;
+        long ticks = 1_000_000L;
+        
+        // Options start after link type, reserved and snaplen
+        long option = position + 16;
+        long end = position + length - 4;
+        while (option + 4 <= end) {
+            int code = getShort(option) & 0xFFFF;
+            int optionLength = getShort(option + 2) & 0xFFFF;
+            if (code == 0) break;
+            if (code == 9 && optionLength >= 1) { // if_tsresol
+                int resolution = window.get((int) (option + 4 - windowStart)) & 0xFF;
+                int exponent = resolution & 0x7F;
+                ticks = (resolution & 0x80) == 0 ? pow(10, exponent) : 1L << Math.min(exponent, 62);
+            }
+            option += 4 + ((optionLength + 3) & ~3);
+        }
+        
+        interfaceLinkTypes[interfaceCount] = linkType;
+        interfaceTicksPerSecond[interfaceCount] = ticks;
+        interfaceCount++;
+    }
+    
+    // The obsolete packet block has the same layout apart from a 2-byte interface id and drop count
+    private void readEnhancedPacket(PacketHandler handler, long position, int length, boolean obsolete) {
+        int interfaceId = obsolete ? getShort(position + 8) & 0xFFFF : getInt(position + 8);
+        if (interfaceId < 0 || interfaceId >= interfaceCount) return;
+        long ticks = ((getInt(position + 12) & 0xFFFFFFFFL) << 32) | (getInt(position + 16) & 0xFFFFFFFFL);
+        int capturedLength = getInt(position + 20);
+        if (capturedLength < 0 || capturedLength > length - MIN_PACKET) return;
+        
+        long perSecond = interfaceTicksPerSecond[interfaceId];
+        long micros = perSecond == 1_000_000L ? ticks
+                : (ticks / perSecond) * 1_000_000L + (ticks % perSecond) * 1_000_000L / perSecond;
+        deliver(handler, micros, interfaceLinkTypes[interfaceId], position + 28, capturedLength);
+    }
+    
+    private void deliver(PacketHandler handler, long micros, int linkType, long position, int length) {
+        int offset = (int) (position - windowStart);
+        ByteBuffer frame = window.slice(offset, length).order(ByteOrder.BIG_ENDIAN);
+        packets++;
+        lastTimestampMicros = micros;
+        handler.onPacket(micros, linkType, frame);
+    }
+    
+    // Remaps so that [position, position + length) lies inside the current window
+    private void ensure(long position, int length) throws IOException {
+        if (window != null && position >= windowStart && position + length <= windowStart + window.limit()) {
+            return;
+        }
+        long size = Math.min(windowSize, fileSize - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        windowStart = position;
+    }
+    
+    private int getInt(long position) {
+        return window.order(order).getInt((int) (position - windowStart));
+    }
+    
+    private int getIntBigEndian(long position) {
+        return window.order(ByteOrder.BIG_ENDIAN).getInt((int) (position - windowStart));
+    }
+    
+    private short getShort(long position) {
+        return window.order(order).getShort((int) (position - windowStart));
+    }
+    
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent && result <= Long.MAX_VALUE / base; i++) result *= base;
+        return result;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/capture/FrameDecoder.java
+package com.networkdiscovery.capture;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.observation.Observation;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts passive device sightings from captured frames: ARP senders and
+ * DHCP clients (with the hostname and vendor class they announce).
+ * Everything else is ignored.
+ */
+public class FrameDecoder {
+    
+    public static final int LINKTYPE_ETHERNET = 1;
+    public static final int LINKTYPE_LINUX_SLL = 113;
+    
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_ARP = 0x0806;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88A8;
+    
+    private static final int DHCP_MAGIC_COOKIE = 0x63825363;
+    private static final int DHCP_OPTION_HOSTNAME = 12;
+    private static final int DHCP_OPTION_REQUESTED_IP = 50;
+    private static final int DHCP_OPTION_VENDOR_CLASS = 60;
+    private static final int DHCP_OPTION_END = 255;
+    private static final int DHCP_OPTION_PAD = 0;
+    
+    private long arpFrames;
+    private long dhcpFrames;
+    
+    public Observation decode(long timestampMicros, int linkType, ByteBuffer frame) {
+        int etherType;
+        int offset;
+        if (linkType == LINKTYPE_ETHERNET) {
+            if (frame.limit() < 14) return null;
+            etherType = frame.getShort(12) & 0xFFFF;
+            offset = 14;
+            while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && frame.limit() >= offset + 4) {
+                etherType = frame.getShort(offset + 2) & 0xFFFF;
+                offset += 4;
+            }
+        } else if (linkType == LINKTYPE_LINUX_SLL) {
+            if (frame.limit() < 16) return null;
+            etherType = frame.getShort(14) & 0xFFFF;
+            offset = 16;
+        } else {
+            return null;
+        }
+        
+        long timestamp = timestampMicros / 1000;
+        if (etherType == ETHERTYPE_ARP) {
+            return decodeArp(timestamp, frame, offset);
+        } else if (etherType == ETHERTYPE_IPV4) {
+            return decodeDhcp(timestamp, frame, offset);
+        }
+        return null;
+    }
+    
+    public long getArpFrames() { return arpFrames; }
+    public long getDhcpFrames() { return dhcpFrames; }
+    
+    private Observation decodeArp(long timestamp, ByteBuffer frame, int offset) {
+        // Ethernet/IPv4 ARP only: htype 1, ptype 0x0800, hlen 6, plen 4
+        if (frame.limit() < offset + 28) return null;
+        if ((frame.getShort(offset) & 0xFFFF) != 1 || (frame.getShort(offset + 2) & 0xFFFF) != ETHERTYPE_IPV4
+                || frame.get(offset + 4) != 6 || frame.get(offset + 5) != 4) {
+            return null;
+        }
+        arpFrames++;
+        
+        long mac = readMac(frame, offset + 8);
+        int ip = frame.getInt(offset + 14);
+        // ARP probes announce 0.0.0.0 while the sender has no address yet
+        if (ip == 0 || mac == 0) return null;
+        return new Observation(timestamp, IpAddress.ofV4(ip), MacAddress.of(mac), true, Observation.NO_RTT);
+    }
+    
+    private Observation decodeDhcp(long timestamp, ByteBuffer frame, int offset) {
+        if (frame.limit() < offset + 20) return null;
+        int headerLength = (frame.get(offset) & 0x0F) * 4;
+        if ((frame.get(offset) >>> 4 & 0x0F) != 4 || frame.get(offset + 9) != 17) return null; // IPv4/UDP
+        if ((frame.getShort(offset + 6) & 0x1FFF) != 0) return null; // non-first fragment
+        
+        int udp = offset + headerLength;
+        if (frame.limit() < udp + 8) return null;
+        int sourcePort = frame.getShort(udp) & 0xFFFF;
+        int destinationPort = frame.getShort(udp + 2) & 0xFFFF;
+        if (!((sourcePort == 68 && destinationPort == 67) || (sourcePort == 67 && destinationPort == 68))) {
+            return null;
+        }
+        
+        int bootp = udp + 8;
+        if (frame.limit() < bootp + 240 || frame.getInt(bootp + 236) != DHCP_MAGIC_COOKIE) return null;
+        // Ethernet hardware addresses only
+        if (frame.get(bootp + 1) != 1 || frame.get(bootp + 2) != 6) return null;
+        dhcpFrames++;
+        
+        boolean reply = frame.get(bootp) == 2;
+        int clientIp = frame.getInt(bootp + 12);
+        int yourIp = frame.getInt(bootp + 16);
+        long mac = readMac(frame, bootp + 28);
+        
+        int requestedIp = 0;
+        String hostname = null;
+        String vendorClass = null;
+        int option = bootp + 240;
+        while (option < frame.limit()) {
+            int code = frame.get(option) & 0xFF;
+            if (code == DHCP_OPTION_END) break;
+            if (code == DHCP_OPTION_PAD) { option++; continue; }
+            if (option + 2 > frame.limit()) break;
+            int length = frame.get(option + 1) & 0xFF;
+            int value = option + 2;
+            if (value + length > frame.limit()) break;
+            
+            if (code == DHCP_OPTION_REQUESTED_IP && length == 4) {
+                requestedIp = frame.getInt(value);
+            } else if (code == DHCP_OPTION_HOSTNAME && !reply) {
+                hostname = readString(frame, value, length);
+            } else if (code == DHCP_OPTION_VENDOR_CLASS && !reply) {
+                vendorClass = readString(frame, value, length);
+            }
+            option = value + length;
+        }
+        
+        // Best evidence of the client's address: in-use, then leased, then requested
+        int ip = clientIp != 0 ? clientIp : reply ? yourIp : requestedIp;
+        if (mac == 0 || ip == 0) return null;
+        return new Observation(timestamp, IpAddress.ofV4(ip), MacAddress.of(mac), true, Observation.NO_RTT,
+                hostname, vendorClass);
+    }
+    
+    private static long readMac(ByteBuffer frame, int offset) {
+        return ((long) (frame.getShort(offset) & 0xFFFF) << 32) | (frame.getInt(offset + 2) & 0xFFFFFFFFL);
+    }
+    
+    private static String readString(ByteBuffer frame, int offset, int length) {
+        byte[] bytes = new byte[length];
+        frame.get(offset, bytes);
+        String value = new String(bytes, StandardCharsets.US_ASCII).trim();
+        // Some clients NUL-terminate their hostname
+        int nul = value.indexOf('\0');
+        value = nul >= 0 ? value.substring(0, nul) : value;
+        return value.isEmpty() ? null : value;
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/capture/CaptureIngestionResult.java
+package com.networkdiscovery.capture;
+
+public class CaptureIngestionResult {
+    private String file;
+    private long packets;
+    private long arpFrames;
+    private long dhcpFrames;
+    private long observations;
+    private long devicesUpdated;
+    private long elapsedMillis;
+    
+    public String getFile() { return file; }
+    public void setFile(String file) { this.file = file; }
+    
+    public long getPackets() { return packets; }
+    public void setPackets(long packets) { this.packets = packets; }
+    
+    public long getArpFrames() { return arpFrames; }
+    public void setArpFrames(long arpFrames) { this.arpFrames = arpFrames; }
+    
+    public long getDhcpFrames() { return dhcpFrames; }
+    public void setDhcpFrames(long dhcpFrames) { this.dhcpFrames = dhcpFrames; }
+    
+    public long getObservations() { return observations; }
+    public void setObservations(long observations) { this.observations = observations; }
+    
+    public long getDevicesUpdated() { return devicesUpdated; }
+    public void setDevicesUpdated(long devicesUpdated) { this.devicesUpdated = devicesUpdated; }
+    
+    public long getElapsedMillis() { return elapsedMillis; }
+    public void setElapsedMillis(long elapsedMillis) { this.elapsedMillis = elapsedMillis; }
+}
+
+// File: src/main/java/com/networkdiscovery/capture/CaptureJob.java
+package com.networkdiscovery.capture;
+
+// One capture ingestion running in the background, polled via GET /api/captures/jobs/{id}
+public class CaptureJob {
+    
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+    
+    private final String id;
+    private final String file;
+    private final long submittedAt;
+    private volatile Status status = Status.QUEUED;
+    private volatile CaptureIngestionResult result;
+    private volatile String error;
+    private volatile Long finishedAt;
+    
+    public CaptureJob(String id, String file) {
+        this.id = id;
+        this.file = file;
+        this.submittedAt = System.currentTimeMillis();
+    }
+    
+    void started() {
+        status = Status.RUNNING;
+    }
+    
+    void completed(CaptureIngestionResult result) {
+        this.result = result;
+        this.finishedAt = System.currentTimeMillis();
+        this.status = Status.COMPLETED;
+    }
+    
+    void failed(String error) {
+        this.error = error;
+        this.finishedAt = System.currentTimeMillis();
+        this.status = Status.FAILED;
+    }
+    
+    public String getId() { return id; }
+    public String getFile() { return file; }
+    public long getSubmittedAt() { return submittedAt; }
+    public Status getStatus() { return status; }
+    public CaptureIngestionResult getResult() { return result; }
+    public String getError() { return error; }
+    public Long getFinishedAt() { return finishedAt; }
+}
+
+// File: src/main/java/com/networkdiscovery/capture/CaptureNotFoundException.java
+package com.networkdiscovery.capture;
+
+// The requested file is missing or outside the capture directory
+public class CaptureNotFoundException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public CaptureNotFoundException(String message) {
+        super(message);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/capture/CaptureIngestionService.java
+package com.networkdiscovery.capture;
+
+import com.networkdiscovery.concurrency.Bulkheads;
+import com.networkdiscovery.concurrency.BulkheadFullException;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.observation.Observation;
+import com.networkdiscovery.service.NetworkScannerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Offline ingestion of SPAN-port captures. Passive ARP/DHCP sightings go
+ * through the same classification and persistence path as active scans.
+ * Captures are read on the capture bulkhead as jobs, never on a request thread.
+ */
+@Service
+public class CaptureIngestionService {
+    
+    private static final Logger log = LoggerFactory.getLogger(CaptureIngestionService.class);
+    
+    // Finished jobs are kept for polling until this many newer ones were submitted
+    private static final int MAX_JOBS = 100;
+    
+    @Autowired
+    private NetworkScannerService scannerService;
+    
+    @Autowired
+    private Bulkheads bulkheads;
+    
+    // Only files below this directory can be ingested
+    @Value("${network.capture.dir:captures}")
+    private String captureDirectory;
+    
+    @Value("${network.capture.window-bytes:67108864}")
+    private int windowBytes;
+    
+    // Distinct MACs buffered before a flush; bounds memory regardless of capture size
+    @Value("${network.capture.batch-size:2000}")
+    private int batchSize;
+    
+    private final Map<String, CaptureJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CaptureJob> eldest) {
+            return size() > MAX_JOBS;
+        }
+    });
+    
+    /**
+     * Queues the capture for ingestion and returns its job. A missing file is
+     * reported here; a full capture bulkhead throws BulkheadFullException.
+     */
+    public CaptureJob submit(String fileName) {
+        resolve(fileName);
+        CaptureJob job = new CaptureJob(UUID.randomUUID().toString(), fileName);
+        jobs.put(job.getId(), job);
+        try {
+            bulkheads.capture().trySubmit(() -> {
+                job.started();
+                try {
+                    job.completed(ingest(fileName));
+                } catch (Exception e) {
+                    log.error("Ingesting capture {} failed", fileName, e);
+                    job.failed(e.getMessage());
+                }
+                return null;
+            });
+        } catch (BulkheadFullException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+    
+    public CaptureJob getJob(String id) {
+        return jobs.get(id);
+    }
+    
+    public CaptureIngestionResult ingest(String fileName) throws IOException {
+        Path file = resolve(fileName);
+        
+        long start = System.currentTimeMillis();
+        FrameDecoder decoder = new FrameDecoder();
+        Map<MacAddress, Observation> pending = new LinkedHashMap<>();
+        CaptureIngestionResult result = new CaptureIngestionResult();
+        result.setFile(fileName);
+        
+        try (PcapReader reader = new PcapReader(file, windowBytes)) {
+            long packets = reader.read((timestampMicros, linkType, frame) -> {
+                Observation observation = decoder.decode(timestampMicros, linkType, frame);
+                if (observation == null) return;
+                
+                result.setObservations(result.getObservations() + 1);
+                pending.merge(observation.getMacAddress(), observation, CaptureIngestionService::merge);
+                if (pending.size() >= batchSize) {
+                    result.setDevicesUpdated(result.getDevicesUpdated() + flush(pending));
+                }
+            });
+            result.setPackets(packets);
+        }
+        result.setDevicesUpdated(result.getDevicesUpdated() + flush(pending));
+        
+        result.setArpFrames(decoder.getArpFrames());
+        result.setDhcpFrames(decoder.getDhcpFrames());
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        log.info("Ingested capture {}: {} packets, {} ARP, {} DHCP, {} unauthorized devices updated in {} ms",
+                fileName, result.getPackets(), result.getArpFrames(), result.getDhcpFrames(),
+                result.getDevicesUpdated(), result.getElapsedMillis());
+        return result;
+    }
+    
+    private Path resolve(String fileName) {
+        Path root = Paths.get(captureDirectory).toAbsolutePath().normalize();
+        Path file = root.resolve(fileName).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            throw new CaptureNotFoundException("No capture file " + fileName + " in " + root);
+        }
+        return file;
+    }
+    
+    private int flush(Map<MacAddress, Observation> pending) {
+        if (pending.isEmpty()) return 0;
+        int updated = scannerService.applyObservations(new ArrayList<>(pending.values())).size();
+        pending.clear();
+        return updated;
+    }
+    
+    // Latest sighting wins, but DHCP hints survive later ARP-only sightings
+    private static Observation merge(Observation previous, Observation next) {
+        Observation latest = next.getTimestamp() >= previous.getTimestamp() ? next : previous;
+        Observation other = latest == next ? previous : next;
+        if (latest.getHostname() != null || other.getHostname() == null) {
+            if (latest.getVendorClass() != null || other.getVendorClass() == null) {
+                return latest;
+            }
+        }
+        return new Observation(latest.getTimestamp(), latest.getIpAddress(), latest.getMacAddress(),
+                latest.isReachable(), latest.getRttMicros(),
+                latest.getHostname() != null ? latest.getHostname() : other.getHostname(),
+                latest.getVendorClass() != null ? latest.getVendorClass() : other.getVendorClass());
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/CaptureController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.capture.CaptureIngestionService;
+import com.networkdiscovery.capture.CaptureJob;
+import com.networkdiscovery.capture.CaptureNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.net.URI;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/captures")
+@CrossOrigin(origins = "*")
+public class CaptureController {
+    
+    @Autowired
+    private CaptureIngestionService ingestionService;
+    
+    // 202 with the job to poll; 429 while the capture bulkhead is full
+    @PostMapping("/ingest")
+    public ResponseEntity<CaptureJob> ingestCapture(@RequestBody Map<String, String> request) {
+        String file = request.get("file");
+        if (file == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            CaptureJob job = ingestionService.submit(file);
+            return ResponseEntity.accepted().location(URI.create("/api/captures/jobs/" + job.getId())).body(job);
+        } catch (CaptureNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+    
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<CaptureJob> getJob(@PathVariable String id) {
+        CaptureJob job = ingestionService.getJob(id);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/ProfilingController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.diagnostics.FlightRecorderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/profiling/recording")
+@CrossOrigin(origins = "*")
+public class ProfilingController {
+    
+    @Autowired
+    private FlightRecorderService flightRecorder;
+    
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(flightRecorder.getStatus());
+    }
+    
+    @PostMapping("/start")
+    public ResponseEntity<Map<String, Object>> start() {
+        try {
+            return ResponseEntity.ok(flightRecorder.start());
+        } catch (IllegalStateException e) {
+            return conflict(e);
+        }
+    }
+    
+    // Writes the file on the server; open it with JDK Mission Control or `jfr print`
+    @PostMapping("/dump")
+    public ResponseEntity<Map<String, Object>> dump() throws IOException {
+        try {
+            Path file = flightRecorder.dump();
+            Map<String, Object> result = new HashMap<>();
+            result.put("file", file.toString());
+            result.put("bytes", Files.size(file));
+            return ResponseEntity.ok(result);
+        } catch (IllegalStateException e) {
+            return conflict(e);
+        }
+    }
+    
+    @PostMapping("/stop")
+    public ResponseEntity<Map<String, Object>> stop() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("stopped", flightRecorder.stop());
+        return ResponseEntity.ok(result);
+    }
+    
+    private ResponseEntity<Map<String, Object>> conflict(IllegalStateException e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/ApiExceptionHandler.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.concurrency.BulkheadFullException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import java.util.Map;
+
+@RestControllerAdvice
+public class ApiExceptionHandler {
+    
+    @ExceptionHandler(BulkheadFullException.class)
+    public ResponseEntity<Map<String, Object>> handleBulkheadFull(BulkheadFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage()));
+    }
+    
+    // The device changed since the client's copy was read; it should reload and retry
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Map<String, Object>> handleConcurrentUpdate(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(Map.of("error", "Device was modified concurrently, reload and retry"));
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/AlertController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.alert.Alert;
+import com.networkdiscovery.alert.AlertService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/alerts")
+@CrossOrigin(origins = "*")
+public class AlertController {
+    
+    @Autowired
+    private AlertService alertService;
+    
+    @GetMapping("/recent")
+    public ResponseEntity<List<Alert>> getRecentAlerts() {
+        return ResponseEntity.ok(alertService.getRecentAlerts());
+    }
+    
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        return ResponseEntity.ok(alertService.getStats());
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/AuthorizedDeviceController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.dto.AuthorizedDeviceSummary;
+import com.networkdiscovery.dto.FieldSelection;
+import com.networkdiscovery.entity.AuthorizedDevice;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.repository.AuthorizedDeviceRepository;
+import com.networkdiscovery.search.DeviceQuery;
+import com.networkdiscovery.search.DeviceSearchIndex;
+import com.networkdiscovery.sync.DeviceSyncService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.web.bind.annotation.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/api/authorized-devices")
+@CrossOrigin(origins = "*")
+public class AuthorizedDeviceController {
+    
+    @Autowired
+    private AuthorizedDeviceRepository repository;
+    
+    @Autowired
+    private DeviceSearchIndex searchIndex;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private DeviceSyncService syncService;
+    
+    // Oracle rejects IN lists longer than 1000 elements
+    private static final int CHUNK_SIZE = 500;
+    
+    @GetMapping
+    public ResponseEntity<MappingJacksonValue> getAllAuthorizedDevices(
+            @RequestParam(required = false) String fields) {
+        List<AuthorizedDeviceSummary> devices = repository.findActiveSummaries();
+        return ResponseEntity.ok(FieldSelection.select(devices, fields));
+    }
+    
+    // Pass the "version" of the previous response as ?since= to get only what changed after it
+    @GetMapping("/changes")
+    public ResponseEntity<MappingJacksonValue> getChanges(
+            @RequestParam(defaultValue = "-1") long since, @RequestParam(required = false) String fields) {
+        return ResponseEntity.ok(FieldSelection.select(syncService.authorizedChanges(since), fields));
+    }
+    
+    @GetMapping("/{id}")
+    public ResponseEntity<AuthorizedDevice> getAuthorizedDevice(@PathVariable Long id) {
+        return ResponseEntity.of(repository.findById(id));
+    }
+    
+    @PostMapping
+    public ResponseEntity<AuthorizedDevice> addAuthorizedDevice(@RequestBody AuthorizedDevice device) {
+        device.setAddedBy("admin"); // In real app, get from security context
+        AuthorizedDevice saved = repository.save(device);
+        eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.AUTHORIZED, ChangeType.CREATED, saved.getId()));
+        return ResponseEntity.ok(saved);
+    }
+    
+    @PutMapping("/{id}")
+    public ResponseEntity<AuthorizedDevice> updateAuthorizedDevice(
+            @PathVariable Long id, @RequestBody AuthorizedDevice device) {
+        Optional<AuthorizedDevice> existing = repository.findById(id);
+        if (existing.isPresent()) {
+            device.setId(id);
+            AuthorizedDevice updated = repository.save(device);
+            eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.AUTHORIZED, ChangeType.UPDATED, id));
+            return ResponseEntity.ok(updated);
+        }
+        return ResponseEntity.notFound().build();
+    }
+    
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteAuthorizedDevice(@PathVariable Long id) {
+        Optional<AuthorizedDevice> device = repository.findById(id);
+        if (device.isPresent()) {
+            AuthorizedDevice dev = device.get();
+            dev.setIsActive(false);
+            repository.save(dev);
+            eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.AUTHORIZED, ChangeType.UPDATED, id));
+            return ResponseEntity.ok().build();
+        }
+        return ResponseEntity.notFound().build();
+    }
+    
+    @GetMapping("/search")
+    public ResponseEntity<MappingJacksonValue> searchDevices(
+            @RequestParam(required = false) String deviceType,
+            @RequestParam(required = false) String department,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String mac,
+            @RequestParam(required = false) String ip,
+            @RequestParam(required = false) String fields) {
+        
+        DeviceQuery query = new DeviceQuery();
+        query.setType(deviceType);
+        query.setDepartment(department);
+        query.setHostname(name);
+        query.setMac(mac);
+        query.setIp(ip);
+        
+        List<AuthorizedDeviceSummary> devices;
+        if (query.isEmpty()) {
+            devices = repository.findActiveSummaries();
+        } else {
+            List<Long> ids = searchIndex.search(DeviceKind.AUTHORIZED, query);
+            devices = new ArrayList<>(ids.size());
+            for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+                devices.addAll(repository.findSummariesByIdIn(ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()))));
+            }
+        }
+        
+        return ResponseEntity.ok(FieldSelection.select(devices, fields));
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/UnauthorizedDeviceController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.concurrency.Bulkheads;
+import com.networkdiscovery.dto.BulkTriageRequest;
+import com.networkdiscovery.dto.FieldSelection;
+import com.networkdiscovery.dto.UnauthorizedDeviceSummary;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.identity.DeviceIdentityResolver;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import com.networkdiscovery.search.DeviceQuery;
+import com.networkdiscovery.search.DeviceSearchIndex;
+import com.networkdiscovery.service.DeviceTriageService;
+import com.networkdiscovery.service.NetworkScannerService;
+import com.networkdiscovery.sync.DeviceSyncService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.web.bind.annotation.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntSupplier;
+
+@RestController
+@RequestMapping("/api/unauthorized-devices")
+@CrossOrigin(origins = "*")
+public class UnauthorizedDeviceController {
+    
+    @Autowired
+    private UnauthorizedDeviceRepository repository;
+    
+    @Autowired
+    private NetworkScannerService scannerService;
+    
+    @Autowired
+    private DeviceTriageService triageService;
+    
+    @Autowired
+    private DeviceSearchIndex searchIndex;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private Bulkheads bulkheads;
+    
+    @Autowired
+    private DeviceIdentityResolver identityResolver;
+    
+    @Autowired
+    private DeviceSyncService syncService;
+    
+    // Oracle rejects IN lists longer than 1000 elements
+    private static final int CHUNK_SIZE = 500;
+    
+    // List endpoints return summaries and take ?fields= to trim them further
+    @GetMapping
+    public ResponseEntity<MappingJacksonValue> getAllUnauthorizedDevices(
+            @RequestParam(required = false) String fields) {
+        List<UnauthorizedDeviceSummary> devices = repository.findAllSummaries();
+        return ResponseEntity.ok(FieldSelection.select(devices, fields));
+    }
+    
+    // Pass the "version" of the previous response as ?since= to get only what changed after it
+    @GetMapping("/changes")
+    public ResponseEntity<MappingJacksonValue> getChanges(
+            @RequestParam(defaultValue = "-1") long since, @RequestParam(required = false) String fields) {
+        return ResponseEntity.ok(FieldSelection.select(syncService.unauthorizedChanges(since), fields));
+    }
+    
+    @GetMapping("/{id}")
+    public ResponseEntity<UnauthorizedDevice> getUnauthorizedDevice(@PathVariable Long id) {
+        return ResponseEntity.of(repository.findById(id));
+    }
+    
+    @GetMapping("/by-risk/{riskLevel}")
+    public ResponseEntity<MappingJacksonValue> getDevicesByRisk(
+            @PathVariable RiskLevel riskLevel, @RequestParam(required = false) String fields) {
+        List<UnauthorizedDeviceSummary> devices = repository.findSummariesByRiskLevel(riskLevel);
+        return ResponseEntity.ok(FieldSelection.select(devices, fields));
+    }
+    
+    @GetMapping("/uninvestigated")
+    public ResponseEntity<MappingJacksonValue> getUninvestigatedDevices(
+            @RequestParam(required = false) String fields) {
+        List<UnauthorizedDeviceSummary> devices = repository.findSummariesByIsInvestigated(false);
+        return ResponseEntity.ok(FieldSelection.select(devices, fields));
+    }
+    
+    @GetMapping("/search")
+    public ResponseEntity<MappingJacksonValue> searchDevices(
             @RequestParam(required = false) String deviceType,
-            @RequestParam(required = false) String department) {
+            @RequestParam(required = false) String vendor,
+            @RequestParam(required = false) String hostname,
+            @RequestParam(required = false) String mac,
+            @RequestParam(required = false) String ip,
+            @RequestParam(defaultValue = "1000") int limit,
+            @RequestParam(required = false) String fields) {
+        
+        DeviceQuery query = new DeviceQuery();
+        query.setType(deviceType);
+        query.setVendor(vendor);
+        query.setHostname(hostname);
+        query.setMac(mac);
+        query.setIp(ip);
+        query.setLimit(limit);
+        
+        if (query.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<Long> ids = searchIndex.search(DeviceKind.UNAUTHORIZED, query);
+        List<UnauthorizedDeviceSummary> devices = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            devices.addAll(repository.findSummariesByIdIn(ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()))));
+        }
+        return ResponseEntity.ok(FieldSelection.select(devices, fields));
+    }
+    
+    // Runs on the scan bulkhead and frees the request thread; 429 while another scan is running
+    @PostMapping("/scan")
+    public CompletableFuture<ResponseEntity<List<UnauthorizedDevice>>> performUnauthorizedScan() {
+        return bulkheads.scan().trySubmit(scannerService::scanForUnauthorizedDevices)
+                .thenApply(ResponseEntity::ok);
+    }
+    
+    @PutMapping("/{id}/investigate")
+    public ResponseEntity<UnauthorizedDevice> markAsInvestigated(@PathVariable Long id) {
+        Optional<UnauthorizedDevice> device = repository.findById(id);
+        if (device.isPresent()) {
+            UnauthorizedDevice dev = device.get();
+            dev.setIsInvestigated(true);
+            repository.save(dev);
+            eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.UNAUTHORIZED, ChangeType.UPDATED, id));
+            return ResponseEntity.ok(dev);
+        }
+        return ResponseEntity.notFound().build();
+    }
+    
+    @PutMapping("/{id}/risk-level")
+    public ResponseEntity<UnauthorizedDevice> updateRiskLevel(
+            @PathVariable Long id, @RequestBody Map<String, String> request) {
+        Optional<UnauthorizedDevice> device = repository.findById(id);
+        if (device.isPresent()) {
+            UnauthorizedDevice dev = device.get();
+            dev.setRiskLevel(RiskLevel.valueOf(request.get("riskLevel")));
+            repository.save(dev);
+            eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.UNAUTHORIZED, ChangeType.UPDATED, id));
+            return ResponseEntity.ok(dev);
+        }
+        return ResponseEntity.notFound().build();
+    }
+    
+    @PutMapping("/{id}/notes")
+    public ResponseEntity<UnauthorizedDevice> updateNotes(
+            @PathVariable Long id, @RequestBody Map<String, String> request) {
+        Optional<UnauthorizedDevice> device = repository.findById(id);
+        if (device.isPresent()) {
+            UnauthorizedDevice dev = device.get();
+            dev.setNotes(request.get("notes"));
+            repository.save(dev);
+            eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.UNAUTHORIZED, ChangeType.UPDATED, id));
+            return ResponseEntity.ok(dev);
+        }
+        return ResponseEntity.notFound().build();
+    }
+    
+    @PutMapping("/bulk/investigate")
+    public ResponseEntity<Map<String, Object>> bulkMarkAsInvestigated(@RequestBody BulkTriageRequest request) {
+        return bulkResult(() -> triageService.markAsInvestigated(request));
+    }
+    
+    @PutMapping("/bulk/risk-level")
+    public ResponseEntity<Map<String, Object>> bulkUpdateRiskLevel(@RequestBody BulkTriageRequest request) {
+        if (request.getRiskLevel() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return bulkResult(() -> triageService.updateRiskLevel(request, request.getRiskLevel()));
+    }
+    
+    @PutMapping("/bulk/notes")
+    public ResponseEntity<Map<String, Object>> bulkUpdateNotes(@RequestBody BulkTriageRequest request) {
+        return bulkResult(() -> triageService.updateNotes(request, request.getNotes()));
+    }
+    
+    private ResponseEntity<Map<String, Object>> bulkResult(IntSupplier operation) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("affected", operation.getAsInt());
+        } catch (IllegalArgumentException e) {
+            result.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+        return ResponseEntity.ok(result);
+    }
+    
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getUnauthorizedStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalUnauthorized", repository.count());
+        stats.put("highRisk", repository.countByRiskLevel(RiskLevel.HIGH));
+        stats.put("uninvestigated", repository.countByIsInvestigated(false));
+        stats.put("macRotations", identityResolver.getStats());
+        return ResponseEntity.ok(stats);
+    }
+    
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteUnauthorizedDevice(@PathVariable Long id) {
+        if (!syncService.deleteUnauthorized(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        eventPublisher.publishEvent(DeviceChangeEvent.of(DeviceKind.UNAUTHORIZED, ChangeType.DELETED, id));
+        return ResponseEntity.ok().build();
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/controller/DashboardController.java
+package com.networkdiscovery.controller;
+
+import com.networkdiscovery.analytics.DetectionTrendService;
+import com.networkdiscovery.analytics.TrendWindow;
+import com.networkdiscovery.repository.AuthorizedDeviceRepository;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import com.networkdiscovery.entity.RiskLevel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.Map;
+import java.util.HashMap;
+
+@RestController
+@RequestMapping("/api/dashboard")
+@CrossOrigin(origins = "*")
+public class DashboardController {
+    
+    @Autowired
+    private AuthorizedDeviceRepository authorizedRepository;
+    
+    @Autowired
+    private UnauthorizedDeviceRepository unauthorizedRepository;
+    
+    @Autowired
+    private DetectionTrendService trendService;
+    
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getDashboardStats() {
+        Map<String, Object> stats = new HashMap<>();
+        
+        // Authorized device stats
+        stats.put("totalAuthorized", authorizedRepository.countByIsActive(true));
+        
+        // Unauthorized device stats
+        stats.put("totalUnauthorized", unauthorizedRepository.count());
+        stats.put("highRiskDevices", unauthorizedRepository.countByRiskLevel(RiskLevel.HIGH));
+        stats.put("criticalRiskDevices", unauthorizedRepository.countByRiskLevel(RiskLevel.CRITICAL));
+        stats.put("uninvestigatedDevices", unauthorizedRepository.countByIsInvestigated(false));
+        
+        return ResponseEntity.ok(stats);
+    }
+    
+    // Served from in-memory counters, independent of table size
+    @GetMapping("/trends")
+    public ResponseEntity<Map<String, Object>> getTrends(@RequestParam(defaultValue = "24h") String window) {
+        TrendWindow trendWindow;
+        try {
+            trendWindow = TrendWindow.parse(window);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+        return ResponseEntity.ok(trendService.getTrend(trendWindow));
+    }
+}
+
+// File: src/main/java/com/networkdiscovery/scheduler/NetworkScanScheduler.java
+package com.networkdiscovery.scheduler;
+
+import com.networkdiscovery.concurrency.BulkheadFullException;
+import com.networkdiscovery.concurrency.Bulkheads;
+import com.networkdiscovery.service.NetworkScannerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class NetworkScanScheduler {
+    
+    private static final Logger log = LoggerFactory.getLogger(NetworkScanScheduler.class);
+    
+    @Autowired
+    private NetworkScannerService scannerService;
+    
+    @Autowired
+    private Bulkheads bulkheads;
+    
+    // Hands the scan to its bulkhead so the shared scheduler thread stays free for other jobs
+    @Scheduled(fixedRateString = "${network.scan.interval-ms:300000}", // Every 5 minutes
+            initialDelayString = "${network.scan.initial-delay-ms:0}")
+    public void scheduledUnauthorizedDeviceScan() {
+        log.info("Running scheduled unauthorized device scan");
+        try {
+            bulkheads.scan().trySubmit(scannerService::scanForUnauthorizedDevices)
+                    .whenComplete((result, e) -> {
+                        if (e != null) {
+                            log.error("Scheduled scan failed", e);
+                        }
+                    });
+        } catch (BulkheadFullException e) {
+            log.info("Previous scan still running, skipping this one");
+        }
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/search/InvertedIndexTest.java
+package com.networkdiscovery.search;
+
+import com.networkdiscovery.search.InvertedIndex.Criterion;
+import com.networkdiscovery.search.InvertedIndex.Field;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InvertedIndexTest {
+    
+    private InvertedIndex index;
+    
+    @BeforeEach
+    void setUp() {
+        index = new InvertedIndex();
+        index.put(1L, terms("printer", "hp", "hp-laserjet-2"));
+        index.put(2L, terms("printer", "canon", "canon-mf"));
+        index.put(3L, terms("laptop", "hp", "hp-elitebook"));
+        index.put(4L, terms("laptop", "hpe", "hpe-ilo"));
+    }
+    
+    @Test
+    void prefixMatchesEveryTermStartingWithIt() {
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "hp")), 100)).containsExactly(1L, 3L, 4L);
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "hp-")), 100)).containsExactly(1L, 3L);
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "hp-laserjet")), 100)).containsExactly(1L);
+    }
+    
+    @Test
+    void exactCriterionDoesNotMatchLongerTerms() {
+        assertThat(index.search(List.of(exact(Field.VENDOR, "hp")), 100)).containsExactly(1L, 3L);
+        assertThat(index.search(List.of(prefix(Field.VENDOR, "hp")), 100)).containsExactly(1L, 3L, 4L);
+    }
+    
+    @Test
+    void criteriaAreIntersected() {
+        List<Criterion> criteria = List.of(exact(Field.TYPE, "laptop"), prefix(Field.HOSTNAME, "hp"));
+        
+        assertThat(index.search(criteria, 100)).containsExactly(3L, 4L);
+    }
+    
+    @Test
+    void prefixWithoutMatchesFindsNothing() {
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "zz")), 100)).isEmpty();
+        assertThat(index.search(List.of(exact(Field.TYPE, "printer"), prefix(Field.HOSTNAME, "zz")), 100)).isEmpty();
+    }
+    
+    @Test
+    void resultsAreSortedAndLimited() {
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "")), 2)).containsExactly(1L, 2L);
+    }
+    
+    @Test
+    void replacedAndRemovedDocumentsLeaveThePostings() {
+        index.put(1L, terms("printer", "hp", "office-printer"));
+        index.remove(3L);
+        
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "hp-")), 100)).isEmpty();
+        assertThat(index.search(List.of(prefix(Field.HOSTNAME, "office")), 100)).containsExactly(1L);
+        assertThat(index.size()).isEqualTo(3);
+    }
+    
+    private static Map<Field, Set<String>> terms(String type, String vendor, String hostname) {
+        Map<Field, Set<String>> terms = new EnumMap<>(Field.class);
+        terms.put(Field.TYPE, Set.of(type));
+        terms.put(Field.VENDOR, Set.of(vendor));
+        terms.put(Field.HOSTNAME, Set.of(hostname));
+        return terms;
+    }
+    
+    private static Criterion exact(Field field, String value) {
+        return new Criterion(field, value, false);
+    }
+    
+    private static Criterion prefix(Field field, String value) {
+        return new Criterion(field, value, true);
+    }
+}
+
+
+// File: src/test/java/com/networkdiscovery/observation/ObservationLogTest.java
+package com.networkdiscovery.observation;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class ObservationLogTest {
+    
+    private static final int SEGMENT_RECORDS = 4;
+    
+    @TempDir
+    Path dir;
+    
+    private ObservationLog log;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        log = open();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        log.close();
+    }
+    
+    @Test
+    void appendRollsSegmentsAndReadsAcrossThem() throws IOException {
+        assertThat(log.append(observations(0, 10))).isEqualTo(10);
+        
+        assertThat(segmentFiles()).hasSize(3);
+        assertThat(timestamps(log.read(0, 100))).containsExactlyElementsOf(timestamps(observations(0, 10)));
+        assertThat(timestamps(log.read(3, 3))).containsExactly(1003L, 1004L, 1005L);
+    }
+    
+    @Test
+    void recordsKeepEveryField() {
+        Observation v4 = new Observation(42L, IpAddress.parse("192.168.1.20"), MacAddress.parse("02:00:00:00:00:01"), true, 850);
+        Observation v6 = new Observation(43L, IpAddress.parse("fe80::1"), MacAddress.parse("00:1b:21:12:34:56"), false,
+                Observation.NO_RTT);
+        log.append(List.of(v4, v6));
+        
+        List<Observation> read = log.read(0, 10);
+        assertThat(read).hasSize(2);
+        assertThat(read.get(0).getIpAddress()).isEqualTo(v4.getIpAddress());
+        assertThat(read.get(0).getMacAddress()).isEqualTo(v4.getMacAddress());
+        assertThat(read.get(0).isReachable()).isTrue();
+        assertThat(read.get(0).getRttMicros()).isEqualTo(850);
+        assertThat(read.get(1).getIpAddress()).isEqualTo(v6.getIpAddress());
+        assertThat(read.get(1).isReachable()).isFalse();
+        assertThat(read.get(1).getRttMicros()).isEqualTo(Observation.NO_RTT);
+    }
+    
+    @Test
+    void restartResumesAfterTheLastRecord() throws IOException {
+        log.append(observations(0, 6));
+        log.commitCursor("applier", 5);
+        log.close();
+        
+        log = open();
+        assertThat(log.getWriteSequence()).isEqualTo(6);
+        assertThat(log.readCursor("applier")).isEqualTo(5);
+        assertThat(log.getFirstSequence()).isEqualTo(4);
+        assertThat(log.append(observations(6, 3))).isEqualTo(9);
+        assertThat(timestamps(log.read(5, 100))).containsExactlyElementsOf(timestamps(observations(5, 4)));
+    }
+    
+    @Test
+    void restartStopsAtATornRecord() throws IOException {
+        log.append(observations(0, 7));
+        log.close();
+        // Damage the last record of the newest segment, as a crash mid-write would
+        Path newest = segmentFiles().get(segmentFiles().size() - 1);
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x7F}), 2L * ObservationLog.RECORD_SIZE + 3);
+        }
+        
+        log = open();
+        assertThat(log.getWriteSequence()).isEqualTo(6);
+        assertThat(log.append(observations(6, 1))).isEqualTo(7);
+        assertThat(timestamps(log.read(0, 100))).containsExactlyElementsOf(timestamps(observations(0, 7)));
+    }
+    
+    @Test
+    void segmentsEveryCursorPassedAreDeleted() throws IOException {
+        log.append(observations(0, 14));
+        assertThat(segmentFiles()).hasSize(4);
+        
+        log.commitCursor("applier", 9);
+        
+        assertThat(log.getFirstSequence()).isEqualTo(8);
+        assertThat(segmentFiles()).hasSize(2);
+        assertThat(timestamps(log.read(0, 2))).containsExactly(1008L, 1009L);
+    }
+    
+    @Test
+    void emptyLogSkipsToTheGivenSequenceAndKeepsItAcrossRestarts() throws IOException {
+        log.skipTo(100);
+        assertThat(log.getFirstSequence()).isEqualTo(100);
+        assertThat(log.append(observations(0, 2))).isEqualTo(102);
+        
+        log.skipTo(500);
+        log.close();
+        log = open();
+        assertThat(log.getWriteSequence()).isEqualTo(102);
+        assertThat(timestamps(log.read(0, 10))).containsExactly(1000L, 1001L);
+    }
+    
+    @Test
+    void awaitCursorReturnsOnceTheConsumerCommits() throws Exception {
+        log.append(observations(0, 3));
+        Thread consumer = new Thread(() -> log.commitCursor("applier", 3));
+        
+        assertThat(log.awaitCursor("applier", 3, 10)).isFalse();
+        consumer.start();
+        assertThat(log.awaitCursor("applier", 3, 5000)).isTrue();
+        consumer.join();
+    }
+    
+    @Test
+    void batchesRoundTripAndRejectCorruption() {
+        List<Observation> batch = observations(0, 3);
+        byte[] records = ObservationLog.encodeBatch(batch);
+        
+        assertThat(timestamps(ObservationLog.decodeBatch(records))).containsExactlyElementsOf(timestamps(batch));
+        records[ObservationLog.RECORD_SIZE + 9] ^= 1;
+        assertThatIllegalArgumentException().isThrownBy(() -> ObservationLog.decodeBatch(records));
+    }
+    
+    private ObservationLog open() throws IOException {
+        ObservationLog opened = new ObservationLog();
+        ReflectionTestUtils.setField(opened, "directory", dir.toString());
+        ReflectionTestUtils.setField(opened, "segmentRecords", SEGMENT_RECORDS);
+        ReflectionTestUtils.setField(opened, "retainSegments", 1);
+        ReflectionTestUtils.setField(opened, "fsync", false);
+        opened.open();
+        return opened;
+    }
+    
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).sorted().collect(Collectors.toList());
+        }
+    }
+    
+    private static List<Observation> observations(int from, int count) {
+        List<Observation> observations = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            observations.add(new Observation(1000L + i, IpAddress.parse("10.0.0." + (i + 1)),
+                    MacAddress.of(0x001B21000000L + i), i % 2 == 0, 100 + i));
+        }
+        return observations;
+    }
+    
+    private static List<Long> timestamps(List<Observation> observations) {
+        return observations.stream().map(Observation::getTimestamp).collect(Collectors.toList());
+    }
+}
+
+
+// File: src/test/java/com/networkdiscovery/capture/Frames.java
+package com.networkdiscovery.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Ethernet frames as a capture would hold them
+final class Frames {
+    
+    static final long BROADCAST = 0xFFFF_FFFF_FFFFL;
+    
+    private Frames() {
+    }
+    
+    static byte[] arp(long senderMac, int senderIp, int targetIp) {
+        ByteBuffer frame = ethernet(BROADCAST, senderMac, 0x0806, 28);
+        frame.putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4).putShort((short) 1);
+        putMac(frame, senderMac);
+        frame.putInt(senderIp);
+        putMac(frame, 0);
+        frame.putInt(targetIp);
+        return frame.array();
+    }
+    
+    /**
+     * A DHCP message from client (op 1) or server (op 2). Hostname and vendor
+     * class may be null; requestedIp 0 leaves option 50 out.
+     */
+    static byte[] dhcp(int op, long clientMac, int clientIp, int yourIp, int requestedIp, String hostname,
+                       String vendorClass) {
+        ByteBuffer options = ByteBuffer.allocate(128);
+        options.putInt(0x63825363);
+        options.put((byte) 53).put((byte) 1).put((byte) (op == 1 ? 3 : 5));
+        if (requestedIp != 0) {
+            options.put((byte) 50).put((byte) 4).putInt(requestedIp);
+        }
+        putOption(options, 12, hostname);
+        putOption(options, 60, vendorClass);
+        options.put((byte) 255);
+        
+        int bootpLength = 236 + options.position();
+        ByteBuffer frame = ethernet(BROADCAST, clientMac, 0x0800, 20 + 8 + bootpLength);
+        // IPv4 header without options, UDP
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + 8 + bootpLength)).putShort((short) 0)
+                .putShort((short) 0).put((byte) 64).put((byte) 17).putShort((short) 0).putInt(0).putInt(-1);
+        frame.putShort((short) (op == 1 ? 68 : 67)).putShort((short) (op == 1 ? 67 : 68))
+                .putShort((short) (8 + bootpLength)).putShort((short) 0);
+        int bootp = frame.position();
+        frame.put((byte) op).put((byte) 1).put((byte) 6).put((byte) 0).putInt(0x1234).putInt(0);
+        frame.putInt(clientIp).putInt(yourIp).putInt(0).putInt(0);
+        putMac(frame, clientMac);
+        frame.position(bootp + 236);
+        frame.put(options.array(), 0, options.position());
+        return frame.array();
+    }
+    
+    static byte[] vlanTagged(byte[] frame, int vlan) {
+        ByteBuffer tagged = ByteBuffer.allocate(frame.length + 4);
+        tagged.put(frame, 0, 12).putShort((short) 0x8100).putShort((short) vlan).put(frame, 12, frame.length - 12);
+        return tagged.array();
+    }
+    
+    // Linux cooked capture (SLL) header in place of the Ethernet one
+    static byte[] linuxCooked(byte[] frame) {
+        ByteBuffer cooked = ByteBuffer.allocate(frame.length + 2);
+        cooked.putShort((short) 0).putShort((short) 1).putShort((short) 6);
+        cooked.put(frame, 6, 6).putShort((short) 0).put(frame, 12, frame.length - 12);
+        return cooked.array();
+    }
+    
+    static int ipv4(int a, int b, int c, int d) {
+        return a << 24 | b << 16 | c << 8 | d;
+    }
+    
+    private static ByteBuffer ethernet(long destination, long source, int etherType, int payloadLength) {
+        ByteBuffer frame = ByteBuffer.allocate(14 + payloadLength);
+        putMac(frame, destination);
+        putMac(frame, source);
+        frame.putShort((short) etherType);
+        return frame;
+    }
+    
+    private static void putMac(ByteBuffer buffer, long mac) {
+        buffer.putShort((short) (mac >>> 32)).putInt((int) mac);
+    }
+    
+    private static void putOption(ByteBuffer options, int code, String value) {
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            options.put((byte) code).put((byte) bytes.length).put(bytes);
+        }
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/capture/FrameDecoderTest.java
+package com.networkdiscovery.capture;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.observation.Observation;
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.networkdiscovery.capture.Frames.ipv4;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FrameDecoderTest {
+    
+    private static final long MAC = 0x001B21123456L;
+    
+    private final FrameDecoder decoder = new FrameDecoder();
+    
+    @Test
+    void arpSenderBecomesAnObservation() {
+        Observation observation = decode(FrameDecoder.LINKTYPE_ETHERNET,
+                Frames.arp(MAC, ipv4(192, 168, 1, 20), ipv4(192, 168, 1, 1)));
+        
+        assertThat(observation.getMacAddress()).isEqualTo(MacAddress.parse("00:1b:21:12:34:56"));
+        assertThat(observation.getIpAddress()).isEqualTo(IpAddress.parse("192.168.1.20"));
+        assertThat(observation.getTimestamp()).isEqualTo(1_700_000_000_123L);
+        assertThat(observation.isReachable()).isTrue();
+        assertThat(decoder.getArpFrames()).isEqualTo(1);
+    }
+    
+    @Test
+    void arpProbeWithoutAddressIsIgnored() {
+        assertThat(decode(FrameDecoder.LINKTYPE_ETHERNET, Frames.arp(MAC, 0, ipv4(192, 168, 1, 20)))).isNull();
+    }
+    
+    @Test
+    void vlanTagsAndCookedCapturesAreUnwrapped() {
+        byte[] arp = Frames.arp(MAC, ipv4(10, 0, 0, 7), ipv4(10, 0, 0, 1));
+        
+        assertThat(decode(FrameDecoder.LINKTYPE_ETHERNET, Frames.vlanTagged(Frames.vlanTagged(arp, 20), 300))
+                .getIpAddress()).isEqualTo(IpAddress.parse("10.0.0.7"));
+        assertThat(decode(FrameDecoder.LINKTYPE_LINUX_SLL, Frames.linuxCooked(arp))
+                .getMacAddress()).isEqualTo(MacAddress.of(MAC));
+    }
+    
+    @Test
+    void dhcpRequestCarriesHostnameAndVendorClass() {
+        Observation observation = decode(FrameDecoder.LINKTYPE_ETHERNET,
+                Frames.dhcp(1, MAC, 0, 0, ipv4(192, 168, 1, 50), "Johns-iPhone", "android-dhcp-13"));
+        
+        assertThat(observation.getIpAddress()).isEqualTo(IpAddress.parse("192.168.1.50"));
+        assertThat(observation.getHostname()).isEqualTo("Johns-iPhone");
+        assertThat(observation.getVendorClass()).isEqualTo("android-dhcp-13");
+        assertThat(decoder.getDhcpFrames()).isEqualTo(1);
+    }
+    
+    @Test
+    void dhcpClientAddressInUseWinsOverRequested() {
+        Observation observation = decode(FrameDecoder.LINKTYPE_ETHERNET,
+                Frames.dhcp(1, MAC, ipv4(192, 168, 1, 40), 0, ipv4(192, 168, 1, 50), null, null));
+        
+        assertThat(observation.getIpAddress()).isEqualTo(IpAddress.parse("192.168.1.40"));
+        assertThat(observation.getHostname()).isNull();
+    }
+    
+    @Test
+    void dhcpReplyUsesTheLeasedAddress() {
+        Observation observation = decode(FrameDecoder.LINKTYPE_ETHERNET,
+                Frames.dhcp(2, MAC, 0, ipv4(192, 168, 1, 60), 0, "server-name", null));
+        
+        assertThat(observation.getIpAddress()).isEqualTo(IpAddress.parse("192.168.1.60"));
+        assertThat(observation.getHostname()).isNull();
+    }
+    
+    @Test
+    void truncatedFramesAreIgnored() {
+        byte[] arp = Frames.arp(MAC, ipv4(10, 0, 0, 7), ipv4(10, 0, 0, 1));
+        byte[] dhcp = Frames.dhcp(1, MAC, 0, 0, ipv4(192, 168, 1, 50), "host", null);
+        
+        assertThat(decode(FrameDecoder.LINKTYPE_ETHERNET, Arrays.copyOf(arp, 30))).isNull();
+        assertThat(decode(FrameDecoder.LINKTYPE_ETHERNET, Arrays.copyOf(dhcp, 200))).isNull();
+        assertThat(decode(FrameDecoder.LINKTYPE_ETHERNET, Arrays.copyOf(arp, 10))).isNull();
+        assertThat(decode(105, arp)).isNull(); // 802.11
+    }
+    
+    private Observation decode(int linkType, byte[] frame) {
+        return decoder.decode(1_700_000_000_123_456L, linkType, ByteBuffer.wrap(frame));
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/capture/PcapReaderTest.java
+package com.networkdiscovery.capture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.networkdiscovery.capture.Frames.ipv4;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+
+class PcapReaderTest {
+    
+    private static final byte[] FIRST = Frames.arp(0x001B21000001L, ipv4(10, 0, 0, 1), ipv4(10, 0, 0, 9));
+    private static final byte[] SECOND = Frames.arp(0x020000000002L, ipv4(10, 0, 0, 2), ipv4(10, 0, 0, 9));
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void readsPcapInBothByteOrders() throws IOException {
+        for (ByteOrder order : List.of(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+            ByteBuffer file = pcapHeader(order, 0xA1B2C3D4);
+            pcapRecord(file, 1_700_000_000, 250_000, FIRST);
+            pcapRecord(file, 1_700_000_001, 5, SECOND);
+            
+            List<Packet> packets = read(file, 1 << 16);
+            
+            assertThat(packets).extracting(packet -> packet.micros)
+                    .containsExactly(1_700_000_000_250_000L, 1_700_000_001_000_005L);
+            assertThat(packets).extracting(packet -> packet.linkType).containsOnly(FrameDecoder.LINKTYPE_ETHERNET);
+            assertThat(packets.get(0).bytes).isEqualTo(FIRST);
+            assertThat(packets.get(1).bytes).isEqualTo(SECOND);
+        }
+    }
+    
+    @Test
+    void convertsNanosecondPcapTimestamps() throws IOException {
+        ByteBuffer file = pcapHeader(ByteOrder.LITTLE_ENDIAN, 0xA1B23C4D);
+        pcapRecord(file, 1_700_000_000, 123_456_789, FIRST);
+        
+        assertThat(read(file, 1 << 16)).extracting(packet -> packet.micros).containsExactly(1_700_000_000_123_456L);
+    }
+    
+    @Test
+    void stopsAtATruncatedPcapTail() throws IOException {
+        ByteBuffer file = pcapHeader(ByteOrder.LITTLE_ENDIAN, 0xA1B2C3D4);
+        pcapRecord(file, 1, 0, FIRST);
+        pcapRecord(file, 2, 0, SECOND);
+        // The second record lost its last bytes, as a capture cut off mid-write
+        file.position(file.position() - 10);
+        
+        List<Packet> packets = read(file, 1 << 16);
+        
+        assertThat(packets).hasSize(1);
+        assertThat(packets.get(0).bytes).isEqualTo(FIRST);
+    }
+    
+    @Test
+    void readsPcapngInBothByteOrders() throws IOException {
+        for (ByteOrder order : List.of(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+            ByteBuffer file = allocate(order);
+            sectionHeader(file);
+            interfaceDescription(file, FrameDecoder.LINKTYPE_ETHERNET, -1);
+            enhancedPacket(file, 0, 1_700_000_000_250_000L, FIRST);
+            simplePacket(file, SECOND);
+            
+            List<Packet> packets = read(file, 1 << 16);
+            
+            assertThat(packets).hasSize(2);
+            assertThat(packets.get(0).micros).isEqualTo(1_700_000_000_250_000L);
+            assertThat(packets.get(0).bytes).isEqualTo(FIRST);
+            // A simple packet has no timestamp and reuses the last one
+            assertThat(packets.get(1).micros).isEqualTo(1_700_000_000_250_000L);
+            assertThat(packets.get(1).bytes).isEqualTo(SECOND);
+        }
+    }
+    
+    @Test
+    void appliesPcapngTimestampResolution() throws IOException {
+        ByteBuffer file = allocate(ByteOrder.LITTLE_ENDIAN);
+        sectionHeader(file);
+        interfaceDescription(file, FrameDecoder.LINKTYPE_LINUX_SLL, 9);
+        enhancedPacket(file, 0, 1_700_000_000_123_456_789L, Frames.linuxCooked(FIRST));
+        
+        List<Packet> packets = read(file, 1 << 16);
+        
+        assertThat(packets).extracting(packet -> packet.micros).containsExactly(1_700_000_000_123_456L);
+        assertThat(packets).extracting(packet -> packet.linkType).containsExactly(FrameDecoder.LINKTYPE_LINUX_SLL);
+    }
+    
+    @Test
+    void stopsAtATruncatedPcapngTail() throws IOException {
+        ByteBuffer file = allocate(ByteOrder.LITTLE_ENDIAN);
+        sectionHeader(file);
+        interfaceDescription(file, FrameDecoder.LINKTYPE_ETHERNET, -1);
+        enhancedPacket(file, 0, 1, FIRST);
+        enhancedPacket(file, 0, 2, SECOND);
+        file.position(file.position() - 20);
+        
+        assertThat(read(file, 1 << 16)).hasSize(1);
+    }
+    
+    @Test
+    void skipsPcapngBlocksTooShortForTheirType() throws IOException {
+        ByteBuffer file = allocate(ByteOrder.BIG_ENDIAN);
+        sectionHeader(file);
+        interfaceDescription(file, FrameDecoder.LINKTYPE_ETHERNET, -1);
+        // An enhanced packet block of 28 bytes cannot hold its own fixed fields
+        file.putInt(6).putInt(28).putInt(0).putInt(0).putInt(0).putInt(0).putInt(28);
+        // Nor can a simple packet block of 12
+        file.putInt(3).putInt(12).putInt(12);
+        enhancedPacket(file, 0, 7, FIRST);
+        
+        assertThat(read(file, 1 << 16)).extracting(packet -> packet.micros).containsExactly(7L);
+    }
+    
+    @Test
+    void remapsSmallWindowsAndSkipsFramesLargerThanOne() throws IOException {
+        byte[] jumbo = new byte[200];
+        ByteBuffer file = pcapHeader(ByteOrder.BIG_ENDIAN, 0xA1B2C3D4);
+        for (int i = 0; i < 20; i++) {
+            pcapRecord(file, i, 0, i == 5 ? jumbo : FIRST);
+        }
+        
+        List<Packet> packets = read(file, 128);
+        
+        assertThat(packets).hasSize(19);
+        assertThat(packets).allSatisfy(packet -> assertThat(packet.bytes).isEqualTo(FIRST));
+    }
+    
+    @Test
+    void rejectsFilesThatAreNotCaptures() throws IOException {
+        ByteBuffer file = allocate(ByteOrder.BIG_ENDIAN);
+        file.put("definitely not a capture file".getBytes());
+        
+        assertThatIOException().isThrownBy(() -> read(file, 1 << 16));
+    }
+    
+    private List<Packet> read(ByteBuffer content, int windowSize) throws IOException {
+        Path file = dir.resolve("capture-" + System.nanoTime());
+        Files.write(file, Arrays.copyOf(content.array(), content.position()));
+        List<Packet> packets = new ArrayList<>();
+        try (PcapReader reader = new PcapReader(file, windowSize)) {
+            long count = reader.read((micros, linkType, frame) -> {
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                packets.add(new Packet(micros, linkType, bytes));
+            });
+            assertThat(count).isEqualTo(packets.size());
+        }
+        return packets;
+    }
+    
+    private static ByteBuffer allocate(ByteOrder order) {
+        return ByteBuffer.allocate(1 << 14).order(order);
+    }
+    
+    private static ByteBuffer pcapHeader(ByteOrder order, int magic) {
+        ByteBuffer file = allocate(order);
+        file.putInt(magic).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535)
+                .putInt(FrameDecoder.LINKTYPE_ETHERNET);
+        return file;
+    }
+    
+    private static void pcapRecord(ByteBuffer file, int seconds, int fraction, byte[] frame) {
+        file.putInt(seconds).putInt(fraction).putInt(frame.length).putInt(frame.length).put(frame);
+    }
+    
+    private static void sectionHeader(ByteBuffer file) {
+        file.putInt(0x0A0D0D0A).putInt(28).putInt(0x1A2B3C4D).putShort((short) 1).putShort((short) 0)
+                .putLong(-1).putInt(28);
+    }
+    
+    // tsresol < 0 leaves the option out (microseconds)
+    private static void interfaceDescription(ByteBuffer file, int linkType, int tsresol) {
+        int length = tsresol < 0 ? 20 : 32;
+        file.putInt(1).putInt(length).putShort((short) linkType).putShort((short) 0).putInt(65535);
+        if (tsresol >= 0) {
+            file.putShort((short) 9).putShort((short) 1).put((byte) tsresol).put(new byte[3]);
+            file.putShort((short) 0).putShort((short) 0);
+        }
+        file.putInt(length);
+    }
+    
+    private static void enhancedPacket(ByteBuffer file, int interfaceId, long ticks, byte[] frame) {
+        int padded = (frame.length + 3) & ~3;
+        int length = 32 + padded;
+        file.putInt(6).putInt(length).putInt(interfaceId).putInt((int) (ticks >>> 32)).putInt((int) ticks)
+                .putInt(frame.length).putInt(frame.length).put(frame).put(new byte[padded - frame.length])
+                .putInt(length);
+    }
+    
+    private static void simplePacket(ByteBuffer file, byte[] frame) {
+        int padded = (frame.length + 3) & ~3;
+        int length = 16 + padded;
+        file.putInt(3).putInt(length).putInt(frame.length).put(frame).put(new byte[padded - frame.length])
+                .putInt(length);
+    }
+    
+    private static class Packet {
+        final long micros;
+        final int linkType;
+        final byte[] bytes;
+        
+        Packet(long micros, int linkType, byte[] bytes) {
+            this.micros = micros;
+            this.linkType = linkType;
+            this.bytes = bytes;
+        }
+    }
+}
+
+
+// File: src/test/java/com/networkdiscovery/analytics/RollingCountersTest.java
+package com.networkdiscovery.analytics;
+
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class RollingCountersTest {
+    
+    private static final long MINUTE = 60_000L;
+    private static final long T0 = 1_700_000_040L * 1000; // on a minute boundary
+    
+    private final RollingCounters counters = new RollingCounters(Duration.ofMinutes(1), 5, 2);
+    
+    @Test
+    void countsPerBucketAndSeries() {
+        counters.add(T0, 0, 1);
+        counters.add(T0 + 59_999, 0, 2);
+        counters.add(T0 + MINUTE, 1, 5);
+        
+        long[][] snapshot = counters.snapshot(T0 + MINUTE, 2);
+        
+        assertThat(snapshot[0]).containsExactly(3, 0);
+        assertThat(snapshot[1]).containsExactly(0, 5);
+    }
+    
+    @Test
+    void bucketsLeaveTheWindowWhenTheirSlotIsReused() {
+        counters.add(T0, 0, 7);
+        counters.add(T0 + 5 * MINUTE, 0, 1); // same slot, five buckets later
+        
+        assertThat(counters.snapshot(T0 + 5 * MINUTE, 5)).isDeepEqualTo(new long[][] {
+                {0, 0}, {0, 0}, {0, 0}, {0, 0}, {1, 0}});
+    }
+    
+    @Test
+    void bucketsOlderThanTheWindowReadAsZeroBeforeTheirSlotIsReused() {
+        counters.add(T0, 0, 7);
+        
+        assertThat(counters.snapshot(T0 + 4 * MINUTE, 5)[0]).containsExactly(7, 0);
+        assertThat(counters.snapshot(T0 + 5 * MINUTE, 5)).isDeepEqualTo(new long[5][2]);
+        assertThat(counters.snapshot(T0 + 60 * MINUTE, 5)).isDeepEqualTo(new long[5][2]);
+    }
+    
+    @Test
+    void lateEventsForExpiredBucketsAreDropped() {
+        counters.add(T0 + 5 * MINUTE, 0, 1);
+        counters.add(T0, 0, 100); // its slot already holds a newer bucket
+        
+        assertThat(counters.snapshot(T0 + 5 * MINUTE, 5)[4]).containsExactly(1, 0);
+        assertThat(counters.snapshot(T0 + 4 * MINUTE, 5)[0]).containsExactly(0, 0);
+    }
+    
+    @Test
+    void snapshotIsACopy() {
+        counters.add(T0, 0, 1);
+        counters.snapshot(T0, 1)[0][0] = 99;
+        
+        assertThat(counters.snapshot(T0, 1)[0]).containsExactly(1, 0);
+    }
+    
+    @Test
+    void bucketStartAndLimits() {
+        assertThat(counters.bucketStart(T0 + 90_000, 0)).isEqualTo(T0 + MINUTE);
+        assertThat(counters.bucketStart(T0 + 90_000, 2)).isEqualTo(T0 - MINUTE);
+        assertThatIllegalArgumentException().isThrownBy(() -> counters.snapshot(T0, 6));
+    }
+}
+
+
+// File: src/test/java/com/networkdiscovery/identity/DeviceIdentityResolverTest.java
+package com.networkdiscovery.identity;
+
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.event.DeviceChangeEvent;
+import com.networkdiscovery.event.DeviceChangeEvent.ChangeType;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.event.DeviceDetectionEvent;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeviceIdentityResolverTest {
+    
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 3, 2, 12, 0);
+    private static final MacAddress NEW_MAC = MacAddress.parse("02:aa:00:00:00:99");
+    private static final IpAddress ADDRESS = IpAddress.parse("192.168.1.20");
+    
+    private DeviceIdentityResolver resolver;
+    
+    @BeforeEach
+    void setUp() {
+        resolver = new DeviceIdentityResolver();
+        ReflectionTestUtils.setField(resolver, "enabled", true);
+        ReflectionTestUtils.setField(resolver, "maxGapMinutes", 1440L);
+        ReflectionTestUtils.setField(resolver, "ipHandoverMinutes", 60L);
+        ReflectionTestUtils.setField(resolver, "minScore", 4);
+    }
+    
+    @Test
+    void hostnameAndAddressTogetherLink() {
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", "Pixel-7", NOW.minusMinutes(10));
+        
+        assertThat(resolve(ADDRESS, "pixel-7.lan")).isEqualTo(1L);
+        assertThat(resolver.getStats()).containsEntry("linkedRotations", 1L);
+    }
+    
+    @Test
+    void oneSignalAloneDoesNotLinkByDefault() {
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", null, NOW.minusMinutes(10));
+        seen(2L, "02:aa:00:00:00:02", "192.168.1.30", "pixel-7", NOW.minusMinutes(10));
+        
+        assertThat(resolve(ADDRESS, null)).isNull();
+        assertThat(resolve(IpAddress.parse("192.168.1.40"), "pixel-7")).isNull();
+        
+        ReflectionTestUtils.setField(resolver, "minScore", 2);
+        assertThat(resolve(ADDRESS, null)).isEqualTo(1L);
+        assertThat(resolve(IpAddress.parse("192.168.1.40"), "pixel-7")).isEqualTo(2L);
+    }
+    
+    @Test
+    void addressOnlyCountsWithinTheHandoverWindow() {
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", "pixel-7", NOW.minusMinutes(61));
+        
+        assertThat(resolve(ADDRESS, "pixel-7")).isNull();
+        
+        ReflectionTestUtils.setField(resolver, "minScore", 2);
+        assertThat(resolve(ADDRESS, "pixel-7")).isEqualTo(1L);
+    }
+    
+    @Test
+    void equalScoresAreNotLinked() {
+        ReflectionTestUtils.setField(resolver, "minScore", 2);
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.21", "android", NOW.minusMinutes(10));
+        seen(2L, "02:aa:00:00:00:02", "192.168.1.22", "android", NOW.minusMinutes(20));
+        
+        assertThat(resolve(ADDRESS, "android")).isNull();
+        assertThat(resolver.getStats()).containsEntry("ambiguous", 1L);
+    }
+    
+    @Test
+    void strongerCandidateWinsOverASharedHostname() {
+        ReflectionTestUtils.setField(resolver, "minScore", 2);
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", "android", NOW.minusMinutes(10));
+        seen(2L, "02:aa:00:00:00:02", "192.168.1.22", "android", NOW.minusMinutes(20));
+        
+        assertThat(resolve(ADDRESS, "android")).isEqualTo(1L);
+    }
+    
+    @Test
+    void devicesPresentInTheBatchAreNotCandidates() {
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", "pixel-7", NOW.minusMinutes(10));
+        
+        // Seen at or after the start of the batch
+        assertThat(resolver.resolve(NEW_MAC, ADDRESS, "pixel-7", NOW, NOW.minusMinutes(10), Set.of(), Set.of()))
+                .isNull();
+        // Its own MAC is part of the batch
+        assertThat(resolver.resolve(NEW_MAC, ADDRESS, "pixel-7", NOW, NOW,
+                Set.of(NEW_MAC, MacAddress.parse("02:aa:00:00:00:01")), Set.of())).isNull();
+        // Its row was already matched in the batch
+        assertThat(resolver.resolve(NEW_MAC, ADDRESS, "pixel-7", NOW, NOW, Set.of(NEW_MAC), Set.of(1L))).isNull();
+        
+        assertThat(resolver.resolve(NEW_MAC, ADDRESS, "pixel-7", NOW, NOW, Set.of(NEW_MAC), Set.of(2L))).isEqualTo(1L);
+    }
+    
+    @Test
+    void onlyRandomizedMacsTakePart() {
+        seen(1L, "00:1b:21:00:00:01", "192.168.1.20", "pixel-7", NOW.minusMinutes(10));
+        seen(2L, "02:aa:00:00:00:02", "192.168.1.30", "laptop", NOW.minusMinutes(10));
+        
+        assertThat(resolver.size()).isEqualTo(1);
+        assertThat(resolve(ADDRESS, "pixel-7")).isNull();
+        assertThat(resolver.resolve(MacAddress.parse("00:1b:21:00:00:99"), IpAddress.parse("192.168.1.30"),
+                "laptop", NOW, NOW, Set.of(), Set.of())).isNull();
+    }
+    
+    @Test
+    void devicesWithoutALastSightingAreNotCandidates() {
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", "pixel-7", null);
+        
+        assertThat(resolver.size()).isZero();
+        assertThat(resolve(ADDRESS, "pixel-7")).isNull();
+    }
+    
+    @Test
+    void deletedDevicesLeaveTheIndex() {
+        seen(1L, "02:aa:00:00:00:01", "192.168.1.20", "pixel-7", NOW.minusMinutes(10));
+        
+        resolver.onDeviceChange(new DeviceChangeEvent(DeviceKind.UNAUTHORIZED, ChangeType.DELETED, List.of(1L)));
+        
+        assertThat(resolver.size()).isZero();
+        assertThat(resolve(ADDRESS, "pixel-7")).isNull();
+    }
+    
+    private Long resolve(IpAddress ipAddress, String hostname) {
+        return resolver.resolve(NEW_MAC, ipAddress, hostname, NOW, NOW, Set.of(NEW_MAC), Set.of());
+    }
+    
+    private void seen(Long id, String mac, String ip, String hostname, LocalDateTime at) {
+        UnauthorizedDevice device = new UnauthorizedDevice(IpAddress.parse(ip), MacAddress.parse(mac));
+        device.setId(id);
+        device.setHostname(hostname);
+        resolver.onDetection(new DeviceDetectionEvent(List.of(new Detection(device, false, null, at))));
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/net/MacAddressTest.java
+package com.networkdiscovery.net;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MacAddressTest {
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"00:1A:2b:3C:4d:5E", "00-1a-2b-3c-4d-5e", "001a.2b3c.4d5e", "001a2b3c4d5e"})
+    void parsesEveryNotationToTheSameValue(String text) {
+        MacAddress mac = MacAddress.parse(text);
+        
+        assertThat(mac.toLong()).isEqualTo(0x001A2B3C4D5EL);
+        assertThat(mac).hasToString("00:1a:2b:3c:4d:5e");
+        assertThat(mac.oui()).isEqualTo(0x001A2B);
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"", "00:1a:2b:3c:4d", "00:1a:2b:3c:4d:5e:6f", "00:1a:2b:3c:4d:5g", "00 1a 2b 3c 4d 5e"})
+    void rejectsMalformedInput(String text) {
+        assertThatThrownBy(() -> MacAddress.parse(text)).isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    @Test
+    void nullParsesToNull() {
+        assertThat(MacAddress.parse(null)).isNull();
+    }
+    
+    @Test
+    void flagsLocallyAdministeredAndMulticastAddresses() {
+        assertThat(MacAddress.parse("00:1a:2b:3c:4d:5e").isLocallyAdministered()).isFalse();
+        assertThat(MacAddress.parse("da:a1:19:00:00:01").isLocallyAdministered()).isTrue();
+        assertThat(MacAddress.parse("01:00:5e:00:00:fb").isMulticast()).isTrue();
+        assertThat(MacAddress.parse("01:00:5e:00:00:fb").isLocallyAdministered()).isFalse();
+    }
+    
+    @Test
+    void ofKeepsOnlyTheLow48Bits() {
+        assertThat(MacAddress.of(0xFFFF_001A_2B3C_4D5EL)).isEqualTo(MacAddress.parse("00:1a:2b:3c:4d:5e"));
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/net/IpAddressTest.java
+package com.networkdiscovery.net;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IpAddressTest {
+    
+    @Test
+    void parsesIpv4() {
+        IpAddress ip = IpAddress.parse(" 192.168.1.20 ");
+        
+        assertThat(ip.isV4()).isTrue();
+        assertThat(ip.toV4Int()).isEqualTo(0xC0A80114);
+        assertThat(ip.toBytes()).containsExactly(192, 168, 1, 20);
+        assertThat(ip).hasToString("192.168.1.20");
+    }
+    
+    @Test
+    void parsesIpv6AndRendersRfc5952Form() {
+        IpAddress ip = IpAddress.parse("FE80:0000:0000:0000:0211:22FF:FE33:4455%eth0");
+        
+        assertThat(ip.isV4()).isFalse();
+        assertThat(ip.toBytes()).hasSize(16);
+        assertThat(ip).hasToString("fe80::211:22ff:fe33:4455");
+        assertThat(IpAddress.parse("2001:db8:0:0:1:0:0:1")).hasToString("2001:db8::1:0:0:1");
+        assertThat(IpAddress.parse("::1")).hasToString("::1");
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"", "192.168.1", "192.168.1.256", "192.168..1", "192.168.1.1.1", "10.0.0.x",
+        "printer.local", "fe80::zz", "1:2:3:4:5:6:7:8:9"})
+    void rejectsMalformedInput(String text) {
+        assertThatThrownBy(() -> IpAddress.parse(text)).isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    @Test
+    void rejectsByteArraysOfTheWrongLength() {
+        assertThatThrownBy(() -> IpAddress.of(new byte[5])).isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    @Test
+    void ipv4IsNotAnIpv6Address() {
+        IpAddress mapped = IpAddress.parse("::ffff:10.0.0.1");
+        
+        assertThat(IpAddress.parse("10.0.0.1").isV4()).isTrue();
+        assertThat(IpAddress.ofV4(0x0A000001)).isEqualTo(IpAddress.parse("10.0.0.1"));
+        assertThatThrownBy(() -> IpAddress.parse("fe80::1").toV4Int()).isInstanceOf(IllegalStateException.class);
+        assertThat(mapped.isV4()).isTrue(); // InetAddress unwraps IPv4-mapped addresses
+    }
+    
+    @Test
+    void ordersIpv4BeforeIpv6AndNumericallyWithinAFamily() {
+        assertThat(IpAddress.parse("10.0.0.2")).isLessThan(IpAddress.parse("10.0.0.10"));
+        assertThat(IpAddress.parse("200.0.0.1")).isLessThan(IpAddress.parse("::1"));
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/net/Ipv4SubnetTest.java
+package com.networkdiscovery.net;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class Ipv4SubnetTest {
+    
+    @Test
+    void masksTheNetworkAddressAndMapsOffsets() {
+        Ipv4Subnet subnet = Ipv4Subnet.parse("192.168.1.77/24");
+        
+        assertThat(subnet).hasToString("192.168.1.0/24");
+        assertThat(subnet.size()).isEqualTo(256);
+        assertThat(subnet.firstHostOffset()).isEqualTo(1);
+        assertThat(subnet.lastHostOffset()).isEqualTo(254);
+        assertThat(subnet.offsetOf(IpAddress.parse("192.168.1.20").toV4Int())).isEqualTo(20);
+        assertThat(subnet.addressAt(20)).isEqualTo(IpAddress.parse("192.168.1.20"));
+        assertThat(subnet.contains(IpAddress.parse("192.168.2.1"))).isFalse();
+        assertThat(subnet.contains(IpAddress.parse("fe80::1"))).isFalse();
+    }
+    
+    @Test
+    void pointToPointAndSingleHostBlocksHaveNoNetworkOrBroadcast() {
+        assertThat(Ipv4Subnet.parse("10.0.0.0/31").firstHostOffset()).isZero();
+        assertThat(Ipv4Subnet.parse("10.0.0.0/31").lastHostOffset()).isEqualTo(1);
+        assertThat(Ipv4Subnet.parse("10.0.0.5").size()).isEqualTo(1);
+    }
+    
+    @Test
+    void acceptsASlash16AndRejectsAnythingWider() {
+        assertThat(Ipv4Subnet.parse("10.0.0.0/16").size()).isEqualTo(65536);
+        assertThatThrownBy(() -> Ipv4Subnet.parse("10.0.0.0/15")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Ipv4Subnet.parse("10.0.0.0/8")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Ipv4Subnet.parse("10.0.0.0/33")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Ipv4Subnet.parse("fe80::/64")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/entity/AddressConvertersTest.java
+package com.networkdiscovery.entity;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.Ipv6AddressSet;
+import com.networkdiscovery.net.MacAddress;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AddressConvertersTest {
+    
+    @Test
+    void macRoundTripsThroughItsNumericColumn() {
+        MacAddressConverter converter = new MacAddressConverter();
+        MacAddress mac = MacAddress.parse("00:1a:2b:3c:4d:5e");
+        
+        assertThat(converter.convertToDatabaseColumn(mac)).isEqualTo(0x001A2B3C4D5EL);
+        assertThat(converter.convertToEntityAttribute(converter.convertToDatabaseColumn(mac))).isEqualTo(mac);
+        assertThat(converter.convertToDatabaseColumn(null)).isNull();
+        assertThat(converter.convertToEntityAttribute(null)).isNull();
+    }
+    
+    @Test
+    void ipRoundTripsThroughItsRawColumn() {
+        IpAddressConverter converter = new IpAddressConverter();
+        IpAddress v4 = IpAddress.parse("10.1.2.3");
+        IpAddress v6 = IpAddress.parse("2001:db8::1");
         
-        List<AuthorizedDevice> devices;
-        if (deviceType != null) {
-            devices = repository.findByDeviceType(deviceType);
-        } else if (department != null) {
-            devices = repository.findByDepartment(department);
-        } else {
-            devices = repository.findByIsActive(true);
-        }
+        assertThat(converter.convertToDatabaseColumn(v4)).containsExactly(10, 1, 2, 3);
+        assertThat(converter.convertToEntityAttribute(converter.convertToDatabaseColumn(v4))).isEqualTo(v4);
+        assertThat(converter.convertToEntityAttribute(converter.convertToDatabaseColumn(v6))).isEqualTo(v6);
+        assertThat(converter.convertToDatabaseColumn(null)).isNull();
+        assertThat(converter.convertToEntityAttribute(null)).isNull();
+    }
+    
+    @Test
+    void ipv6SetRoundTripsAndStoresEmptyAsNull() {
+        Ipv6AddressSetConverter converter = new Ipv6AddressSetConverter();
+        Ipv6AddressSet set = Ipv6AddressSet.EMPTY
+            .with(IpAddress.parse("fe80::1"))
+            .with(IpAddress.parse("2001:db8::1"));
+        
+        byte[] column = converter.convertToDatabaseColumn(set);
         
-        return ResponseEntity.ok(devices);
+        assertThat(column).hasSize(32);
+        assertThat(converter.convertToEntityAttribute(column).toList()).containsExactlyElementsOf(set.toList());
+        assertThat(converter.convertToDatabaseColumn(Ipv6AddressSet.EMPTY)).isNull();
+        assertThat(converter.convertToEntityAttribute(null).isEmpty()).isTrue();
     }
 }
 
-// File: src/main/java/com/networkdiscovery/controller/UnauthorizedDeviceController.java
-package com.networkdiscovery.controller;
+// File: src/test/java/com/networkdiscovery/discovery/Ipv6NeighborSourceTest.java
+package com.networkdiscovery.discovery;
+
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.service.ArpEntry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Ipv6NeighborSourceTest {
+    
+    private final Ipv6NeighborSource source = new Ipv6NeighborSource();
+    
+    @Test
+    void parsesLinuxIpNeighOutput() {
+        assertEntry(source.parseLine("fe80::1 dev eth0 lladdr 00:1b:21:12:34:56 router REACHABLE"),
+                "fe80::1", "00:1b:21:12:34:56", true);
+        assertEntry(source.parseLine("2001:db8::5 dev eth0 lladdr 1e:2a:3b:4d:5e:6f STALE"),
+                "2001:db8::5", "1e:2a:3b:4d:5e:6f", false);
+        assertEntry(source.parseLine("2001:db8::7 dev wlan0 lladdr 00:23:24:00:00:07 DELAY"),
+                "2001:db8::7", "00:23:24:00:00:07", true);
+    }
+    
+    @Test
+    void skipsLinuxEntriesWithoutAUsableAddress() {
+        assertThat(source.parseLine("fe80::9 dev eth0 INCOMPLETE")).isNull();
+        assertThat(source.parseLine("fe80::a dev eth0 FAILED")).isNull();
+        assertThat(source.parseLine("ff02::fb dev eth0 lladdr 33:33:00:00:00:fb NOARP")).isNull();
+    }
+    
+    @Test
+    void parsesWindowsNetshOutput() {
+        assertEntry(source.parseLine("fe80::1                                       00-1b-21-12-34-56  Reachable (Router)"),
+                "fe80::1", "00:1b:21:12:34:56", true);
+        assertEntry(source.parseLine("fe80::5c2a:3bff:fe4d:5e6f%12                  1e-2a-3b-4d-5e-6f  Reachable"),
+                "fe80::5c2a:3bff:fe4d:5e6f", "1e:2a:3b:4d:5e:6f", true);
+        assertEntry(source.parseLine("2001:db8::5                                   1e-2a-3b-4d-5e-6f  Stale (Router)"),
+                "2001:db8::5", "1e:2a:3b:4d:5e:6f", false);
+        assertEntry(source.parseLine("2001:db8::6                                   00-23-24-00-00-06  Unreachable"),
+                "2001:db8::6", "00:23:24:00:00:06", false);
+    }
+    
+    @Test
+    void skipsWindowsHeadersAndPlaceholderEntries() {
+        assertThat(source.parseLine("Interface 12: Ethernet")).isNull();
+        assertThat(source.parseLine("Internet Address                              Physical Address   Type")).isNull();
+        assertThat(source.parseLine("--------------------------------------------  -----------------  -----------")).isNull();
+        assertThat(source.parseLine("fe80::9                                       00-00-00-00-00-00  Unreachable")).isNull();
+        assertThat(source.parseLine("ff02::1                                       33-33-00-00-00-01  Permanent")).isNull();
+    }
+    
+    private static void assertEntry(ArpEntry entry, String ip, String mac, boolean reachable) {
+        assertThat(entry).isNotNull();
+        assertThat(entry.getIpAddress()).isEqualTo(IpAddress.parse(ip));
+        assertThat(entry.getMacAddress()).isEqualTo(MacAddress.parse(mac));
+        assertThat(entry.getReachable()).isEqualTo(reachable);
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/alert/AlertServiceTest.java
+package com.networkdiscovery.alert;
 
-import com.networkdiscovery.entity.UnauthorizedDevice;
 import com.networkdiscovery.entity.RiskLevel;
-import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
-import com.networkdiscovery.service.NetworkScannerService;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.*;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.event.DeviceDetectionEvent;
+import com.networkdiscovery.event.DeviceDetectionEvent.Detection;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.time.*;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.stream.Collectors;
 
-@RestController
-@RequestMapping("/api/unauthorized-devices")
-@CrossOrigin(origins = "*")
-public class UnauthorizedDeviceController {
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AlertServiceTest {
     
-    @Autowired
-    private UnauthorizedDeviceRepository repository;
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 3, 2, 9, 0);
     
-    @Autowired
-    private NetworkScannerService scannerService;
+    private final MutableClock clock = new MutableClock();
+    private final List<AlertBatch> delivered = new ArrayList<>();
+    private AlertService service;
     
-    @GetMapping
-    public ResponseEntity<List<UnauthorizedDevice>> getAllUnauthorizedDevices() {
-        List<UnauthorizedDevice> devices = repository.findAll();
-        return ResponseEntity.ok(devices);
+    @BeforeEach
+    void setUp() {
+        service = new AlertService();
+        ReflectionTestUtils.setField(service, "sinks", List.<AlertSink>of(delivered::add));
+        ReflectionTestUtils.setField(service, "clock", clock);
+        ReflectionTestUtils.setField(service, "dedupWindowMinutes", 60L);
+        ReflectionTestUtils.setField(service, "absenceMinutes", 30L);
+        ReflectionTestUtils.setField(service, "batchesPerMinute", 1.0);
+        ReflectionTestUtils.setField(service, "burst", 1);
+        ReflectionTestUtils.setField(service, "batchSize", 100);
+        ReflectionTestUtils.setField(service, "maxPending", 3);
+        service.init();
     }
     
-    @GetMapping("/by-risk/{riskLevel}")
-    public ResponseEntity<List<UnauthorizedDevice>> getDevicesByRisk(@PathVariable RiskLevel riskLevel) {
-        List<UnauthorizedDevice> devices = repository.findByRiskLevel(riskLevel);
-        return ResponseEntity.ok(devices);
+    @Test
+    void repeatsInsideTheDedupWindowAreSuppressed() {
+        detect(1, RiskLevel.MEDIUM, true, null, T0);
+        detect(1, RiskLevel.MEDIUM, true, null, T0.plusMinutes(1));
+        clock.advance(Duration.ofMinutes(59));
+        detect(1, RiskLevel.MEDIUM, true, null, T0.plusMinutes(59));
+        
+        assertThat(service.getStats()).containsEntry("raised", 1L).containsEntry("deduplicated", 2L);
+        
+        clock.advance(Duration.ofMinutes(1));
+        detect(1, RiskLevel.MEDIUM, true, null, T0.plusMinutes(60));
+        assertThat(service.getStats()).containsEntry("raised", 2L);
     }
     
-    @GetMapping("/uninvestigated")
-    public ResponseEntity<List<UnauthorizedDevice>> getUninvestigatedDevices() {
-        List<UnauthorizedDevice> devices = repository.findByIsInvestigated(false);
-        return ResponseEntity.ok(devices);
+    @Test
+    void onlyStateChangesRaiseAlerts() {
+        detect(1, RiskLevel.MEDIUM, true, null, T0);
+        detect(1, RiskLevel.MEDIUM, false, T0, T0.plusMinutes(5));
+        detect(1, RiskLevel.HIGH, false, T0.plusMinutes(5), T0.plusMinutes(10));
+        detect(1, RiskLevel.HIGH, false, T0.plusMinutes(10), T0.plusMinutes(50));
+        
+        assertThat(service.getStats()).containsEntry("detections", 4L).containsEntry("raised", 3L);
     }
     
-    @PostMapping("/scan")
-    public ResponseEntity<List<UnauthorizedDevice>> performUnauthorizedScan() {
-        List<UnauthorizedDevice> newDevices = scannerService.scanForUnauthorizedDevices();
-        return ResponseEntity.ok(newDevices);
+    @Test
+    void pendingAlertsCoalescePerMacAndFlushAsOneBatch() {
+        detect(1, RiskLevel.MEDIUM, true, null, T0);
+        detect(1, RiskLevel.HIGH, false, T0, T0.plusMinutes(1));
+        detect(2, RiskLevel.LOW, false, T0, T0.plusMinutes(1));
+        detect(2, RiskLevel.HIGH, false, T0.plusMinutes(1), T0.plusMinutes(2));
+        detect(2, RiskLevel.HIGH, false, T0.plusMinutes(2), T0.plusMinutes(40));
+        
+        service.flush();
+        
+        assertThat(delivered).hasSize(1);
+        // The new-device alert is kept over the later risk change; the reappearance replaces the risk change
+        assertThat(types(delivered.get(0))).containsExactly(Alert.Type.NEW_DEVICE, Alert.Type.REAPPEARED);
+        assertThat(service.getStats()).containsEntry("raised", 4L).containsEntry("delivered", 2L)
+                .containsEntry("pending", 0);
     }
     
-    @PutMapping("/{id}/investigate")
-    public ResponseEntity<UnauthorizedDevice> markAsInvestigated(@PathVariable Long id) {
-        Optional<UnauthorizedDevice> device = repository.findById(id);
-        if (device.isPresent()) {
-            UnauthorizedDevice dev = device.get();
-            dev.setIsInvestigated(true);
-            repository.save(dev);
-            return ResponseEntity.ok(dev);
+    @Test
+    void flushesAreRateLimitedAndReportDroppedAlerts() {
+        for (int mac = 1; mac <= 4; mac++) {
+            detect(mac, RiskLevel.MEDIUM, true, null, T0);
         }
-        return ResponseEntity.notFound().build();
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        
+        service.flush();
+        assertThat(delivered).hasSize(1);
+        assertThat(delivered.get(0).getAlerts()).hasSize(2);
+        assertThat(delivered.get(0).getSuppressed()).isEqualTo(1);
+        
+        service.flush();
+        assertThat(delivered).hasSize(1);
+        
+        clock.advance(Duration.ofMinutes(1));
+        service.flush();
+        assertThat(delivered).hasSize(2);
+        assertThat(delivered.get(1).getAlerts()).hasSize(1);
+        assertThat(delivered.get(1).getSuppressed()).isZero();
+        assertThat(service.getRecentAlerts()).hasSize(3);
     }
     
-    @PutMapping("/{id}/risk-level")
-    public ResponseEntity<UnauthorizedDevice> updateRiskLevel(
-            @PathVariable Long id, @RequestBody Map<String, String> request) {
-        Optional<UnauthorizedDevice> device = repository.findById(id);
-        if (device.isPresent()) {
-            UnauthorizedDevice dev = device.get();
-            dev.setRiskLevel(RiskLevel.valueOf(request.get("riskLevel")));
-            repository.save(dev);
-            return ResponseEntity.ok(dev);
-        }
-        return ResponseEntity.notFound().build();
+    private void detect(int mac, RiskLevel risk, boolean created, LocalDateTime previousLastSeen, LocalDateTime at) {
+        UnauthorizedDevice device = new UnauthorizedDevice(IpAddress.ofV4(0x0A000000 + mac), MacAddress.of(0x001B21000000L + mac));
+        device.setId((long) mac);
+        device.setRiskLevel(risk);
+        service.onDetection(new DeviceDetectionEvent(List.of(new Detection(device, created, previousLastSeen, at))));
     }
     
-    @PutMapping("/{id}/notes")
-    public ResponseEntity<UnauthorizedDevice> updateNotes(
-            @PathVariable Long id, @RequestBody Map<String, String> request) {
-        Optional<UnauthorizedDevice> device = repository.findById(id);
-        if (device.isPresent()) {
-            UnauthorizedDevice dev = device.get();
-            dev.setNotes(request.get("notes"));
-            repository.save(dev);
-            return ResponseEntity.ok(dev);
+    private static List<Alert.Type> types(AlertBatch batch) {
+        return batch.getAlerts().stream().map(Alert::getType).collect(Collectors.toList());
+    }
+    
+    private static class MutableClock extends Clock {
+        
+        private Instant now = Instant.parse("2026-03-02T09:00:00Z");
+        
+        void advance(Duration duration) {
+            now = now.plus(duration);
         }
-        return ResponseEntity.notFound().build();
+        
+        @Override
+        public Instant instant() { return now; }
+        
+        @Override
+        public ZoneId getZone() { return ZoneOffset.UTC; }
+        
+        @Override
+        public Clock withZone(ZoneId zone) { return this; }
+    }
+}
+
+// File: src/test/java/com/networkdiscovery/service/ScannerStateTest.java
+package com.networkdiscovery.service;
+
+import com.networkdiscovery.entity.DeviceStatus;
+import com.networkdiscovery.entity.RiskLevel;
+import com.networkdiscovery.entity.UnauthorizedDevice;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.Ipv4Subnet;
+import com.networkdiscovery.net.MacAddress;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScannerStateTest {
+    
+    private static final String CIDR = "192.168.1.0/24";
+    private static final MacAddress AUTHORIZED = MacAddress.parse("02:00:00:00:00:01");
+    private static final MacAddress ROGUE = MacAddress.parse("02:00:00:00:00:02");
+    
+    @TempDir
+    Path dir;
+    
+    private Path file;
+    private long now;
+    
+    @BeforeEach
+    void setUp() {
+        file = dir.resolve("scanner-state.bin");
+        now = System.currentTimeMillis();
     }
     
-    @GetMapping("/stats")
-    public ResponseEntity<Map<String, Object>> getUnauthorizedStats() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalUnauthorized", repository.count());
-        stats.put("highRisk", repository.findByRiskLevel(RiskLevel.HIGH).size());
-        stats.put("uninvestigated", repository.findByIsInvestigated(false).size());
-        return ResponseEntity.ok(stats);
+    @Test
+    void checkpointRestoresProbeStateAndMemos() {
+        writeCheckpoint();
+        
+        ScannerState restored = restore();
+        
+        assertThat(restored.getLiveHostCount()).isEqualTo(1);
+        assertThat(restored.timeoutFor(5)).isEqualTo(160);
+        assertThat(restored.timeoutFor(7)).isEqualTo(1000);
+        // One miss on scan 1: probed again on even scans only
+        assertThat(restored.shouldProbe(6)).isFalse();
+        assertThat(restored.shouldProbe(7)).isTrue();
+        
+        restored.checkAuthorization("fingerprint");
+        int generation = restored.getAuthorizationGeneration();
+        ScannerState.DeviceMemo authorized = restored.getDevice(AUTHORIZED);
+        assertThat(authorized.authorized).isTrue();
+        assertThat(authorized.authorizationGeneration).isEqualTo(generation);
+        assertThat(authorized.ipAddress).isEqualTo(IpAddress.parse("192.168.1.5"));
+        assertThat(authorized.lastSeen).isEqualTo(now);
+        
+        ScannerState.DeviceMemo rogue = restored.getDevice(ROGUE);
+        assertThat(rogue.authorized).isFalse();
+        assertThat(rogue.deviceId).isEqualTo(42L);
+        assertThat(rogue.status).isEqualTo(DeviceStatus.ONLINE);
+        assertThat(rogue.riskLevel).isEqualTo(RiskLevel.HIGH);
+        assertThat(rogue.vendor).isEqualTo("Acme");
+        assertThat(rogue.hostname).isNull();
     }
     
-    @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteUnauthorizedDevice(@PathVariable Long id) {
-        repository.deleteById(id);
-        return ResponseEntity.ok().build();
+    @Test
+    void changedFingerprintVoidsRestoredVerdicts() {
+        writeCheckpoint();
+        
+        ScannerState restored = restore();
+        restored.checkAuthorization("another fingerprint");
+        
+        assertThat(restored.getDevice(AUTHORIZED).authorizationGeneration)
+                .isNotEqualTo(restored.getAuthorizationGeneration());
+    }
+    
+    @Test
+    void truncatedFileStartsCold() throws IOException {
+        writeCheckpoint();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        
+        assertCold(restore());
+    }
+    
+    @Test
+    void fileShorterThanHeaderStartsCold() throws IOException {
+        writeCheckpoint();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, 8));
+        
+        assertCold(restore());
+    }
+    
+    @Test
+    void checksumMismatchStartsCold() throws IOException {
+        writeCheckpoint();
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 8] ^= 0x01;
+        Files.write(file, bytes);
+        
+        assertCold(restore());
+    }
+    
+    @Test
+    void unknownVersionStartsCold() throws IOException {
+        writeCheckpoint();
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[5] = 2; // format version, after the 4-byte magic
+        Files.write(file, bytes);
+        
+        assertCold(restore());
+    }
+    
+    @Test
+    void coldStateStillScans() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3});
+        ScannerState state = restore();
+        
+        state.beginScan(Ipv4Subnet.parse(CIDR), CIDR);
+        state.recordProbe(9, 1000);
+        
+        assertThat(state.getLiveHostCount()).isEqualTo(1);
+    }
+    
+    private void writeCheckpoint() {
+        ScannerState state = newState();
+        state.beginScan(Ipv4Subnet.parse(CIDR), CIDR);
+        state.recordProbe(5, 20_000);
+        state.recordProbe(6, -1);
+        state.checkAuthorization("fingerprint");
+        int generation = state.getAuthorizationGeneration();
+        state.rememberAuthorized(AUTHORIZED, IpAddress.parse("192.168.1.5"), now, generation);
+        
+        UnauthorizedDevice device = new UnauthorizedDevice();
+        device.setId(42L);
+        device.setMacAddress(ROGUE);
+        device.setIpAddress(IpAddress.parse("192.168.1.6"));
+        device.setStatus(DeviceStatus.ONLINE);
+        device.setRiskLevel(RiskLevel.HIGH);
+        device.setVendor("Acme");
+        state.rememberUnauthorized(device, now, generation);
+        
+        state.checkpoint();
+        assertThat(file).exists();
+    }
+    
+    private ScannerState restore() {
+        ScannerState state = newState();
+        state.restore();
+        return state;
+    }
+    
+    private ScannerState newState() {
+        ScannerState state = new ScannerState();
+        ReflectionTestUtils.setField(state, "enabled", true);
+        ReflectionTestUtils.setField(state, "file", file.toString());
+        ReflectionTestUtils.setField(state, "forgetAfterDays", 7L);
+        ReflectionTestUtils.setField(state, "maxBackoffScans", 16);
+        ReflectionTestUtils.setField(state, "probeTimeoutMillis", 1000);
+        ReflectionTestUtils.setField(state, "minProbeTimeoutMillis", 50);
+        return state;
+    }
+    
+    private static void assertCold(ScannerState state) {
+        assertThat(state.getLiveHostCount()).isZero();
+        assertThat(state.getDevice(AUTHORIZED)).isNull();
+        assertThat(state.getDevice(ROGUE)).isNull();
     }
 }
 
-// File: src/main/java/com/networkdiscovery/controller/DashboardController.java
-package com.networkdiscovery.controller;
+// File: src/test/java/com/networkdiscovery/edge/UpstreamForwarderTest.java
+package com.networkdiscovery.edge;
 
-import com.networkdiscovery.repository.AuthorizedDeviceRepository;
-import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
-import com.networkdiscovery.entity.RiskLevel;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networkdiscovery.net.IpAddress;
+import com.networkdiscovery.net.MacAddress;
+import com.networkdiscovery.observation.Observation;
+import com.networkdiscovery.observation.ObservationIngestService;
+import com.networkdiscovery.observation.ObservationLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
-@RestController
-@RequestMapping("/api/dashboard")
-@CrossOrigin(origins = "*")
-public class DashboardController {
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the forwarder against a stand-in central instance: a JDK HTTP server
+ * that hands each batch to a real ingest service and log.
+ */
+class UpstreamForwarderTest {
     
-    @Autowired
-    private AuthorizedDeviceRepository authorizedRepository;
+    private static final long INTERVAL_MILLIS = 20;
     
-    @Autowired
-    private UnauthorizedDeviceRepository unauthorizedRepository;
+    @TempDir
+    Path dir;
     
-    @GetMapping("/stats")
-    public ResponseEntity<Map<String, Object>> getDashboardStats() {
-        Map<String, Object> stats = new HashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int failStatus;
+    private volatile boolean appendBeforeFailing;
+    
+    private HttpServer upstream;
+    private ObservationLog edgeLog;
+    private ObservationLog centralLog;
+    private ObservationIngestService ingestService;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        edgeLog = openLog(dir.resolve("edge"));
+        centralLog = openLog(dir.resolve("central"));
+        ingestService = new ObservationIngestService();
+        ReflectionTestUtils.setField(ingestService, "observationLog", centralLog);
+        ReflectionTestUtils.setField(ingestService, "directory", dir.resolve("central").toString());
+        ReflectionTestUtils.setField(ingestService, "ownSensorId", "central");
         
-        // Authorized device stats
-        stats.put("totalAuthorized", authorizedRepository.findByIsActive(true).size());
+        upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        upstream.createContext("/api/observations", this::handle);
+        upstream.start();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        upstream.stop(0);
+        edgeLog.close();
+        centralLog.close();
+    }
+    
+    @Test
+    void forwardsInBatchesAndAdvancesTheCursorOnEachAck() throws IOException {
+        UpstreamForwarder forwarder = forwarder("branch-01");
+        edgeLog.append(observations(0, 10));
         
-        // Unauthorized device stats
-        stats.put("totalUnauthorized", unauthorizedRepository.count());
-        stats.put("highRiskDevices", unauthorizedRepository.findByRiskLevel(RiskLevel.HIGH).size());
-        stats.put("criticalRiskDevices", unauthorizedRepository.findByRiskLevel(RiskLevel.CRITICAL).size());
-        stats.put("uninvestigatedDevices", unauthorizedRepository.findByIsInvestigated(false).size());
+        forwarder.forward();
         
-        return ResponseEntity.ok(stats);
+        assertThat(requests).hasValue(3);
+        assertThat(edgeLog.readCursor(UpstreamForwarder.CURSOR)).isEqualTo(10);
+        assertThat(timestamps(centralLog.read(0, 100))).containsExactlyElementsOf(timestamps(observations(0, 10)));
+        assertThat(forwarder.getStatus()).containsEntry("forwarded", 10L).containsEntry("backlog", 0L);
+        
+        edgeLog.append(observations(10, 2));
+        forwarder.forward();
+        
+        assertThat(requests).hasValue(4);
+        assertThat(centralLog.getWriteSequence()).isEqualTo(12);
+    }
+    
+    @Test
+    void failedUpstreamIsRetriedAfterBackoff() throws Exception {
+        UpstreamForwarder forwarder = forwarder("branch-01");
+        edgeLog.append(observations(0, 6));
+        failStatus = 503;
+        
+        forwarder.forward();
+        
+        assertThat(requests).hasValue(1);
+        assertThat(edgeLog.readCursor(UpstreamForwarder.CURSOR)).isZero();
+        assertThat(forwarder.getStatus()).containsEntry("consecutiveFailures", 1).containsEntry("backlog", 6L);
+        assertThat(forwarder.getStatus().get("lastError")).isNotNull();
+        
+        // Still backing off: no request goes out
+        forwarder.forward();
+        assertThat(requests).hasValue(1);
+        
+        failStatus = 0;
+        Thread.sleep(4 * INTERVAL_MILLIS);
+        forwarder.forward();
+        
+        assertThat(edgeLog.readCursor(UpstreamForwarder.CURSOR)).isEqualTo(6);
+        assertThat(centralLog.getWriteSequence()).isEqualTo(6);
+        assertThat(forwarder.getStatus()).containsEntry("consecutiveFailures", 0).containsEntry("lastError", null);
+    }
+    
+    @Test
+    void batchResentAfterALostAckIsNotAppendedTwice() throws Exception {
+        UpstreamForwarder forwarder = forwarder("branch-01");
+        edgeLog.append(observations(0, 4));
+        failStatus = 503;
+        appendBeforeFailing = true;
+        
+        forwarder.forward();
+        assertThat(centralLog.getWriteSequence()).isEqualTo(4);
+        assertThat(edgeLog.readCursor(UpstreamForwarder.CURSOR)).isZero();
+        
+        failStatus = 0;
+        Thread.sleep(4 * INTERVAL_MILLIS);
+        forwarder.forward();
+        
+        assertThat(requests).hasValue(2);
+        assertThat(edgeLog.readCursor(UpstreamForwarder.CURSOR)).isEqualTo(4);
+        assertThat(centralLog.getWriteSequence()).isEqualTo(4);
+    }
+    
+    @Test
+    void refusalStopsForwardingWithTheCursorInPlace() throws IOException {
+        UpstreamForwarder forwarder = forwarder("branch-01");
+        edgeLog.append(observations(0, 4));
+        failStatus = 403;
+        
+        forwarder.forward();
+        failStatus = 0;
+        forwarder.forward();
+        
+        assertThat(requests).hasValue(1);
+        assertThat(edgeLog.readCursor(UpstreamForwarder.CURSOR)).isZero();
+        assertThat(forwarder.getStatus()).containsEntry("stopped", true);
+        assertThat(centralLog.getWriteSequence()).isZero();
+    }
+    
+    @Test
+    void batchWithTheReceiversOwnSensorIdIsRefused() throws IOException {
+        UpstreamForwarder forwarder = forwarder("central");
+        edgeLog.append(observations(0, 4));
+        
+        forwarder.forward();
+        
+        assertThat(centralLog.getWriteSequence()).isZero();
+        assertThat(forwarder.getStatus()).containsEntry("stopped", true);
+        assertThat((String) forwarder.getStatus().get("lastRejection")).startsWith("409");
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] records = exchange.getRequestBody().readAllBytes();
+        int status = 200;
+        Map<String, Object> body;
+        try {
+            if (failStatus != 0 && !appendBeforeFailing) {
+                status = failStatus;
+                body = Map.of("error", "unavailable");
+            } else {
+                body = ingestService.ingest(exchange.getRequestHeaders().getFirst("X-Sensor-Id"),
+                        Long.parseLong(exchange.getRequestHeaders().getFirst("X-Sensor-Epoch")),
+                        Long.parseLong(exchange.getRequestHeaders().getFirst("X-First-Sequence")), records);
+                if (failStatus != 0) {
+                    // Appended, but the answer is lost on the way back
+                    status = failStatus;
+                    appendBeforeFailing = false;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = Map.of("error", e.getMessage());
+        } catch (IllegalStateException e) {
+            status = 409;
+            body = Map.of("error", e.getMessage());
+        }
+        byte[] response = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+    
+    private UpstreamForwarder forwarder(String sensorId) throws IOException {
+        UpstreamForwarder forwarder = new UpstreamForwarder();
+        ReflectionTestUtils.setField(forwarder, "observationLog", edgeLog);
+        ReflectionTestUtils.setField(forwarder, "restTemplateBuilder", new RestTemplateBuilder());
+        ReflectionTestUtils.setField(forwarder, "upstreamUrl", "http://127.0.0.1:" + upstream.getAddress().getPort());
+        ReflectionTestUtils.setField(forwarder, "sensorId", sensorId);
+        ReflectionTestUtils.setField(forwarder, "batchSize", 4);
+        ReflectionTestUtils.setField(forwarder, "intervalMillis", INTERVAL_MILLIS);
+        ReflectionTestUtils.setField(forwarder, "maxBackoffMillis", 2 * INTERVAL_MILLIS);
+        ReflectionTestUtils.setField(forwarder, "timeoutMillis", 5000L);
+        ReflectionTestUtils.setField(forwarder, "maxBacklog", 1000L);
+        ReflectionTestUtils.setField(forwarder, "directory", dir.resolve("edge").toString());
+        forwarder.init();
+        return forwarder;
+    }
+    
+    private static ObservationLog openLog(Path directory) throws IOException {
+        ObservationLog log = new ObservationLog();
+        ReflectionTestUtils.setField(log, "directory", directory.toString());
+        ReflectionTestUtils.setField(log, "segmentRecords", 64);
+        ReflectionTestUtils.setField(log, "retainSegments", 1);
+        ReflectionTestUtils.setField(log, "fsync", false);
+        log.open();
+        return log;
+    }
+    
+    private static List<Observation> observations(int from, int count) {
+        List<Observation> observations = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            observations.add(new Observation(1000L + i, IpAddress.parse("10.0.1." + (i + 1)),
+                    MacAddress.of(0x001B21000100L + i), true, 100 + i));
+        }
+        return observations;
+    }
+    
+    private static List<Long> timestamps(List<Observation> observations) {
+        return observations.stream().map(Observation::getTimestamp).collect(Collectors.toList());
     }
 }
 
-// File: src/main/java/com/networkdiscovery/scheduler/NetworkScanScheduler.java
-package com.networkdiscovery.scheduler;
+// File: src/test/java/com/networkdiscovery/sync/DeviceSyncServiceTest.java
+package com.networkdiscovery.sync;
 
-import com.networkdiscovery.service.NetworkScannerService;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.stereotype.Component;
+import com.networkdiscovery.dto.UnauthorizedDeviceSummary;
+import com.networkdiscovery.entity.DeviceTombstone;
+import com.networkdiscovery.event.DeviceChangeEvent.DeviceKind;
+import com.networkdiscovery.repository.AuthorizedDeviceRepository;
+import com.networkdiscovery.repository.DeviceTombstoneRepository;
+import com.networkdiscovery.repository.UnauthorizedDeviceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
-@Component
-public class NetworkScanScheduler {
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class DeviceSyncServiceTest {
     
-    private static final Logger log = LoggerFactory.getLogger(NetworkScanScheduler.class);
+    private static final long WATERMARK = 50;
+    private static final long HORIZON = 20;
     
-    @Autowired
-    private NetworkScannerService scannerService;
+    private final ChangeVersions changeVersions = mock(ChangeVersions.class);
+    private final UnauthorizedDeviceRepository unauthorizedRepository = mock(UnauthorizedDeviceRepository.class);
+    private final DeviceTombstoneRepository tombstoneRepository = mock(DeviceTombstoneRepository.class);
+    private DeviceSyncService service;
     
-    @Scheduled(fixedRate = 300000) // Every 5 minutes
-    public void scheduledUnauthorizedDeviceScan() {
-        log.info("Running scheduled unauthorized device scan");
-        scannerService.scanForUnauthorizedDevices();
+    @BeforeEach
+    void setUp() {
+        service = new DeviceSyncService();
+        ReflectionTestUtils.setField(service, "tombstoneRetentionDays", 30L);
+        ReflectionTestUtils.setField(service, "changeVersions", changeVersions);
+        ReflectionTestUtils.setField(service, "authorizedRepository", mock(AuthorizedDeviceRepository.class));
+        ReflectionTestUtils.setField(service, "unauthorizedRepository", unauthorizedRepository);
+        ReflectionTestUtils.setField(service, "tombstoneRepository", tombstoneRepository);
+        when(changeVersions.watermark()).thenReturn(WATERMARK);
+        when(tombstoneRepository.findOldestVersionDeletedBefore(any(LocalDateTime.class))).thenReturn(HORIZON);
+    }
+    
+    @Test
+    void clientBehindTheTombstoneHorizonGetsAFullResync() {
+        List<UnauthorizedDeviceSummary> all = List.of(mock(UnauthorizedDeviceSummary.class));
+        when(unauthorizedRepository.findSummariesChangedBetween(DeviceSyncService.FULL_SYNC, WATERMARK)).thenReturn(all);
+        
+        Map<String, Object> delta = service.unauthorizedChanges(HORIZON - 1);
+        
+        assertThat(delta).containsEntry("resync", true)
+                .containsEntry("since", DeviceSyncService.FULL_SYNC)
+                .containsEntry("version", WATERMARK)
+                .containsEntry("changed", all);
+        verify(tombstoneRepository).findDeviceIdsDeletedBetween(DeviceKind.UNAUTHORIZED, DeviceSyncService.FULL_SYNC, WATERMARK);
+    }
+    
+    @Test
+    void clientAtTheHorizonStillGetsADelta() {
+        Map<String, Object> delta = service.unauthorizedChanges(HORIZON);
+        
+        assertThat(delta).containsEntry("resync", false).containsEntry("since", HORIZON);
+        verify(unauthorizedRepository).findSummariesChangedBetween(HORIZON, WATERMARK);
+    }
+    
+    @Test
+    void upToDateClientGetsAnEmptyDelta() {
+        Map<String, Object> delta = service.unauthorizedChanges(WATERMARK);
+        
+        assertThat(delta).containsEntry("resync", false)
+                .containsEntry("since", WATERMARK)
+                .containsEntry("version", WATERMARK)
+                .containsEntry("changed", List.of())
+                .containsEntry("deleted", List.of());
+        verify(unauthorizedRepository).findSummariesChangedBetween(WATERMARK, WATERMARK);
+        verify(tombstoneRepository).findDeviceIdsDeletedBetween(DeviceKind.UNAUTHORIZED, WATERMARK, WATERMARK);
+    }
+    
+    @Test
+    void clientAheadOfTheServerGetsAFullResync() {
+        Map<String, Object> delta = service.unauthorizedChanges(WATERMARK + 1);
+        
+        assertThat(delta).containsEntry("resync", true).containsEntry("since", DeviceSyncService.FULL_SYNC);
+    }
+    
+    @Test
+    void deleteWritesATombstone() {
+        when(unauthorizedRepository.deleteIfExists(7L)).thenReturn(1);
+        
+        assertThat(service.deleteUnauthorized(7L)).isTrue();
+        verify(tombstoneRepository).save(any(DeviceTombstone.class));
+    }
+    
+    @Test
+    void deletingAMissingDeviceWritesNoTombstone() {
+        assertThat(service.deleteUnauthorized(7L)).isFalse();
+        verify(tombstoneRepository, never()).save(any());
     }
-}
\ No newline at end of file
+}